@@ -0,0 +1,191 @@
+package com.example.voiprecord.capture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.PixelFormat;
+import android.media.Image;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.voiprecord.utils.VoipUtil;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 截图转换的性能对比：原来的逐像素转换 {@link VoipUtil#convertImageToJpegBytes} 与 {@link ScreenFrameConverter}。
+ * <p>
+ * 使用带行填充的 1080x2400 合成帧，分别统计每帧耗时和当前线程的 Java 堆分配次数/字节数，结果输出到 logcat：
+ * <pre>
+ * adb logcat -s ScreenFrameBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScreenFrameConverterBenchmark {
+    private static final String TAG = "ScreenFrameBenchmark";
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2400;
+    // 常见的 64 字节行对齐会留下 16 个像素的填充
+    private static final int ROW_STRIDE = (WIDTH + 16) * 4;
+    private static final int WARMUP_FRAMES = 3;
+    private static final int FRAMES = 20;
+
+    @Test
+    public void compareWithPerPixelConversion() {
+        FakeImage image = new FakeImage(createFrame());
+
+        Result legacy = run("per-pixel", () -> {
+            byte[] jpeg = VoipUtil.convertImageToJpegBytes(image.rewind(), WIDTH, HEIGHT);
+            return jpeg.length;
+        });
+
+        ScreenFrameConverter converter = new ScreenFrameConverter(WIDTH, HEIGHT);
+        Result bulk = run("bulk-copy", () -> converter.convert(image.rewind()));
+
+        assertDecodes(VoipUtil.convertImageToJpegBytes(image.rewind(), WIDTH, HEIGHT), -1);
+        int length = converter.convert(image.rewind());
+        assertDecodes(converter.getBuffer(), length);
+        converter.release();
+
+        Log.i(TAG, String.format("speedup %.1fx, allocations %d -> %d per frame",
+                (double) legacy.nanosPerFrame / bulk.nanosPerFrame, legacy.allocsPerFrame, bulk.allocsPerFrame));
+        assertTrue("复用缓冲区后每帧分配应少于逐像素转换", bulk.allocBytesPerFrame < legacy.allocBytesPerFrame);
+    }
+
+    private static Result run(String name, Conversion conversion) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            conversion.convert();
+        }
+        Debug.resetAllCounts();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        long totalBytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            totalBytes += conversion.convert();
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        Result result = new Result(elapsed / FRAMES,
+                Debug.getThreadAllocCount() / FRAMES,
+                Debug.getThreadAllocSize() / FRAMES);
+        Log.i(TAG, String.format("%s: %.2f ms/frame, %d allocs/frame, %d bytes/frame, jpeg %d bytes",
+                name, result.nanosPerFrame / 1e6, result.allocsPerFrame, result.allocBytesPerFrame, totalBytes / FRAMES));
+        return result;
+    }
+
+    private static void assertDecodes(byte[] jpeg, int length) {
+        assertNotNull(jpeg);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, length < 0 ? jpeg.length : length);
+        assertNotNull(bitmap);
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        bitmap.recycle();
+    }
+
+    /**
+     * 类似桌面截图的合成帧：大块纯色区域加上一些渐变和细节，行末尾带填充
+     */
+    private static ByteBuffer createFrame() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT).order(ByteOrder.nativeOrder());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < ROW_STRIDE / 4; x++) {
+                int band = (y / 120) % 4;
+                int r = band == 0 ? 240 : (x * 255 / WIDTH);
+                int g = band == 1 ? 240 : (y * 255 / HEIGHT);
+                int b = ((x / 8) ^ (y / 8)) % 2 == 0 ? 200 : 60;
+                buffer.put((byte) r).put((byte) g).put((byte) b).put((byte) 0xff);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private interface Conversion {
+        int convert();
+    }
+
+    private static final class Result {
+        final long nanosPerFrame;
+        final int allocsPerFrame;
+        final int allocBytesPerFrame;
+
+        Result(long nanosPerFrame, int allocsPerFrame, int allocBytesPerFrame) {
+            this.nanosPerFrame = nanosPerFrame;
+            this.allocsPerFrame = allocsPerFrame;
+            this.allocBytesPerFrame = allocBytesPerFrame;
+        }
+    }
+
+    /**
+     * 包装合成帧的 Image，close() 不释放数据，可以反复转换
+     */
+    private static final class FakeImage extends Image {
+        private final ByteBuffer pixels;
+        private final Plane[] planes;
+
+        FakeImage(ByteBuffer pixels) {
+            this.pixels = pixels;
+            this.planes = new Plane[]{new Plane() {
+                @Override
+                public int getRowStride() {
+                    return ROW_STRIDE;
+                }
+
+                @Override
+                public int getPixelStride() {
+                    return 4;
+                }
+
+                @Override
+                public ByteBuffer getBuffer() {
+                    return FakeImage.this.pixels;
+                }
+            }};
+        }
+
+        FakeImage rewind() {
+            pixels.position(0);
+            return this;
+        }
+
+        @Override
+        public int getFormat() {
+            return PixelFormat.RGBA_8888;
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public Plane[] getPlanes() {
+            return planes;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,24 +1,83 @@
 package com.example.voiprecord;
 
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.voiprecord.damain.FileRecordHistory;
-import com.example.voiprecord.utils.HistoryRecordUtil;
+import com.example.voiprecord.damain.SessionRecordHistory;
+import com.example.voiprecord.store.RecordIndex;
+import com.example.voiprecord.store.SessionExporter;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
+/**
+ * 历史记录页面。
+ * <p>
+ * 默认按会话分组显示，每行是一个会话的汇总（由 {@link RecordIndex} 增量维护）；点击会话后以
+ * {@link #EXTRA_SESSION_ID} 打开本页面，按录制顺序显示该会话的分片；长按会话用 {@link SessionExporter}
+ * 把某个声道或两个声道（立体声）导出为一个 WAV 文件，在会话的分片列表中长按分片导出单个分片。
+ * <p>
+ * 记录分页查询，查询在后台线程执行；滚动到接近底部时加载下一页。
+ * 索引变化（新分片落盘、上传完成、被清理）时自动刷新已加载的范围，列表差异由 ListAdapter 在后台计算。
+ */
 public class HistoryRecord extends AppCompatActivity {
 
+    // 只显示这个会话的分片
+    public static final String EXTRA_SESSION_ID = "session_id";
+
+    // 每页查询的条数
+    private static final int PAGE_SIZE = 50;
+    // 距离底部还剩这么多行时开始加载下一页
+    private static final int PREFETCH_DISTANCE = 20;
+    // 索引连续变化时合并刷新，录音过程中每个分片都会触发变化
+    private static final long REFRESH_DEBOUNCE_MS = 1000;
+
     private RecyclerView recyclerView;
-    private RecordAdapter recordAdapter;
+    private LinearLayoutManager layoutManager;
     private TextView textViewEmpty;
+    private Pager<?> pager;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 单线程执行查询，保证各次查询按提交顺序完成
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
+    // 导出可能持续数秒，不阻塞分页查询；页面关闭后已开始的导出继续完成
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+
+    private final Runnable refreshRunnable = () -> pager.refreshLoaded();
+    private final ContentObserver indexObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mainHandler.removeCallbacks(refreshRunnable);
+            mainHandler.postDelayed(refreshRunnable, REFRESH_DEBOUNCE_MS);
+        }
+    };
+
+    /**
+     * 查询一页数据，在后台线程调用
+     */
+    private interface PageQuery<T> {
+        /**
+         * @param last 上一页的最后一项，第一页为 null
+         */
+        List<T> load(T last, int limit);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,33 +93,199 @@ public class HistoryRecord extends AppCompatActivity {
         setupRecyclerView();
 
         // 设置刷新按钮的点击事件
-        refreshButton.setOnClickListener(v -> loadAndDisplayRecords());
+        refreshButton.setOnClickListener(v -> {
+            Toast.makeText(this, "正在加载记录...", Toast.LENGTH_SHORT).show();
+            pager.refreshLoaded();
+        });
+
+        getContentResolver().registerContentObserver(RecordIndex.CONTENT_URI, false, indexObserver);
 
         // 页面首次加载时获取数据
-        loadAndDisplayRecords();
+        pager.loadNextPage();
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(indexObserver);
+        mainHandler.removeCallbacks(refreshRunnable);
+        queryExecutor.shutdownNow();
+        exportExecutor.shutdown();
+        super.onDestroy();
     }
 
     private void setupRecyclerView() {
-        recordAdapter = new RecordAdapter();
-        recyclerView.setLayoutManager(new LinearLayoutManager(this)); // 设置布局管理器
-        recyclerView.setAdapter(recordAdapter); // 设置适配器
+        RecordIndex index = RecordIndex.getInstance(this);
+        String sessionId = getIntent().getStringExtra(EXTRA_SESSION_ID);
+        if (sessionId != null) {
+            setTitle(sessionId);
+            pager = new Pager<FileRecordHistory>(new RecordAdapter(this::exportChunk), (last, limit) -> last == null
+                    ? index.queryBySession(sessionId, 0, 0, limit)
+                    : index.queryBySession(sessionId, last.getTimestampMillis(), last.getId(), limit));
+        } else {
+            SessionAdapter.Listener listener = new SessionAdapter.Listener() {
+                @Override
+                public void onSessionClick(SessionRecordHistory session) {
+                    openSession(session);
+                }
+
+                @Override
+                public void onSessionLongClick(SessionRecordHistory session) {
+                    chooseExport(session);
+                }
+            };
+            pager = new Pager<SessionRecordHistory>(new SessionAdapter(listener), (last, limit) -> last == null
+                    ? index.querySessions(RecordIndex.FIRST_PAGE, "", limit)
+                    : index.querySessions(last.getEndMillis(), last.getSessionId(), limit));
+        }
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager); // 设置布局管理器
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setAdapter(pager.adapter); // 设置适配器
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView view, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= pager.size() - PREFETCH_DISTANCE) {
+                    pager.loadNextPage();
+                }
+            }
+        });
+    }
+
+    private void openSession(SessionRecordHistory session) {
+        Intent intent = new Intent(this, HistoryRecord.class);
+        intent.putExtra(EXTRA_SESSION_ID, session.getSessionId());
+        startActivity(intent);
+    }
+
+    /**
+     * 选择导出哪个声道；有两个声道时可以导出立体声（按声道名排序，第一个为左声道）
+     */
+    private void chooseExport(SessionRecordHistory session) {
+        List<String> channels = new ArrayList<>(session.getChannelDurations().keySet());
+        List<String> options = new ArrayList<>(channels);
+        if (channels.size() == 2) {
+            options.add("立体声（" + channels.get(0) + " 左 / " + channels.get(1) + " 右）");
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("导出 " + session.getSessionId())
+                .setItems(options.toArray(new String[0]), (dialog, which) -> export(exporter -> which < channels.size()
+                        ? exporter.exportChannel(session.getSessionId(), channels.get(which))
+                        : exporter.exportStereo(session.getSessionId(), channels.get(0), channels.get(1))))
+                .show();
     }
 
-    private void loadAndDisplayRecords() {
-        Toast.makeText(this, "正在加载记录...", Toast.LENGTH_SHORT).show();
+    /**
+     * 导出单个分片，分片保存在分段文件中时这是取得单个 WAV 文件的方式
+     */
+    private void exportChunk(FileRecordHistory record) {
+        int chunkIndex;
+        try {
+            chunkIndex = Integer.parseInt(record.getCount());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        export(exporter -> exporter.exportChunk(record.getSessionId(), record.getDirection(), chunkIndex));
+    }
 
-        // 调用之前创建的方法获取数据
-        List<FileRecordHistory> records = HistoryRecordUtil.getAllFileRecords();
+    /**
+     * 在后台线程导出，完成后提示结果
+     */
+    private void export(Function<SessionExporter, Uri> task) {
+        Toast.makeText(this, "正在导出...", Toast.LENGTH_SHORT).show();
+        SessionExporter exporter = new SessionExporter(this);
+        exportExecutor.execute(() -> {
+            Uri uri = task.apply(exporter);
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    Toast.makeText(this, uri != null ? "已导出到 Download/voip_export" : "导出失败",
+                            Toast.LENGTH_LONG).show();
+                }
+            });
+        });
+    }
 
+    private void showEmpty(boolean empty) {
         // 检查数据是否为空
-        if (records.isEmpty()) {
+        if (empty) {
             recyclerView.setVisibility(View.GONE); // 隐藏列表
             textViewEmpty.setVisibility(View.VISIBLE); // 显示“没有记录”
         } else {
             recyclerView.setVisibility(View.VISIBLE); // 显示列表
             textViewEmpty.setVisibility(View.GONE); // 隐藏“没有记录”
-            // 将数据设置到 Adapter 中
-            recordAdapter.setData(records);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 已加载的记录和分页状态，只在主线程访问
+     */
+    private final class Pager<T> {
+        final ListAdapter<T, ?> adapter;
+        final PageQuery<T> query;
+        List<T> items = new ArrayList<>();
+        boolean loadingPage;
+        boolean reachedEnd;
+        // 每次整体刷新加一，丢弃刷新之前发出的分页结果
+        int generation;
+
+        Pager(ListAdapter<T, ?> adapter, PageQuery<T> query) {
+            this.adapter = adapter;
+            this.query = query;
+        }
+
+        int size() {
+            return items.size();
+        }
+
+        /**
+         * 在已加载的记录之后追加一页
+         */
+        void loadNextPage() {
+            if (loadingPage || reachedEnd) {
+                return;
+            }
+            loadingPage = true;
+            int expectedGeneration = generation;
+            T last = items.isEmpty() ? null : items.get(items.size() - 1);
+            queryExecutor.execute(() -> {
+                List<T> page = query.load(last, PAGE_SIZE);
+                runOnUiThread(() -> {
+                    loadingPage = false;
+                    if (isDestroyed() || expectedGeneration != generation) {
+                        return;
+                    }
+                    reachedEnd = page.size() < PAGE_SIZE;
+                    List<T> next = new ArrayList<>(items.size() + page.size());
+                    next.addAll(items);
+                    next.addAll(page);
+                    display(next);
+                });
+            });
+        }
+
+        /**
+         * 重新查询已加载的范围（至少一页），有变化的行由 DiffUtil 找出
+         */
+        void refreshLoaded() {
+            int expectedGeneration = ++generation;
+            // 已经加载到末尾时多查一页，按录制顺序排列的分片列表新增的行在末尾
+            int limit = Math.max(reachedEnd ? items.size() + PAGE_SIZE : items.size(), PAGE_SIZE);
+            queryExecutor.execute(() -> {
+                List<T> loaded = query.load(null, limit);
+                runOnUiThread(() -> {
+                    if (isDestroyed() || expectedGeneration != generation) {
+                        return;
+                    }
+                    reachedEnd = loaded.size() < limit;
+                    display(loaded);
+                });
+            });
+        }
+
+        private void display(List<T> next) {
+            items = next;
+            showEmpty(items.isEmpty());
+            // 差异在后台计算，只重新绑定变化的行
+            adapter.submitList(items);
+        }
+    }
+}
@@ -32,7 +32,6 @@ import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.example.voiprecord.constant.LocalBroadcastRecord;
-import com.example.voiprecord.utils.HistoryRecordUtil;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -184,9 +183,6 @@ public class MainActivity extends AppCompatActivity {
         // 册了一个监听器，用于监视系统音频模式的变化
         audioManager.addOnModeChangedListener(getMainExecutor(), modeChangeListener);
 
-        //删除缓存的音频文件文件
-        HistoryRecordUtil.deleteFile();
-
         // 1. 找到触发跳转的按钮
         Button navigateButton = findViewById(R.id.btnNavigateToHistoryRecord);
 
@@ -5,27 +5,61 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.voiprecord.damain.FileRecordHistory;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
-public class RecordAdapter extends RecyclerView.Adapter<RecordAdapter.RecordViewHolder> {
+/**
+ * 历史记录列表。用 {@link #submitList} 更新数据，差异在后台线程计算，只重新绑定变化的行。
+ * 设置了 {@link Listener} 时长按一行导出该分片
+ */
+public class RecordAdapter extends ListAdapter<FileRecordHistory, RecordAdapter.RecordViewHolder> {
 
-    private List<FileRecordHistory> recordList = new ArrayList<>();
+    /**
+     * 分片被长按
+     */
+    public interface Listener {
+        void onRecordLongClick(FileRecordHistory record);
+    }
+
+    private static final DiffUtil.ItemCallback<FileRecordHistory> DIFF_CALLBACK = new DiffUtil.ItemCallback<FileRecordHistory>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull FileRecordHistory a, @NonNull FileRecordHistory b) {
+            return a.getId() == b.getId();
+        }
 
-    // 用于更新 Adapter 中的数据
-    public void setData(List<FileRecordHistory> records) {
-        this.recordList.clear();
-        if (records != null) {
-            this.recordList.addAll(records);
+        @Override
+        public boolean areContentsTheSame(@NonNull FileRecordHistory a, @NonNull FileRecordHistory b) {
+            // 只比较显示出来的字段
+            return Objects.equals(a.getTimestamp(), b.getTimestamp())
+                    && Objects.equals(a.getUsername(), b.getUsername())
+                    && Objects.equals(a.getDirection(), b.getDirection())
+                    && Objects.equals(a.getSessionId(), b.getSessionId());
         }
-        notifyDataSetChanged(); // 通知 RecyclerView 数据已改变，请刷新
+    };
+
+    private final Listener listener;
+
+    public RecordAdapter() {
+        this(null);
+    }
+
+    public RecordAdapter(Listener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
     }
 
     @NonNull
@@ -39,16 +73,11 @@ public class RecordAdapter extends RecyclerView.Adapter<RecordAdapter.RecordView
     @Override
     public void onBindViewHolder(@NonNull RecordViewHolder holder, int position) {
         // 获取当前位置的数据项
-        FileRecordHistory currentRecord = recordList.get(position);
+        FileRecordHistory currentRecord = getItem(position);
         // 将数据绑定到 ViewHolder 的视图上
         holder.bind(currentRecord);
     }
 
-    @Override
-    public int getItemCount() {
-        return recordList.size();
-    }
-
     // ViewHolder 内部类，持有每一行视图中的控件
     class RecordViewHolder extends RecyclerView.ViewHolder {
         TextView tvUsername;
@@ -63,6 +92,16 @@ public class RecordAdapter extends RecyclerView.Adapter<RecordAdapter.RecordView
             tvDirection = itemView.findViewById(R.id.tvDirection);
             // 如果没有绑定，软件会崩溃
             tvSessionId = itemView.findViewById(R.id.tvSessionId);
+            if (listener != null) {
+                itemView.setOnLongClickListener(v -> {
+                    int position = getBindingAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        return false;
+                    }
+                    listener.onRecordLongClick(getItem(position));
+                    return true;
+                });
+            }
         }
 
         // 绑定数据的方法
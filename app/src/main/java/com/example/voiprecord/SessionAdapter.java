@@ -0,0 +1,121 @@
+package com.example.voiprecord;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.voiprecord.damain.SessionRecordHistory;
+import com.example.voiprecord.store.ChunkFileName;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 按会话分组的历史记录列表，每行显示一个会话的汇总。点击进入该会话的分片列表，长按导出
+ */
+public class SessionAdapter extends ListAdapter<SessionRecordHistory, SessionAdapter.SessionViewHolder> {
+
+    /**
+     * 会话被点击或长按
+     */
+    public interface Listener {
+        void onSessionClick(SessionRecordHistory session);
+
+        void onSessionLongClick(SessionRecordHistory session);
+    }
+
+    private static final DiffUtil.ItemCallback<SessionRecordHistory> DIFF_CALLBACK = new DiffUtil.ItemCallback<SessionRecordHistory>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull SessionRecordHistory a, @NonNull SessionRecordHistory b) {
+            return a.getSessionId().equals(b.getSessionId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull SessionRecordHistory a, @NonNull SessionRecordHistory b) {
+            return a.getStartMillis() == b.getStartMillis()
+                    && a.getEndMillis() == b.getEndMillis()
+                    && a.getBytes() == b.getBytes()
+                    && a.getChunks() == b.getChunks()
+                    && a.getUploadedChunks() == b.getUploadedChunks()
+                    && Objects.equals(a.getUsername(), b.getUsername())
+                    && a.getChannelDurations().equals(b.getChannelDurations());
+        }
+    };
+
+    private final Listener listener;
+
+    public SessionAdapter(Listener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public SessionViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        // 与分片列表共用 list_item_record.xml 布局
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item_record, parent, false);
+        return new SessionViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SessionViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
+
+    class SessionViewHolder extends RecyclerView.ViewHolder {
+        TextView tvUsername;
+        TextView tvTimestamp;
+        TextView tvDirection;
+        TextView tvSessionId;
+
+        public SessionViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvUsername = itemView.findViewById(R.id.tvUsername);
+            tvTimestamp = itemView.findViewById(R.id.tvTimestamp);
+            tvDirection = itemView.findViewById(R.id.tvDirection);
+            tvSessionId = itemView.findViewById(R.id.tvSessionId);
+            itemView.setOnClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    listener.onSessionClick(getItem(position));
+                }
+            });
+            itemView.setOnLongClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                listener.onSessionLongClick(getItem(position));
+                return true;
+            });
+        }
+
+        public void bind(SessionRecordHistory session) {
+            tvUsername.setText(session.getUsername());
+            tvTimestamp.setText(ChunkFileName.formatTimestamp(session.getStartMillis())
+                    + " ~ " + ChunkFileName.formatTimestamp(session.getEndMillis()));
+            StringBuilder durations = new StringBuilder();
+            for (Map.Entry<String, Long> e : session.getChannelDurations().entrySet()) {
+                if (durations.length() > 0) {
+                    durations.append("  ");
+                }
+                durations.append(e.getKey()).append(' ').append(formatDuration(e.getValue()));
+            }
+            tvDirection.setText(durations);
+            tvSessionId.setText(String.format(Locale.US, "SessionId: %s  %.1fMB  已上传 %d/%d",
+                    session.getSessionId(), session.getBytes() / (1024.0 * 1024.0),
+                    session.getUploadedChunks(), session.getChunks()));
+        }
+
+        private String formatDuration(long millis) {
+            long seconds = millis / 1000;
+            return String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+    }
+}
@@ -9,21 +9,18 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.PixelFormat;
-import android.hardware.display.DisplayManager;
-import android.hardware.display.VirtualDisplay;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioPlaybackCaptureConfiguration;
 import android.media.AudioRecord;
 import android.media.Image;
-import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.media.projection.MediaProjection;
 import android.os.Build;
-import android.os.Environment;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.widget.Toast;
@@ -34,23 +31,38 @@ import androidx.core.app.NotificationCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 
+import com.example.voiprecord.capture.FrameChangeDetector;
+import com.example.voiprecord.capture.ScreenCapturer;
+import com.example.voiprecord.capture.ScreenFrameConverter;
+import com.example.voiprecord.capture.TileDeltaEncoder;
+import com.example.voiprecord.codec.AudioCodec;
 import com.example.voiprecord.constant.LocalBroadcastRecord;
+import com.example.voiprecord.metrics.Counter;
+import com.example.voiprecord.metrics.Histogram;
+import com.example.voiprecord.metrics.MetricsRegistry;
+import com.example.voiprecord.pipeline.AudioChunk;
+import com.example.voiprecord.pipeline.PcmRingBuffer;
+import com.example.voiprecord.pipeline.SpoolQuotaManager;
+import com.example.voiprecord.pipeline.UploadJournal;
+import com.example.voiprecord.pipeline.UploadPipeline;
+import com.example.voiprecord.pipeline.VoiceActivityDetector;
+import com.example.voiprecord.quality.AdaptiveQualityController;
+import com.example.voiprecord.quality.QualitySettings;
 import com.example.voiprecord.rpc.ApiClient;
-import com.example.voiprecord.utils.HistoryRecordUtil;
-import com.example.voiprecord.utils.VoipUtil;
+import com.example.voiprecord.rpc.HealthHeartbeat;
+import com.example.voiprecord.rpc.HttpClients;
+import com.example.voiprecord.store.SegmentedSessionStore;
+import com.example.voiprecord.stream.JpegStreamSender;
+import com.example.voiprecord.stream.PcmStreamSender;
+import com.example.voiprecord.stream.TransportMode;
+import com.example.voiprecord.task.TaskScheduler;
 import com.example.voiprecord.vo.CloseSessionVO;
 import com.example.voiprecord.vo.UserSessionVO;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Random;
-import java.util.concurrent.CompletableFuture;
+import java.net.URI;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class VoipRecordService extends Service {
     private static final String TAG = "VoipRecordingService";
@@ -58,11 +70,27 @@ public class VoipRecordService extends Service {
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int BUFFER_SIZE_FACTOR = 4;
+    // 每次 AudioRecord.read 的最大字节数
+    private static final int READ_BUFFER_SIZE = 4096;
+    // AudioRecord.read 出错后等待多久再重试，避免在采集线程上空转
+    private static final long READ_ERROR_BACKOFF_MS = 50;
+    // 连续出错时每隔这么多次打印一次日志
+    private static final int READ_ERROR_LOG_EVERY = 100;
+    // 每个声道环形缓冲区的槽位数：正在录制的 1 个 + 等待落盘的 1 个 + 内存中等待上传的分片
+    private static final int RING_BUFFER_SLOTS = UploadPipeline.MEMORY_RESIDENT_UPLOADS + 2;
+    // 实时推流（voip_server_4.py 协议）的端口、帧长和最大缓冲延迟
+    private static final int STREAM_UPLINK_PORT = 8001;
+    private static final int STREAM_DOWNLINK_PORT = 8002;
+    private static final int STREAM_SCREENSHOT_PORT = 8003;
+    private static final int STREAM_FRAME_MS = 40;
+    private static final int STREAM_MAX_LATENCY_MS = 500;
 
     private AudioRecord micRecord;
     private AudioRecord playbackRecord;
-    private Thread micThread;
-    private Thread playbackThread;
+    private Future<?> micTask;
+    private Future<?> playbackTask;
+    // 服务的所有后台任务都在这里执行，onCreate 创建、onDestroy 关闭
+    private TaskScheduler scheduler;
     private volatile boolean isRecording = false; // 使用 volatile 保证线程可见性
     private static MediaProjection mMediaProjection;
     private static final int NOTIFICATION_ID = 10001;
@@ -70,10 +98,47 @@ public class VoipRecordService extends Service {
     private String serverAddress = "";
     private String username = "unknown";
 
-    // 截图相关变量
-    private Thread screenshotThread;
-    private ImageReader imageReader;
-    private VirtualDisplay virtualDisplay;
+    // 截图相关变量：采集器与服务同生命周期，处理器每次录音新建
+    private ScreenCapturer screenCapturer;
+    private ScreenshotProcessor screenshotProcessor;
+
+    // 分片落盘与上传流水线
+    private UploadPipeline uploadPipeline;
+    // 本次会话音频分片的编码格式：服务端指定优先，否则使用本地设置 "audio_codec"
+    private AudioCodec audioCodec = AudioCodec.WAV;
+    // 是否用静音标记代替整段静音的分片，本地设置 "skip_silence"
+    private boolean skipSilence = false;
+    // 是否把分片追加到每个会话的分段文件，而不是每个分片一个 MediaStore 文件，本地设置 "segmented_storage"
+    private boolean segmentedStorage = false;
+    // 从上传日志补传的顺序，本地设置 "replay_order"（oldest_first / newest_first）
+    private UploadJournal.ReplayOrder replayOrder = UploadJournal.ReplayOrder.OLDEST_FIRST;
+    // 传输方式，本地设置 "transport_mode"；推流的目标主机为本地设置 "stream_host"，默认与 HTTP 服务器相同
+    private TransportMode transportMode = TransportMode.HTTP_CHUNKED;
+    private String streamHost = "";
+    private PcmStreamSender uplinkSender;
+    private PcmStreamSender downlinkSender;
+    private JpegStreamSender screenshotSender;
+    // 截图变化检测阈值（变化块的比例），本地设置 "screenshot_change_threshold"，小于 0 时关闭检测、每次都发送
+    private float screenshotChangeThreshold = 0f;
+    // 是否以分块增量帧（VTD1）发送截图，本地设置 "screenshot_tiles"，接收端需要支持该格式
+    private boolean screenshotTiles = false;
+    // 虚拟屏幕相对真实屏幕的缩放比例，本地设置 "screenshot_scale"，取值 (0, 1]
+    private float screenshotScale = 1f;
+    // 截图帧率上限，本地设置 "screenshot_max_fps"；实际间隔取它与服务端 IMAGE_FREQUENCY 中较长的一个
+    private float screenshotMaxFps = 1f;
+    // 是否根据实测上传情况自动调整截图质量，本地设置 "adaptive_quality"；
+    // 调整的下限为本地设置 "quality_jpeg_min"、"quality_scale_min"、"quality_interval_max_ms"
+    private boolean adaptiveQuality = true;
+    private int qualityJpegMin = 30;
+    private float qualityScaleMin = 0.5f;
+    private long qualityIntervalMaxMs = 0;
+    private AdaptiveQualityController qualityController;
+    // 心跳间隔和抖动范围（秒），本地设置 "heartbeat_interval_s"、"heartbeat_jitter_s"
+    private int heartbeatIntervalS = 30;
+    private int heartbeatJitterS = 5;
+    private HealthHeartbeat heartbeat;
+    // 截图的启停和质量调整可能来自不同线程
+    private final Object screenshotLock = new Object();
 
     private static String currentIp = "http://192.168.3.112:6000";
 
@@ -81,6 +146,9 @@ public class VoipRecordService extends Service {
     public static int AUDIO_CHUNK_INTERVAL_MS = 15000 / 4;
     // 截屏的时间
     public static int IMAGE_FREQUENCY = 15000 / 4;
+    // 截屏没有变化时，至少每隔这么久仍发送一帧，服务端据此确认截图流正常
+    private static final long SCREENSHOT_REFRESH_MS = 60_000;
+    private static final float MIN_SCREENSHOT_SCALE = 0.25f;
     // Session
     public static String USERSESSIONID;
     private void startForegroundService() {
@@ -122,11 +190,27 @@ public class VoipRecordService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        scheduler = new TaskScheduler();
+        // 缓存目录的配额：启动时扫描一次，之后由落盘线程增量更新，定期检查是否超额
+        SpoolQuotaManager spool = SpoolQuotaManager.getInstance(this);
+        scheduler.submit(TaskScheduler.Stage.HOUSEKEEPING, spool::rescan);
+        // 分段文件在应用私有目录中，和缓存目录共用一份配额：缓存目录先淘汰，分段文件只能用剩下的部分
+        SegmentedSessionStore segments = SegmentedSessionStore.getInstance(this);
+        scheduler.scheduleWithFixedDelay(TaskScheduler.Stage.HOUSEKEEPING, () -> {
+                    spool.enforce();
+                    segments.enforce(Math.max(0, MainActivity.MAX_FOLDER_SIZE_BYTES - spool.getTotalBytes()));
+                },
+                MainActivity.CLEAN_MEMORY_FREQUENCY, MainActivity.CLEAN_MEMORY_FREQUENCY, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null && intent.hasExtra("command")) {
+        if (intent == null) {
+            // START_STICKY 被系统重启：补传进程被杀前没有上传完的分片
+            replayJournal();
+            return START_STICKY;
+        }
+        if (intent.hasExtra("command")) {
             currentCommand = intent.getStringExtra("command");
         }
 
@@ -134,6 +218,22 @@ public class VoipRecordService extends Service {
             SharedPreferences prefs = getSharedPreferences("voip_config", MODE_PRIVATE);
             serverAddress = prefs.getString("server", "");
             username = prefs.getString("username", "unknown");
+            audioCodec = AudioCodec.fromName(prefs.getString("audio_codec", null), AudioCodec.WAV);
+            skipSilence = prefs.getBoolean("skip_silence", false);
+            segmentedStorage = prefs.getBoolean("segmented_storage", false);
+            replayOrder = UploadJournal.ReplayOrder.fromName(prefs.getString("replay_order", null), UploadJournal.ReplayOrder.OLDEST_FIRST);
+            transportMode = TransportMode.fromName(prefs.getString("transport_mode", null), TransportMode.HTTP_CHUNKED);
+            streamHost = prefs.getString("stream_host", "");
+            screenshotChangeThreshold = prefs.getFloat("screenshot_change_threshold", 0f);
+            screenshotTiles = prefs.getBoolean("screenshot_tiles", false);
+            screenshotScale = Math.max(MIN_SCREENSHOT_SCALE, Math.min(1f, prefs.getFloat("screenshot_scale", 1f)));
+            screenshotMaxFps = prefs.getFloat("screenshot_max_fps", 1f);
+            adaptiveQuality = prefs.getBoolean("adaptive_quality", true);
+            qualityJpegMin = prefs.getInt("quality_jpeg_min", 30);
+            qualityScaleMin = Math.max(MIN_SCREENSHOT_SCALE, prefs.getFloat("quality_scale_min", 0.5f));
+            qualityIntervalMaxMs = prefs.getLong("quality_interval_max_ms", 0);
+            heartbeatIntervalS = prefs.getInt("heartbeat_interval_s", 30);
+            heartbeatJitterS = prefs.getInt("heartbeat_jitter_s", 5);
 
             startForegroundService();
             if (mMediaProjection != null) {
@@ -145,12 +245,23 @@ public class VoipRecordService extends Service {
         return START_STICKY;
     }
 
-    private void initScreenshot() {
-        DisplayMetrics metrics = getResources().getDisplayMetrics();
-        int width = metrics.widthPixels;
-        int height = metrics.heightPixels;
-        int density = metrics.densityDpi;
+    private void replayJournal() {
+        SharedPreferences prefs = getSharedPreferences("voip_config", MODE_PRIVATE);
+        username = prefs.getString("username", "unknown");
+        UploadPipeline pipeline = new UploadPipeline(this, currentIp, username);
+        pipeline.setReplayOrder(UploadJournal.ReplayOrder.fromName(prefs.getString("replay_order", null), UploadJournal.ReplayOrder.OLDEST_FIRST));
+        if (pipeline.getJournalPending() == 0) {
+            return;
+        }
+        Log.i(TAG, "Replaying " + pipeline.getJournalPending() + " journaled chunks after restart.");
+        pipeline.startReplayOnly(scheduler, () -> Log.i(TAG, "Journal replay finished, replayed=" + pipeline.getReplayedUploads()
+                + ", remaining=" + pipeline.getJournalPending()));
+    }
 
+    private void initScreenshot() {
+        if (screenCapturer != null) {
+            return;
+        }
         mMediaProjection.registerCallback(new MediaProjection.Callback() {
             @Override
             public void onStop() {
@@ -158,25 +269,107 @@ public class VoipRecordService extends Service {
                 stopRecording();
             }
         }, null);
+        screenCapturer = new ScreenCapturer(mMediaProjection);
+    }
 
-        if (imageReader == null && virtualDisplay == null) {
-            imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 2);
-            virtualDisplay = mMediaProjection.createVirtualDisplay(
-                    "ScreenCapture",
-                    width, height, density,
-                    DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-                    imageReader.getSurface(),
-                    null, null);
+    /**
+     * 截图间隔：服务端 IMAGE_FREQUENCY 与帧率上限中较长的一个
+     */
+    private long screenshotIntervalMs() {
+        long interval = IMAGE_FREQUENCY;
+        if (screenshotMaxFps > 0) {
+            interval = Math.max(interval, (long) (1000 / screenshotMaxFps));
         }
+        return interval;
     }
 
-    private void startRecording() {
+    /**
+     * 按缩放比例开始截图，每一帧由 {@link ScreenshotProcessor} 在采集线程上处理
+     */
+    private void startScreenCapture(float scale, int quality, long intervalMs) {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        // 编码器按 16 像素对齐效率最高，这里至少保证是偶数
+        int width = Math.round(metrics.widthPixels * scale) & ~1;
+        int height = Math.round(metrics.heightPixels * scale) & ~1;
+        int density = Math.max(1, Math.round(metrics.densityDpi * scale));
+        synchronized (screenshotLock) {
+            screenshotProcessor = new ScreenshotProcessor(width, height, quality);
+            screenCapturer.start(width, height, density, intervalMs, screenshotProcessor);
+        }
+    }
+
+    private void stopScreenCapture() {
+        synchronized (screenshotLock) {
+            // 上传截图可能还在进行，等它结束后再在采集线程上释放位图
+            ScreenshotProcessor processor = screenshotProcessor;
+            screenCapturer.stop(processor != null ? processor::release : null);
+            screenshotProcessor = null;
+        }
+    }
 
-        if (createConnect() == null) {
-            LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(LocalBroadcastRecord.ACTION_RECORDING_FAIL));
-            Log.e(TAG, "网络异常");
+    /**
+     * 按自适应质量控制的结果调整截图：分辨率变化时重建采集，否则只改 JPEG 质量和间隔
+     */
+    private void applyScreenshotQuality(QualitySettings settings) {
+        synchronized (screenshotLock) {
+            ScreenshotProcessor processor = screenshotProcessor;
+            if (processor == null || !isRecording) {
+                return;
+            }
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            int width = Math.round(metrics.widthPixels * settings.getScreenshotScale()) & ~1;
+            if (width != processor.getWidth()) {
+                stopScreenCapture();
+                startScreenCapture(settings.getScreenshotScale(), settings.getJpegQuality(), settings.getScreenshotIntervalMs());
+            } else {
+                processor.setQuality(settings.getJpegQuality());
+                screenCapturer.setIntervalMs(settings.getScreenshotIntervalMs());
+            }
+        }
+    }
+
+    /**
+     * 只有 HTTP 上传能测到吞吐量，推流模式下不做自适应
+     */
+    private void startQualityControl(UploadPipeline pipeline) {
+        if (!adaptiveQuality || pipeline == null) {
             return;
         }
+        long interval = screenshotIntervalMs();
+        long maxInterval = qualityIntervalMaxMs > 0 ? qualityIntervalMaxMs : interval * 4;
+        AdaptiveQualityController.Bounds bounds = new AdaptiveQualityController.Bounds(
+                qualityJpegMin, ScreenFrameConverter.DEFAULT_QUALITY,
+                qualityScaleMin, screenshotScale,
+                interval, maxInterval);
+        AdaptiveQualityController.Target target = new AdaptiveQualityController.Target() {
+            @Override
+            public int getUploadBacklog() {
+                return pipeline.getUploadBacklog();
+            }
+
+            @Override
+            public void applyQuality(QualitySettings settings) {
+                applyScreenshotQuality(settings);
+            }
+        };
+        qualityController = new AdaptiveQualityController(scheduler.executor(TaskScheduler.Stage.HOUSEKEEPING),
+                target, HttpClients.meter(), bounds);
+        qualityController.start();
+    }
+
+    private void startRecording() {
+
+        if (transportMode.usesHttp()) {
+            if (createConnect() == null) {
+                LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(LocalBroadcastRecord.ACTION_RECORDING_FAIL));
+                Log.e(TAG, "网络异常");
+                return;
+            }
+        } else {
+            // 只推流时不创建 HTTP 会话
+            currentIp = MainActivity.INTRANETIP;
+            USERSESSIONID = null;
+        }
 
         if (isRecording) {
             Log.w(TAG, "Recording already in progress.");
@@ -217,18 +410,34 @@ public class VoipRecordService extends Service {
                 return;
             }
 
+            UploadPipeline pipeline = null;
+            if (transportMode.usesHttp()) {
+                pipeline = new UploadPipeline(this, currentIp, username, audioCodec);
+                Log.i(TAG, "Audio codec for this session: " + audioCodec);
+                pipeline.setReplayOrder(replayOrder);
+                pipeline.setSegmentedStorage(segmentedStorage);
+                pipeline.start(scheduler);
+            }
+            uploadPipeline = pipeline;
+            SpoolQuotaManager.getInstance(this).setActiveSession(USERSESSIONID);
+            SegmentedSessionStore.getInstance(this).setActiveSession(USERSESSIONID);
+            startStreaming();
+            PcmStreamSender micSender = uplinkSender;
+            PcmStreamSender playbackSender = downlinkSender;
+            UploadPipeline capturePipeline = pipeline;
+
             micRecord.startRecording();
             playbackRecord.startRecording();
             isRecording = true;
 
-            // 线程自己管理连接
-            micThread = new Thread(() -> recordAndSendAudio(micRecord, "ch0"));
-            playbackThread = new Thread(() -> recordAndSendAudio(playbackRecord, "ch1"));
-            screenshotThread = new Thread(this::captureAndSendScreenshots);
-            micThread.start();
-            playbackThread.start();
-            screenshotThread.start();
-            recordHealth();
+            // 两个声道的录音循环运行在实时采集执行器上
+            micTask = scheduler.submit(TaskScheduler.Stage.CAPTURE, () -> recordAndSendAudio(micRecord, "ch0", capturePipeline, micSender));
+            playbackTask = scheduler.submit(TaskScheduler.Stage.CAPTURE, () -> recordAndSendAudio(playbackRecord, "ch1", capturePipeline, playbackSender));
+            startScreenCapture(screenshotScale, ScreenFrameConverter.DEFAULT_QUALITY, screenshotIntervalMs());
+            startQualityControl(pipeline);
+            if (transportMode.usesHttp()) {
+                recordHealth();
+            }
 
             Log.i(TAG, "Recording started");
             LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(LocalBroadcastRecord.ACTION_RECORDING_STARTED));
@@ -239,6 +448,53 @@ public class VoipRecordService extends Service {
         }
     }
 
+    /**
+     * 按传输方式启动实时推流：ch0（麦克风）推到上行端口，ch1（播放）推到下行端口，截图推到截图端口
+     */
+    private void startStreaming() {
+        if (!transportMode.usesStream()) {
+            return;
+        }
+        String host = streamHost;
+        if (host == null || host.isEmpty()) {
+            host = URI.create(currentIp).getHost();
+        }
+        int frameBytes = PcmRingBuffer.bytesFor(STREAM_FRAME_MS, SAMPLE_RATE);
+        int capacityBytes = PcmRingBuffer.bytesFor(STREAM_MAX_LATENCY_MS, SAMPLE_RATE);
+        uplinkSender = new PcmStreamSender("uplink", host, STREAM_UPLINK_PORT, username, capacityBytes, frameBytes);
+        downlinkSender = new PcmStreamSender("downlink", host, STREAM_DOWNLINK_PORT, username, capacityBytes, frameBytes);
+        screenshotSender = new JpegStreamSender("screenshot", host, STREAM_SCREENSHOT_PORT);
+        uplinkSender.start(scheduler);
+        downlinkSender.start(scheduler);
+        screenshotSender.start(scheduler);
+        MetricsRegistry metrics = MetricsRegistry.get();
+        PcmStreamSender uplink = uplinkSender;
+        PcmStreamSender downlink = downlinkSender;
+        JpegStreamSender screenshots = screenshotSender;
+        metrics.gauge("stream.uplink.dropped_bytes", uplink::getDroppedBytes);
+        metrics.gauge("stream.downlink.dropped_bytes", downlink::getDroppedBytes);
+        metrics.gauge("stream.screenshot.dropped_frames", screenshots::getDroppedFrames);
+        metrics.gauge("stream.reconnects", () -> uplink.getReconnects() + downlink.getReconnects() + screenshots.getReconnects());
+        Log.i(TAG, "Streaming to " + host + ", mode=" + transportMode);
+    }
+
+    private void stopStreaming() {
+        if (uplinkSender != null) {
+            uplinkSender.stop();
+            Log.i(TAG, "uplink stream sent=" + uplinkSender.getBytesSent() + ", dropped=" + uplinkSender.getDroppedBytes());
+            uplinkSender = null;
+        }
+        if (downlinkSender != null) {
+            downlinkSender.stop();
+            Log.i(TAG, "downlink stream sent=" + downlinkSender.getBytesSent() + ", dropped=" + downlinkSender.getDroppedBytes());
+            downlinkSender = null;
+        }
+        if (screenshotSender != null) {
+            screenshotSender.stop();
+            screenshotSender = null;
+        }
+    }
+
     private UserSessionVO createConnect() {
         currentIp = MainActivity.INTRANETIP;
         UserSessionVO connect = connect();
@@ -252,17 +508,18 @@ public class VoipRecordService extends Service {
     }
 
     private UserSessionVO connect() {
-        CompletableFuture<UserSessionVO> completableFuture = CompletableFuture.supplyAsync(() -> {
+        Future<UserSessionVO> sessionFuture = scheduler.submit(TaskScheduler.Stage.NETWORK, () -> {
             UserSessionVO userSessionVO = new ApiClient().createNewCallSession(currentIp, username);
             AUDIO_CHUNK_INTERVAL_MS = userSessionVO.getAudioChunkSize() * 1000;
             IMAGE_FREQUENCY = userSessionVO.getImageFrequency() * 1000;
             USERSESSIONID = userSessionVO.getSessionId();
+            audioCodec = AudioCodec.fromName(userSessionVO.getAudioCodec(), audioCodec);
 
             return userSessionVO;
         });
         UserSessionVO userSessionVO = null;
         try {
-            userSessionVO = completableFuture.get();
+            userSessionVO = sessionFuture.get();
         } catch (ExecutionException | InterruptedException e) {
             return null;
         }
@@ -271,97 +528,227 @@ public class VoipRecordService extends Service {
 
 
     /**
-     * 重构：录制并发送音频的线程任务
+     * 重构：录制音频的线程任务，录满一个分片后交给 UploadPipeline 异步落盘和上传。
+     * 音频直接读入预分配的环形缓冲区槽位，稳态下不分配内存。
+     * 开启 skipSilence 时，每次读取后顺带做语音活动检测，整段静音的分片由流水线替换为静音标记。
+     * 开启推流时按 STREAM_FRAME_MS 的小帧读取，每读到一帧立即交给 streamSender；不使用 HTTP 时 pipeline 为 null。
+     * 每次 read 的耗时、读到的字节数少于请求的次数和读取错误记入 {@code audio.<声道>.*} 指标。
+     * read 出错时等待 {@link #READ_ERROR_BACKOFF_MS} 再重试，连续出错只打印第一次和之后每
+     * {@link #READ_ERROR_LOG_EVERY} 次；ERROR_DEAD_OBJECT / ERROR_INVALID_OPERATION 说明 AudioRecord 已不可用，
+     * 该声道停止录音。
      */
-    private void recordAndSendAudio(AudioRecord audioRecord, String direction) {
-        final int readBufferSize = 4096;
-        byte[] readBuffer = new byte[readBufferSize];
-        ApiClient apiClient = new ApiClient();
+    private void recordAndSendAudio(AudioRecord audioRecord, String direction, UploadPipeline pipeline, PcmStreamSender streamSender) {
+        MetricsRegistry metrics = MetricsRegistry.get();
+        Histogram readMs = metrics.histogram("audio." + direction + ".read_ms");
+        Counter shortReads = metrics.counter("audio." + direction + ".short_reads");
+        Counter readErrors = metrics.counter("audio." + direction + ".read_errors");
+        Counter chunks = metrics.counter("audio." + direction + ".chunks");
+        int readSize = streamSender != null ? PcmRingBuffer.bytesFor(STREAM_FRAME_MS, SAMPLE_RATE) : READ_BUFFER_SIZE;
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(RING_BUFFER_SLOTS, PcmRingBuffer.bytesFor(AUDIO_CHUNK_INTERVAL_MS, SAMPLE_RATE));
+        VoiceActivityDetector vad = skipSilence ? new VoiceActivityDetector(SAMPLE_RATE) : null;
         int count = 0;
-        while (isRecording) {
+        int consecutiveErrors = 0;
+        boolean dead = false;
+        while (isRecording && !dead) {
 
-            // Step 1: 累计 AUDIO_CHUNK_INTERVAL_MS 的音频数据
-            ByteArrayOutputStream pcmChunk = new ByteArrayOutputStream();
+            // Step 1: 累计 AUDIO_CHUNK_INTERVAL_MS 的音频数据，按字节数而不是墙钟时间切分
+            AudioChunk chunk = ringBuffer.acquire();
+            int chunkBytes = Math.min(chunk.getCapacity(), PcmRingBuffer.bytesFor(AUDIO_CHUNK_INTERVAL_MS, SAMPLE_RATE));
             long startTime = System.currentTimeMillis();
-            while (isRecording && (System.currentTimeMillis() - startTime < AUDIO_CHUNK_INTERVAL_MS)) {
-                int read = audioRecord.read(readBuffer, 0, readBufferSize);
+            while (isRecording && chunk.getLength() < chunkBytes) {
+                int toRead = Math.min(readSize, chunkBytes - chunk.getLength());
+                long readStart = System.nanoTime();
+                int read = audioRecord.read(chunk.getBuffer(), chunk.getWritePosition(), toRead);
+                readMs.recordSince(readStart);
+                if (read > 0 && read < toRead) {
+                    shortReads.inc();
+                }
+                if (read >= 0) {
+                    consecutiveErrors = 0;
+                }
                 if (read > 0) {
-                    pcmChunk.write(readBuffer, 0, read);
+                    if (streamSender != null) {
+                        streamSender.offer(chunk.getBuffer(), chunk.getWritePosition(), read);
+                    }
+                    if (vad != null) {
+                        vad.process(chunk.getBuffer(), chunk.getWritePosition(), read);
+                    }
+                    chunk.advance(read);
+                } else if (read < 0) {
+                    readErrors.inc();
+                    if (consecutiveErrors++ % READ_ERROR_LOG_EVERY == 0) {
+                        Log.e(TAG, direction + " AudioRecord.read error: " + read + " (" + consecutiveErrors
+                                + " in a row, " + readErrors.get() + " total)");
+                    }
+                    if (read == AudioRecord.ERROR_DEAD_OBJECT || read == AudioRecord.ERROR_INVALID_OPERATION) {
+                        Log.e(TAG, direction + " AudioRecord is no longer usable, stopping capture of this channel.");
+                        dead = true;
+                        break;
+                    }
+                    // 暂时性错误：退避后继续填满同一个分片，保证分片长度固定（导出按固定长度补静音、对齐声道）
+                    try {
+                        Thread.sleep(READ_ERROR_BACKOFF_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dead = true;
+                        break;
+                    }
                 }
-
             }
 
-            if (!isRecording || pcmChunk.size() == 0) {
+            if (!isRecording || chunk.getLength() == 0) {
+                chunk.release();
+                if (vad != null) {
+                    vad.reset();
+                }
                 continue;
             }
+            if (vad != null) {
+                chunk.setSilent(vad.isSilent());
+                vad.reset();
+            }
 
-            // Step 2: 将音频数据转换为 wav 格式
-            byte[] pcmData = pcmChunk.toByteArray();
-            byte[] wavData = VoipUtil.pcmToWav(pcmData.length, pcmData);
-
-            String timestamp = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US).format(new Date());
-            String fileName = timestamp + "=" + count + "=" +"_voip_up_" + "=" +direction + "=" + username + "=" + USERSESSIONID + "=" +".wav";
-            File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/" + "voip",  fileName);
-            HistoryRecordUtil.saveFileToDownloads(this, fileName, wavData);
-
-            apiClient.uploadAudioChunk(currentIp, USERSESSIONID, direction, count, file);
+            // Step 2: 交给流水线，不在录音线程做编码、写文件和网络请求
+            if (pipeline == null) {
+                chunk.release();
+                continue;
+            }
+            chunk.seal(USERSESSIONID, direction, count, startTime);
+            pipeline.submit(chunk);
+            chunks.inc();
             count++;
-            Log.i(TAG, "Sent " + direction + " chunk: " + file.getName());
         }
 
         Log.i(TAG, direction + " thread finished.");
     }
 
     /**
-     * 重构：捕获并发送截图的线程任务
+     * 处理采集到的每一帧截图：变化检测、编码，然后推流和/或上传。只在采集线程上调用。
      */
-    private void captureAndSendScreenshots() {
-        DisplayMetrics metrics = getResources().getDisplayMetrics();
-        int width = metrics.widthPixels;
-        int height = metrics.heightPixels;
-        ApiClient apiClient = new ApiClient();
-        while (isRecording) {
-            try {
-                Thread.sleep(IMAGE_FREQUENCY);
-
-                Image image = imageReader.acquireLatestImage();
-                byte[] jpegBytes = VoipUtil.convertImageToJpegBytes(image, width, height);
-                apiClient.uploadScreenshot(currentIp, USERSESSIONID, jpegBytes, "image.jpg");
+    private class ScreenshotProcessor implements ScreenCapturer.FrameCallback {
+        private final Histogram detectMs = MetricsRegistry.get().histogram("screenshot.detect_ms");
+        private final Histogram encodeMs = MetricsRegistry.get().histogram("screenshot.encode_ms");
+        private final Counter skippedCounter = MetricsRegistry.get().counter("screenshot.skipped");
+        private final Counter sentCounter = MetricsRegistry.get().counter("screenshot.sent");
+        private final Counter sentBytes = MetricsRegistry.get().counter("screenshot.sent_bytes");
+        private final Counter uploadedCounter = MetricsRegistry.get().counter("screenshot.uploaded");
+        private final ApiClient apiClient = new ApiClient();
+        private final ScreenFrameConverter converter;
+        private final FrameChangeDetector detector;
+        private final TileDeltaEncoder tileEncoder;
+        private final String fileName;
+        private long lastSentAt = 0;
+        private long streamLosses = 0;
+        private int skippedFrames = 0;
+
+        ScreenshotProcessor(int width, int height, int quality) {
+            converter = new ScreenFrameConverter(width, height, quality);
+            detector = screenshotChangeThreshold >= 0
+                    ? new FrameChangeDetector(width, height, screenshotChangeThreshold) : null;
+            tileEncoder = screenshotTiles ? new TileDeltaEncoder(converter, width, height) : null;
+            fileName = tileEncoder != null ? "image.vtd" : "image.jpg";
+        }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                Log.w(TAG, "Screenshot thread interrupted.");
-                break;
+        @Override
+        public void onFrame(Image image) {
+            try {
+                if (detector != null) {
+                    Image.Plane plane = image.getPlanes()[0];
+                    long detectStart = System.nanoTime();
+                    boolean changed = detector.hasChanged(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+                    detectMs.recordSince(detectStart);
+                    if (!changed) {
+                        if (SystemClock.elapsedRealtime() - lastSentAt < SCREENSHOT_REFRESH_MS) {
+                            // 画面没有变化，跳过这一帧
+                            skippedFrames++;
+                            skippedCounter.inc();
+                            return;
+                        }
+                        detector.accept();
+                    }
+                }
+                lastSentAt = SystemClock.elapsedRealtime();
+                JpegStreamSender sender = screenshotSender;
+                int length;
+                byte[] data;
+                long encodeStart = System.nanoTime();
+                if (tileEncoder != null) {
+                    if (sender != null) {
+                        // 推流丢帧或重连后接收端无法应用增量帧，下一帧发关键帧
+                        long losses = sender.getDroppedFrames() + sender.getReconnects();
+                        if (losses != streamLosses) {
+                            streamLosses = losses;
+                            tileEncoder.requestKeyframe();
+                        }
+                    }
+                    length = tileEncoder.encode(image);
+                    data = tileEncoder.getBuffer();
+                } else {
+                    length = converter.convert(image);
+                    data = converter.getBuffer();
+                }
+                encodeMs.recordSince(encodeStart);
+                sentCounter.inc();
+                sentBytes.add(length);
+                if (sender != null) {
+                    sender.offer(data, length);
+                }
+                if (transportMode.usesHttp()) {
+                    boolean uploaded = apiClient.uploadScreenshot(currentIp, USERSESSIONID, data, length, fileName);
+                    if (uploaded) {
+                        uploadedCounter.inc();
+                    } else if (tileEncoder != null) {
+                        tileEncoder.requestKeyframe();
+                    }
+                }
             } catch (Exception e) {
-                Log.e(TAG, "Screenshot send error. Connection lost. Attempting to reconnect.", e);
+                Log.e(TAG, "Screenshot send error.", e);
             }
         }
-        Log.i(TAG, "Screenshot thread finished.");
-    }
 
+        int getWidth() {
+            return converter.getWidth();
+        }
 
+        /**
+         * 调整 JPEG 质量，分块增量帧下一个图块起生效
+         */
+        void setQuality(int quality) {
+            converter.setQuality(quality);
+        }
 
+        /**
+         * 采集停止后调用，释放位图
+         */
+        void release() {
+            if (tileEncoder != null) {
+                tileEncoder.release();
+            }
+            converter.release();
+            Log.i(TAG, "Screenshot capture finished, skipped " + skippedFrames + " unchanged frames.");
+        }
+    }
 
     private void stopRecording() {
         if (!isRecording) return;
         Log.i(TAG, "Stopping recording...");
 
         isRecording = false; // **核心**：先设置标志位，让所有循环都能退出
-
-        // 中断线程，特别是当它们在 sleep 或 I/O 操作中阻塞时
-        if (micThread != null) micThread.interrupt();
-        if (playbackThread != null) playbackThread.interrupt();
-        if (screenshotThread != null) screenshotThread.interrupt();
-
-        // 等待线程结束（可选但推荐）
-        try {
-            if (micThread != null) micThread.join(1000);
-            if (playbackThread != null) playbackThread.join(1000);
-            if (screenshotThread != null) screenshotThread.join(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            Log.e(TAG, "Thread join interrupted during stop.", e);
+        SpoolQuotaManager.getInstance(this).setActiveSession(null);
+        if (qualityController != null) {
+            qualityController.stop();
+            qualityController = null;
         }
+        if (heartbeat != null) {
+            heartbeat.stop();
+            heartbeat = null;
+        }
+
+        // 等待录音循环读完当前这一段后退出，再释放 AudioRecord
+        TaskScheduler.await(micTask, 1000);
+        TaskScheduler.await(playbackTask, 1000);
+        micTask = null;
+        playbackTask = null;
 
         if (micRecord != null) {
             micRecord.stop();
@@ -373,39 +760,68 @@ public class VoipRecordService extends Service {
             playbackRecord.release();
             playbackRecord = null;
         }
+        if (screenCapturer != null) {
+            stopScreenCapture();
+        }
 
-        closeConnect();
+        stopStreaming();
+
+        // 等流水线把剩余分片上传完，再在上传线程上关闭会话。排空可能持续数十秒，期间重新开始录音会覆盖
+        // currentIp 和 USERSESSIONID，所以这里先记下要关闭的会话
+        // 分段存储在排空结束后才不再把它当作正在录音的会话，排空期间不会被配额删除
+        final String baseUrl = currentIp;
+        final String sessionId = USERSESSIONID;
+        SegmentedSessionStore segments = SegmentedSessionStore.getInstance(this);
+        if (uploadPipeline != null) {
+            uploadPipeline.stop(() -> {
+                segments.finishSession(sessionId);
+                closeSession(baseUrl, sessionId);
+            });
+            uploadPipeline = null;
+        } else {
+            segments.finishSession(sessionId);
+            if (transportMode.usesHttp()) {
+                closeConnect(baseUrl, sessionId);
+            }
+        }
 
         Log.i(TAG, "Recording stopped successfully.");
         LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(LocalBroadcastRecord.ACTION_RECORDING_STOPPED));
     }
 
+    /**
+     * 按固定频率上报心跳和统计，数据上传正常时自动跳过，见 {@link HealthHeartbeat}
+     */
     public void recordHealth() {
-        ApiClient apiClient = new ApiClient();
-        Thread recordHealth = new Thread(() -> {
-            while (isRecording) {
-                apiClient.postHealthStatusSync(currentIp, USERSESSIONID, username);
-
-                int waitTime = new Random().nextInt(60);
-                try {
-                    Thread.sleep(waitTime * 1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        });
-        recordHealth.start();
+        heartbeat = new HealthHeartbeat(scheduler.executor(TaskScheduler.Stage.NETWORK), currentIp, USERSESSIONID, username, appVersion(),
+                heartbeatIntervalS * 1000L, heartbeatJitterS * 1000L);
+        heartbeat.start();
     }
 
-    public void closeConnect() {
-        new Thread(() -> {
-            ApiClient apiClient = new ApiClient();
-            CloseSessionVO closeSessionVO = apiClient.closeCallSessionSync(currentIp, USERSESSIONID);
-            if (closeSessionVO != null) {
-                Log.i(TAG, "CloseSessionVO: " + closeSessionVO);
-            }
-        }).start();
+    private String appVersion() {
+        try {
+            PackageInfo info = getPackageManager().getPackageInfo(getPackageName(), 0);
+            return info.versionName + " (" + info.getLongVersionCode() + ")";
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    public void closeConnect(String baseUrl, String sessionId) {
+        scheduler.submit(TaskScheduler.Stage.NETWORK, () -> closeSession(baseUrl, sessionId));
+    }
+
+    /**
+     * 关闭会话并打印统计，阻塞当前线程
+     */
+    private void closeSession(String baseUrl, String sessionId) {
+        ApiClient apiClient = new ApiClient();
+        CloseSessionVO closeSessionVO = apiClient.closeCallSessionSync(baseUrl, sessionId);
+        if (closeSessionVO != null) {
+            Log.i(TAG, "CloseSessionVO: " + closeSessionVO);
+        }
+        HttpClients.logStats();
+        Log.i(TAG, "Metrics:\n" + MetricsRegistry.get().snapshot());
     }
 
     @Override
@@ -416,14 +832,12 @@ public class VoipRecordService extends Service {
             mMediaProjection.stop();
             mMediaProjection = null;
         }
-        if (virtualDisplay != null) {
-            virtualDisplay.release();
-            virtualDisplay = null;
-        }
-        if (imageReader != null) {
-            imageReader.close();
-            imageReader = null;
+        if (screenCapturer != null) {
+            screenCapturer.release();
+            screenCapturer = null;
         }
+        // 停止后剩余分片的上传和会话关闭在已提交的任务里继续完成，其余周期任务取消
+        scheduler.shutdown();
     }
 
 
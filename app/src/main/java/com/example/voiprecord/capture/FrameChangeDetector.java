@@ -0,0 +1,157 @@
+package com.example.voiprecord.capture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 判断截图与上一次发送的截图相比是否有变化，用于跳过通话界面静止时的重复截图。
+ * <p>
+ * 直接在 ImageReader 的 RGBA_8888 缓冲区上按 {@link #SAMPLE_STEP} 间隔隔行隔列采样，得到一张缩小的亮度图，
+ * 再按 {@link #BLOCK_SIZE} 像素见方的块与参考帧比较：块内任一采样点的亮度差超过 {@link #PIXEL_DELTA} 即认为该块变化。
+ * 变化块占全部块的比例超过阈值时认为整帧变化，并把当前帧作为新的参考帧；
+ * 没有变化的帧不更新参考帧，因此缓慢的累积变化最终也会被发现。
+ * <p>
+ * 只读取缓冲区、不改变它的 position，检测后同一张 Image 还可以交给 {@link ScreenFrameConverter} 转换。
+ * 不是线程安全的，由截图线程独占。
+ */
+public class FrameChangeDetector {
+
+    // 采样间隔（像素）
+    public static final int SAMPLE_STEP = 4;
+    // 比较块的边长（像素），必须是 SAMPLE_STEP 的整数倍
+    public static final int BLOCK_SIZE = 64;
+    // 采样点亮度差超过该值才算变化，屏幕内容没有传感器噪声，只需忽略抗锯齿、半透明动画等细微变化
+    private static final int PIXEL_DELTA = 12;
+    private static final int SAMPLES_PER_BLOCK = BLOCK_SIZE / SAMPLE_STEP;
+
+    private final int width;
+    private final int height;
+    private final int sampleCols;
+    private final int sampleRows;
+    private final int blockCols;
+    private final int blockRows;
+    // 变化块比例超过该值时认为整帧变化，0 表示任意一个块变化即可
+    private final float changedRatio;
+
+    private byte[] current;
+    private byte[] reference;
+    private boolean hasReference;
+    private byte[] row = new byte[0];
+    private int lastChangedBlocks;
+
+    /**
+     * @param changedRatio 变化块比例的阈值，取值 [0, 1)
+     */
+    public FrameChangeDetector(int width, int height, float changedRatio) {
+        this.width = width;
+        this.height = height;
+        this.changedRatio = changedRatio;
+        this.sampleCols = (width + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        this.sampleRows = (height + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        this.blockCols = (sampleCols + SAMPLES_PER_BLOCK - 1) / SAMPLES_PER_BLOCK;
+        this.blockRows = (sampleRows + SAMPLES_PER_BLOCK - 1) / SAMPLES_PER_BLOCK;
+        this.current = new byte[sampleCols * sampleRows];
+        this.reference = new byte[sampleCols * sampleRows];
+    }
+
+    /**
+     * 采样一帧并与参考帧比较
+     *
+     * @param pixels      RGBA_8888 像素数据，从当前位置开始
+     * @param rowStride   每一行的总字节数（包含填充）
+     * @param pixelStride 每个像素的字节数
+     * @return 是否有变化；第一帧总是返回 true
+     */
+    public boolean hasChanged(ByteBuffer pixels, int rowStride, int pixelStride) {
+        sample(pixels, rowStride, pixelStride);
+        if (!hasReference) {
+            lastChangedBlocks = blockCols * blockRows;
+            accept();
+            return true;
+        }
+        lastChangedBlocks = countChangedBlocks();
+        if (lastChangedBlocks > blockCols * blockRows * changedRatio) {
+            accept();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 强制把最近一次采样的帧作为参考帧，用于 {@link #hasChanged} 返回 false 但仍然发送了这一帧的情况
+     */
+    public void accept() {
+        byte[] tmp = reference;
+        reference = current;
+        current = tmp;
+        hasReference = true;
+    }
+
+    /**
+     * 清除参考帧，下一帧一定被认为有变化
+     */
+    public void reset() {
+        hasReference = false;
+    }
+
+    /**
+     * 最近一次比较时变化的块数
+     */
+    public int getLastChangedBlocks() {
+        return lastChangedBlocks;
+    }
+
+    public int getBlockCount() {
+        return blockCols * blockRows;
+    }
+
+    private void sample(ByteBuffer pixels, int rowStride, int pixelStride) {
+        int base = pixels.position();
+        int rowBytes = (width - 1) * pixelStride + 3;
+        if (row.length < rowBytes) {
+            row = new byte[rowBytes];
+        }
+        // duplicate() 共享数据但有独立的 position，不影响调用方
+        ByteBuffer view = pixels.duplicate();
+        int out = 0;
+        for (int sy = 0; sy < sampleRows; sy++) {
+            view.position(base + sy * SAMPLE_STEP * rowStride);
+            view.get(row, 0, rowBytes);
+            for (int x = 0; x < width; x += SAMPLE_STEP) {
+                int offset = x * pixelStride;
+                int r = row[offset] & 0xff;
+                int g = row[offset + 1] & 0xff;
+                int b = row[offset + 2] & 0xff;
+                // BT.601 亮度的整数近似
+                current[out++] = (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+            }
+        }
+    }
+
+    private int countChangedBlocks() {
+        int changed = 0;
+        for (int by = 0; by < blockRows; by++) {
+            int rowStart = by * SAMPLES_PER_BLOCK;
+            int rowEnd = Math.min(rowStart + SAMPLES_PER_BLOCK, sampleRows);
+            for (int bx = 0; bx < blockCols; bx++) {
+                int colStart = bx * SAMPLES_PER_BLOCK;
+                int colEnd = Math.min(colStart + SAMPLES_PER_BLOCK, sampleCols);
+                if (blockChanged(rowStart, rowEnd, colStart, colEnd)) {
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean blockChanged(int rowStart, int rowEnd, int colStart, int colEnd) {
+        for (int sy = rowStart; sy < rowEnd; sy++) {
+            int index = sy * sampleCols + colStart;
+            for (int sx = colStart; sx < colEnd; sx++, index++) {
+                if (Math.abs((current[index] & 0xff) - (reference[index] & 0xff)) > PIXEL_DELTA) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.voiprecord.capture;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 可以直接访问内部数组的 ByteArrayOutputStream，配合 reset() 在帧之间复用，避免 toByteArray() 每帧拷贝一次
+ */
+class ReusableOutputStream extends ByteArrayOutputStream {
+
+    ReusableOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * 内部数组，有效数据位于 [0, size())
+     */
+    byte[] array() {
+        return buf;
+    }
+}
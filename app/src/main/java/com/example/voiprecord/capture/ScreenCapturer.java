@@ -0,0 +1,198 @@
+package com.example.voiprecord.capture;
+
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事件驱动的屏幕采集：由 {@link ImageReader.OnImageAvailableListener} 在专用的 HandlerThread 上回调，
+ * 不再由截图线程 sleep 轮询。
+ * <p>
+ * 每采到一帧就把 VirtualDisplay 的 Surface 摘掉，到下一次采集时间再挂回去，两次采集之间合成器不再往
+ * ImageReader 渲染任何帧，本进程也不会被唤醒。虚拟屏幕可以按比例缩小分辨率，采集间隔可以随时调整。
+ * <p>
+ * Android 14 起同一个 MediaProjection 只能创建一次 VirtualDisplay，所以本对象与服务同生命周期：
+ * 每次录音 {@link #start} / {@link #stop}，服务销毁时 {@link #release}。
+ */
+public class ScreenCapturer {
+    private static final String TAG = "ScreenCapturer";
+
+    // ImageReader 至少需要 2 个缓冲区才能使用 acquireLatestImage
+    private static final int MAX_IMAGES = 2;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    /**
+     * 在采集线程上回调，回调返回后 image 会被关闭
+     */
+    public interface FrameCallback {
+        void onFrame(Image image);
+    }
+
+    private final MediaProjection projection;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Runnable attachSurface = this::attachSurface;
+
+    // 以下字段只在采集线程上访问
+    private ImageReader imageReader;
+    private VirtualDisplay virtualDisplay;
+    private FrameCallback callback;
+    private boolean capturing;
+    private long nextCaptureAt;
+
+    private volatile long intervalMs;
+    private volatile int width;
+    private volatile int height;
+
+    public ScreenCapturer(MediaProjection projection) {
+        this.projection = projection;
+        this.thread = new HandlerThread("voip-screen-capture");
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * 开始采集。尺寸与上次不同时重建 ImageReader 并调整虚拟屏幕大小。
+     *
+     * @param intervalMs 两次采集之间的最小间隔
+     */
+    public void start(int width, int height, int densityDpi, long intervalMs, FrameCallback callback) {
+        this.width = width;
+        this.height = height;
+        this.intervalMs = intervalMs;
+        handler.post(() -> {
+            if (imageReader == null || imageReader.getWidth() != width || imageReader.getHeight() != height) {
+                if (imageReader != null) {
+                    imageReader.close();
+                }
+                imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGES);
+                imageReader.setOnImageAvailableListener(this::onImageAvailable, handler);
+                if (virtualDisplay != null) {
+                    virtualDisplay.resize(width, height, densityDpi);
+                }
+            }
+            if (virtualDisplay == null) {
+                virtualDisplay = projection.createVirtualDisplay(
+                        "ScreenCapture",
+                        width, height, densityDpi,
+                        DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
+                        imageReader.getSurface(),
+                        null, handler);
+            } else {
+                virtualDisplay.setSurface(imageReader.getSurface());
+            }
+            this.callback = callback;
+            capturing = true;
+            nextCaptureAt = 0;
+            Log.i(TAG, "Capture started " + width + "x" + height + ", interval " + intervalMs + "ms");
+        });
+    }
+
+    /**
+     * 停止采集并等待正在处理的一帧结束（最多 1 秒）
+     *
+     * @param onStopped 正在处理的一帧结束后在采集线程上执行，用于释放回调使用的资源，可以为 null
+     */
+    public void stop(Runnable onStopped) {
+        CountDownLatch stopped = new CountDownLatch(1);
+        handler.post(() -> {
+            capturing = false;
+            callback = null;
+            handler.removeCallbacks(attachSurface);
+            if (virtualDisplay != null) {
+                virtualDisplay.setSurface(null);
+            }
+            if (onStopped != null) {
+                onStopped.run();
+            }
+            stopped.countDown();
+        });
+        try {
+            if (!stopped.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out waiting for the capture thread to stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 释放虚拟屏幕和采集线程，之后不能再使用
+     */
+    public void release() {
+        handler.post(() -> {
+            capturing = false;
+            callback = null;
+            if (virtualDisplay != null) {
+                virtualDisplay.release();
+                virtualDisplay = null;
+            }
+            if (imageReader != null) {
+                imageReader.close();
+                imageReader = null;
+            }
+        });
+        thread.quitSafely();
+    }
+
+    /**
+     * 调整采集间隔，下一帧起生效
+     */
+    public void setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!capturing || reader != imageReader || now < nextCaptureAt) {
+            // 摘掉 Surface 之前已经在队列里的帧
+            image.close();
+            return;
+        }
+        nextCaptureAt = now + intervalMs;
+        // 下次采集之前不再渲染
+        virtualDisplay.setSurface(null);
+        try {
+            callback.onFrame(image);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Frame callback failed", e);
+        } finally {
+            image.close();
+        }
+        if (capturing) {
+            handler.postDelayed(attachSurface, Math.max(0, nextCaptureAt - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private void attachSurface() {
+        if (capturing && virtualDisplay != null && imageReader != null) {
+            virtualDisplay.setSurface(imageReader.getSurface());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.voiprecord.capture;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.media.Image;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把 ImageReader 的 RGBA_8888 截图转换为 JPEG。
+ * <p>
+ * 不再逐像素在 Java 层重排字节：RGBA_8888 的内存布局与 {@link Bitmap.Config#ARGB_8888} 相同，
+ * 直接用 {@link Bitmap#copyPixelsFromBuffer} 把整个平面（含每行末尾的填充）批量拷进一张宽度为
+ * rowStride / pixelStride 的位图，有填充时再画到目标尺寸的位图上裁掉右侧多余的列。
+ * <p>
+ * 两张位图和 JPEG 输出缓冲区都在帧之间复用，稳定运行时每帧几乎没有 Java 堆分配。
+ * 不是线程安全的，由截图线程独占。结果位于 {@link #getBuffer()} 的 [0, 返回值) 范围内，下次转换前有效。
+ */
+public class ScreenFrameConverter {
+    private static final String TAG = "ScreenFrameConverter";
+
+    public static final int DEFAULT_QUALITY = 70;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int width;
+    private final int height;
+    // 可以由其他线程调整，下一帧起生效
+    private volatile int quality;
+    // 裁剪时直接覆盖目标像素，不与上一帧混合
+    private final Paint copyPaint = new Paint();
+    private final ReusableOutputStream output;
+
+    // 含行填充的位图，宽度为 rowStride / pixelStride
+    private Bitmap paddedBitmap;
+    // 裁剪后的位图，没有行填充时不使用
+    private Bitmap croppedBitmap;
+    private Canvas cropCanvas;
+    // 平面缓冲区没有包含最后一行的填充时，先拷到这里再交给位图
+    private ByteBuffer staging;
+
+    public ScreenFrameConverter(int width, int height) {
+        this(width, height, DEFAULT_QUALITY);
+    }
+
+    public ScreenFrameConverter(int width, int height, int quality) {
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+        this.copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        // JPEG 通常不到原始像素的 1/8
+        this.output = new ReusableOutputStream(width * height * BYTES_PER_PIXEL / 8);
+    }
+
+    /**
+     * 转换一帧截图并关闭 image
+     *
+     * @return JPEG 数据长度，image 为 null 时返回 -1
+     */
+    public int convert(Image image) {
+        if (image == null) {
+            return -1;
+        }
+        try {
+            Image.Plane plane = image.getPlanes()[0];
+            return convert(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+        } finally {
+            // 及时关闭 image，让 ImageReader 可以接收下一张图片
+            image.close();
+        }
+    }
+
+    /**
+     * 转换一块 RGBA_8888 像素数据
+     *
+     * @param pixels      从当前位置开始的像素数据
+     * @param rowStride   每一行的总字节数（包含填充）
+     * @param pixelStride 每个像素的字节数，RGBA_8888 为 4
+     * @return JPEG 数据长度
+     */
+    public int convert(ByteBuffer pixels, int rowStride, int pixelStride) {
+        return compress(toBitmap(pixels, rowStride, pixelStride));
+    }
+
+    /**
+     * 把一块 RGBA_8888 像素数据拷贝到内部复用的位图中（已去掉行填充）
+     *
+     * @return 目标尺寸的位图，下次调用前有效，调用方不能回收它
+     */
+    public Bitmap toBitmap(ByteBuffer pixels, int rowStride, int pixelStride) {
+        if (pixelStride != BYTES_PER_PIXEL || rowStride % pixelStride != 0) {
+            throw new IllegalArgumentException("不支持的像素格式: rowStride=" + rowStride + ", pixelStride=" + pixelStride);
+        }
+        int paddedWidth = rowStride / pixelStride;
+        if (paddedWidth < width) {
+            throw new IllegalArgumentException("rowStride 小于图像宽度: " + rowStride);
+        }
+        Bitmap source = ensurePaddedBitmap(paddedWidth);
+
+        int frameBytes = rowStride * height;
+        if (pixels.remaining() >= frameBytes) {
+            source.copyPixelsFromBuffer(pixels);
+        } else {
+            // 部分设备的平面缓冲区在最后一行后面没有填充，补齐后再拷贝
+            if (staging == null || staging.capacity() < frameBytes) {
+                staging = ByteBuffer.allocateDirect(frameBytes);
+            }
+            staging.clear();
+            staging.put(pixels);
+            staging.position(0);
+            source.copyPixelsFromBuffer(staging);
+        }
+
+        if (paddedWidth != width) {
+            ensureCroppedBitmap();
+            cropCanvas.drawBitmap(source, 0f, 0f, copyPaint);
+            source = croppedBitmap;
+        }
+        return source;
+    }
+
+    /**
+     * 把位图压缩为 JPEG，写入内部复用的输出缓冲区
+     *
+     * @return JPEG 数据长度
+     */
+    public int compress(Bitmap bitmap) {
+        output.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+        return output.size();
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 最近一次转换的 JPEG 数据
+     */
+    public byte[] getBuffer() {
+        return output.array();
+    }
+
+    /**
+     * 释放位图占用的内存
+     */
+    public void release() {
+        if (paddedBitmap != null) {
+            paddedBitmap.recycle();
+            paddedBitmap = null;
+        }
+        if (croppedBitmap != null) {
+            croppedBitmap.recycle();
+            croppedBitmap = null;
+            cropCanvas = null;
+        }
+        staging = null;
+    }
+
+    private Bitmap ensurePaddedBitmap(int paddedWidth) {
+        if (paddedBitmap == null || paddedBitmap.getWidth() != paddedWidth) {
+            if (paddedBitmap != null) {
+                // rowStride 只有在显示配置变化时才会变
+                Log.i(TAG, "rowStride 变化，重新分配位图: " + paddedBitmap.getWidth() + " -> " + paddedWidth);
+                paddedBitmap.recycle();
+            }
+            paddedBitmap = Bitmap.createBitmap(paddedWidth, height, Bitmap.Config.ARGB_8888);
+        }
+        return paddedBitmap;
+    }
+
+    private void ensureCroppedBitmap() {
+        if (croppedBitmap == null) {
+            croppedBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            cropCanvas = new Canvas(croppedBitmap);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.voiprecord.capture;
+
+/**
+ * 接收端把 VTD1 帧还原为完整画面的状态机，不依赖 Android，具体的解码和绘制由 {@link Canvas} 实现
+ * （例如服务端用 ImageIO + BufferedImage，Android 上用 BitmapFactory + android.graphics.Canvas）。
+ * Python 接收端的等价实现见仓库根目录的 screen_delta.py。
+ * <p>
+ * 关键帧重置画面；增量帧只有在 base 等于当前画面的序号时才应用，否则说明中间丢了帧，
+ * 画面保持不变直到收到下一个关键帧，不会显示拼错的画面。
+ */
+public class TileDeltaAssembler {
+
+    /**
+     * 画面的解码与绘制
+     */
+    public interface Canvas {
+        /**
+         * 收到关键帧或画面尺寸变化时，按新尺寸重新创建画面
+         */
+        void reset(int width, int height);
+
+        /**
+         * 把一个图块的 JPEG 解码后画到画面的 (x, y) 处
+         */
+        void drawTile(int x, int y, int width, int height, byte[] jpeg, int offset, int length);
+    }
+
+    public enum Result {
+        // 画面已更新
+        APPLIED,
+        // 丢帧后收到的增量帧，已丢弃，等待关键帧
+        WAITING_FOR_KEYFRAME
+    }
+
+    private final Canvas canvas;
+    private boolean hasFrame;
+    private long currentSeq;
+    private int width;
+    private int height;
+
+    public TileDeltaAssembler(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    /**
+     * 应用一帧 VTD1 数据
+     *
+     * @throws IllegalArgumentException 数据不完整或不是 VTD1 格式
+     */
+    public Result apply(byte[] data, int offset, int length) {
+        return apply(TileDeltaFormat.parse(data, offset, length));
+    }
+
+    public Result apply(TileDeltaFormat.Frame frame) {
+        if (frame.isKeyframe()) {
+            width = frame.getWidth();
+            height = frame.getHeight();
+            canvas.reset(width, height);
+        } else if (!hasFrame || frame.getBase() != currentSeq
+                || frame.getWidth() != width || frame.getHeight() != height) {
+            hasFrame = false;
+            return Result.WAITING_FOR_KEYFRAME;
+        }
+        for (TileDeltaFormat.Tile tile : frame.getTiles()) {
+            canvas.drawTile(tile.x, tile.y, tile.width, tile.height, tile.data, tile.offset, tile.length);
+        }
+        hasFrame = true;
+        currentSeq = frame.getSeq();
+        return Result.APPLIED;
+    }
+
+    /**
+     * 当前画面对应的帧序号，没有可用画面时返回 -1
+     */
+    public long getCurrentSeq() {
+        return hasFrame ? currentSeq : -1;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.voiprecord.capture;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.media.Image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * 分块增量截图编码器，输出 {@link TileDeltaFormat} 格式的帧。
+ * <p>
+ * 把画面切成 tileSize 见方的图块，直接在 ImageReader 缓冲区上计算每个图块的 64 位哈希并与上一帧比较，
+ * 只把变化的图块单独压缩为 JPEG 连同坐标一起发送。以下情况发送整帧 JPEG 的关键帧：
+ * 第一帧、每隔 keyframeInterval 帧、变化图块超过一半（此时整帧压缩更小）、以及调用方通过
+ * {@link #requestKeyframe()} 报告上一帧可能没有送达（上传失败、推流丢帧或重连）。
+ * <p>
+ * 不是线程安全的，由截图线程独占。结果位于 {@link #getBuffer()} 的 [0, 返回值) 范围内，下次编码前有效。
+ */
+public class TileDeltaEncoder {
+
+    public static final int DEFAULT_TILE_SIZE = 128;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+    // 变化图块超过该比例时直接发送关键帧
+    private static final float KEYFRAME_CHANGED_RATIO = 0.5f;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long SEQ_MASK = 0xffffffffL;
+
+    private final ScreenFrameConverter converter;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int keyframeInterval;
+    private final int tileCols;
+    private final int tileRows;
+
+    private long[] hashes;
+    private long[] previousHashes;
+    private final int[] rowPixels;
+    private boolean hasPrevious;
+    private boolean keyframeRequested;
+    private long seq;
+    private int framesSinceKeyframe;
+
+    private final ReusableOutputStream output;
+    private final ReusableOutputStream tileOutput;
+    private final byte[] scratch = new byte[Math.max(TileDeltaFormat.FRAME_HEADER_SIZE, TileDeltaFormat.TILE_HEADER_SIZE)];
+    // 按是否位于右边缘/下边缘区分的 4 种尺寸的图块位图
+    private final Bitmap[] tileBitmaps = new Bitmap[4];
+    private final Canvas[] tileCanvases = new Canvas[4];
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+    private final Paint copyPaint = new Paint();
+
+    private boolean lastKeyframe;
+    private int lastTileCount;
+
+    public TileDeltaEncoder(ScreenFrameConverter converter, int width, int height) {
+        this(converter, width, height, DEFAULT_TILE_SIZE, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param converter 负责拷贝像素和压缩关键帧，尺寸必须与 width/height 一致
+     */
+    public TileDeltaEncoder(ScreenFrameConverter converter, int width, int height, int tileSize, int keyframeInterval) {
+        this.converter = converter;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.keyframeInterval = keyframeInterval;
+        this.tileCols = (width + tileSize - 1) / tileSize;
+        this.tileRows = (height + tileSize - 1) / tileSize;
+        this.hashes = new long[tileCols * tileRows];
+        this.previousHashes = new long[tileCols * tileRows];
+        this.rowPixels = new int[width];
+        this.output = new ReusableOutputStream(width * height / 2);
+        this.tileOutput = new ReusableOutputStream(tileSize * tileSize);
+        this.copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * 编码一帧截图并关闭 image
+     *
+     * @return 编码后的长度，image 为 null 时返回 -1
+     */
+    public int encode(Image image) {
+        if (image == null) {
+            return -1;
+        }
+        try {
+            Image.Plane plane = image.getPlanes()[0];
+            return encode(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * 编码一块 RGBA_8888 像素数据
+     *
+     * @return 编码后的长度
+     */
+    public int encode(ByteBuffer pixels, int rowStride, int pixelStride) {
+        if (pixelStride != 4 || rowStride % 4 != 0) {
+            throw new IllegalArgumentException("不支持的像素格式: rowStride=" + rowStride + ", pixelStride=" + pixelStride);
+        }
+        hashTiles(pixels, rowStride);
+        int changed = 0;
+        if (hasPrevious) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != previousHashes[i]) {
+                    changed++;
+                }
+            }
+        }
+        boolean keyframe = !hasPrevious
+                || keyframeRequested
+                || framesSinceKeyframe + 1 >= keyframeInterval
+                || changed > hashes.length * KEYFRAME_CHANGED_RATIO;
+
+        // toBitmap 会移动 pixels 的 position，所以放在计算哈希之后
+        Bitmap frame = converter.toBitmap(pixels, rowStride, pixelStride);
+        output.reset();
+        try {
+            if (keyframe) {
+                int length = converter.compress(frame);
+                TileDeltaFormat.writeFrameHeader(output, scratch, TileDeltaFormat.TYPE_KEYFRAME, seq, seq, width, height, 1);
+                TileDeltaFormat.writeTile(output, scratch, 0, 0, width, height, converter.getBuffer(), 0, length);
+                framesSinceKeyframe = 0;
+                keyframeRequested = false;
+                lastTileCount = 1;
+            } else {
+                TileDeltaFormat.writeFrameHeader(output, scratch, TileDeltaFormat.TYPE_DELTA, seq, (seq - 1) & SEQ_MASK,
+                        width, height, changed);
+                for (int i = 0; i < hashes.length; i++) {
+                    if (hashes[i] != previousHashes[i]) {
+                        writeChangedTile(frame, i % tileCols, i / tileCols);
+                    }
+                }
+                framesSinceKeyframe++;
+                lastTileCount = changed;
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出 IOException
+            throw new IllegalStateException(e);
+        }
+
+        long[] tmp = previousHashes;
+        previousHashes = hashes;
+        hashes = tmp;
+        hasPrevious = true;
+        lastKeyframe = keyframe;
+        seq = (seq + 1) & SEQ_MASK;
+        return output.size();
+    }
+
+    /**
+     * 下一帧强制编码为关键帧
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * 最近一次编码的数据
+     */
+    public byte[] getBuffer() {
+        return output.array();
+    }
+
+    public boolean isLastKeyframe() {
+        return lastKeyframe;
+    }
+
+    /**
+     * 最近一次编码包含的图块数
+     */
+    public int getLastTileCount() {
+        return lastTileCount;
+    }
+
+    public int getTileCount() {
+        return hashes.length;
+    }
+
+    public void release() {
+        for (int i = 0; i < tileBitmaps.length; i++) {
+            if (tileBitmaps[i] != null) {
+                tileBitmaps[i].recycle();
+                tileBitmaps[i] = null;
+                tileCanvases[i] = null;
+            }
+        }
+    }
+
+    private void hashTiles(ByteBuffer pixels, int rowStride) {
+        Arrays.fill(hashes, FNV_OFFSET);
+        // 按 int 读取像素，duplicate() 不影响调用方的 position
+        IntBuffer ints = pixels.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+        int intsPerRow = rowStride / 4;
+        for (int y = 0; y < height; y++) {
+            ints.position(y * intsPerRow);
+            ints.get(rowPixels, 0, width);
+            int base = (y / tileSize) * tileCols;
+            for (int tx = 0; tx < tileCols; tx++) {
+                long h = hashes[base + tx];
+                int end = Math.min(width, (tx + 1) * tileSize);
+                for (int x = tx * tileSize; x < end; x++) {
+                    h = (h ^ rowPixels[x]) * FNV_PRIME;
+                }
+                hashes[base + tx] = h;
+            }
+        }
+    }
+
+    private void writeChangedTile(Bitmap frame, int tx, int ty) throws IOException {
+        int x = tx * tileSize;
+        int y = ty * tileSize;
+        int w = Math.min(tileSize, width - x);
+        int h = Math.min(tileSize, height - y);
+        int slot = (w != tileSize ? 1 : 0) | (h != tileSize ? 2 : 0);
+        if (tileBitmaps[slot] == null) {
+            tileBitmaps[slot] = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            tileCanvases[slot] = new Canvas(tileBitmaps[slot]);
+        }
+        src.set(x, y, x + w, y + h);
+        dst.set(0, 0, w, h);
+        tileCanvases[slot].drawBitmap(frame, src, dst, copyPaint);
+
+        tileOutput.reset();
+        tileBitmaps[slot].compress(Bitmap.CompressFormat.JPEG, converter.getQuality(), tileOutput);
+        TileDeltaFormat.writeTile(output, scratch, x, y, w, h, tileOutput.array(), 0, tileOutput.size());
+    }
+}
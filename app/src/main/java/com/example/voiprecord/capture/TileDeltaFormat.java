@@ -0,0 +1,219 @@
+package com.example.voiprecord.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 截图分块增量格式（VTD1）的读写，不依赖 Android，服务端的 Java 接收端可以直接使用。
+ * <p>
+ * 一帧是一个自包含的二进制块，所有整数都是大端：
+ * <pre>
+ * magic   4  "VTD1"
+ * type    1  0 = 关键帧，1 = 增量帧
+ * seq     4  帧序号
+ * base    4  增量帧依赖的上一帧序号，关键帧等于 seq
+ * width   2  整帧宽度
+ * height  2  整帧高度
+ * count   2  图块数量
+ * 然后是 count 个图块：
+ *   x 2, y 2, w 2, h 2   图块在整帧中的位置和尺寸（像素）
+ *   length 4             JPEG 数据长度
+ *   data   length        图块的 JPEG 数据
+ * </pre>
+ * 关键帧只有一个覆盖整帧的图块；增量帧只包含与 base 帧相比发生变化的图块，图块数量可以为 0（画面没有变化）。
+ * 接收端只有在当前画面恰好是 base 帧时才能应用增量帧，否则应丢弃并等待下一个关键帧，参见 {@link TileDeltaAssembler}。
+ */
+public final class TileDeltaFormat {
+
+    public static final byte[] MAGIC = "VTD1".getBytes(StandardCharsets.US_ASCII);
+    public static final int TYPE_KEYFRAME = 0;
+    public static final int TYPE_DELTA = 1;
+    public static final int FRAME_HEADER_SIZE = 4 + 1 + 4 + 4 + 2 + 2 + 2;
+    public static final int TILE_HEADER_SIZE = 2 + 2 + 2 + 2 + 4;
+
+    private TileDeltaFormat() {
+    }
+
+    /**
+     * 数据是否以 VTD1 标记开头，用于与普通 JPEG 截图区分
+     */
+    public static boolean isTileDelta(byte[] data, int offset, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写入帧头，scratch 至少 {@link #FRAME_HEADER_SIZE} 字节，用于避免每帧分配
+     */
+    public static void writeFrameHeader(OutputStream out, byte[] scratch, int type, long seq, long base,
+                                        int width, int height, int tileCount) throws IOException {
+        System.arraycopy(MAGIC, 0, scratch, 0, MAGIC.length);
+        scratch[4] = (byte) type;
+        putInt(scratch, 5, seq);
+        putInt(scratch, 9, base);
+        putShort(scratch, 13, width);
+        putShort(scratch, 15, height);
+        putShort(scratch, 17, tileCount);
+        out.write(scratch, 0, FRAME_HEADER_SIZE);
+    }
+
+    /**
+     * 写入一个图块
+     */
+    public static void writeTile(OutputStream out, byte[] scratch, int x, int y, int w, int h,
+                                 byte[] jpeg, int offset, int length) throws IOException {
+        putShort(scratch, 0, x);
+        putShort(scratch, 2, y);
+        putShort(scratch, 4, w);
+        putShort(scratch, 6, h);
+        putInt(scratch, 8, length);
+        out.write(scratch, 0, TILE_HEADER_SIZE);
+        out.write(jpeg, offset, length);
+    }
+
+    /**
+     * 解析一帧，图块数据引用 data 本身，不拷贝
+     *
+     * @throws IllegalArgumentException 数据不完整或不是 VTD1 格式
+     */
+    public static Frame parse(byte[] data, int offset, int length) {
+        if (length < FRAME_HEADER_SIZE || !isTileDelta(data, offset, length)) {
+            throw new IllegalArgumentException("不是 VTD1 数据");
+        }
+        int end = offset + length;
+        int type = data[offset + 4] & 0xff;
+        if (type != TYPE_KEYFRAME && type != TYPE_DELTA) {
+            throw new IllegalArgumentException("未知的帧类型: " + type);
+        }
+        long seq = getInt(data, offset + 5);
+        long base = getInt(data, offset + 9);
+        int width = getShort(data, offset + 13);
+        int height = getShort(data, offset + 15);
+        int count = getShort(data, offset + 17);
+
+        List<Tile> tiles = new ArrayList<>(count);
+        int pos = offset + FRAME_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (end - pos < TILE_HEADER_SIZE) {
+                throw new IllegalArgumentException("图块头不完整: " + i);
+            }
+            int x = getShort(data, pos);
+            int y = getShort(data, pos + 2);
+            int w = getShort(data, pos + 4);
+            int h = getShort(data, pos + 6);
+            long tileLength = getInt(data, pos + 8);
+            pos += TILE_HEADER_SIZE;
+            if (tileLength > end - pos) {
+                throw new IllegalArgumentException("图块数据不完整: " + i);
+            }
+            if (w == 0 || h == 0 || x + w > width || y + h > height) {
+                throw new IllegalArgumentException("图块超出画面: " + x + "," + y + " " + w + "x" + h);
+            }
+            tiles.add(new Tile(x, y, w, h, data, pos, (int) tileLength));
+            pos += (int) tileLength;
+        }
+        return new Frame(type == TYPE_KEYFRAME, seq, base, width, height, tiles);
+    }
+
+    private static void putInt(byte[] b, int pos, long value) {
+        b[pos] = (byte) (value >>> 24);
+        b[pos + 1] = (byte) (value >>> 16);
+        b[pos + 2] = (byte) (value >>> 8);
+        b[pos + 3] = (byte) value;
+    }
+
+    private static void putShort(byte[] b, int pos, int value) {
+        if (value < 0 || value > 0xffff) {
+            throw new IllegalArgumentException("超出 u16 范围: " + value);
+        }
+        b[pos] = (byte) (value >>> 8);
+        b[pos + 1] = (byte) value;
+    }
+
+    private static long getInt(byte[] b, int pos) {
+        return ((long) (b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static int getShort(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+    }
+
+    /**
+     * 解析后的一帧
+     */
+    public static final class Frame {
+        private final boolean keyframe;
+        private final long seq;
+        private final long base;
+        private final int width;
+        private final int height;
+        private final List<Tile> tiles;
+
+        Frame(boolean keyframe, long seq, long base, int width, int height, List<Tile> tiles) {
+            this.keyframe = keyframe;
+            this.seq = seq;
+            this.base = base;
+            this.width = width;
+            this.height = height;
+            this.tiles = Collections.unmodifiableList(tiles);
+        }
+
+        public boolean isKeyframe() {
+            return keyframe;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getBase() {
+            return base;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public List<Tile> getTiles() {
+            return tiles;
+        }
+    }
+
+    /**
+     * 一个图块，JPEG 数据位于 data 的 [offset, offset + length)
+     */
+    public static final class Tile {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+        public final byte[] data;
+        public final int offset;
+        public final int length;
+
+        Tile(int x, int y, int width, int height, byte[] data, int offset, int length) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.voiprecord.codec;
+
+import okhttp3.MediaType;
+
+/**
+ * 录音分片的存储/上传格式，按会话选择
+ */
+public enum AudioCodec {
+    // 原始 16 位 PCM 封装为 WAV
+    WAV("wav", "audio/wav"),
+    // FLAC 无损压缩
+    FLAC("flac", "audio/flac");
+
+    private final String extension;
+    private final MediaType mediaType;
+
+    AudioCodec(String extension, String mimeType) {
+        this.extension = extension;
+        this.mediaType = MediaType.parse(mimeType);
+    }
+
+    /**
+     * 文件扩展名，不含 "."
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * 按名称（不区分大小写）解析，无法识别时返回 defaultCodec
+     */
+    public static AudioCodec fromName(String name, AudioCodec defaultCodec) {
+        if (name != null) {
+            for (AudioCodec codec : values()) {
+                if (codec.extension.equalsIgnoreCase(name.trim()) || codec.name().equalsIgnoreCase(name.trim())) {
+                    return codec;
+                }
+            }
+        }
+        return defaultCodec;
+    }
+}
@@ -0,0 +1,444 @@
+package com.example.voiprecord.codec;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 纯 Java 的 FLAC 无损编码器，用于压缩 16 位单声道 PCM 录音分片。
+ * <p>
+ * 每个分片编码为一个完整、独立的 FLAC 文件（fLaC 标记 + STREAMINFO + 若干帧），服务端和任何标准 FLAC
+ * 解码器都可以直接解码。每个块在 CONSTANT / VERBATIM / FIXED(0~4 阶线性预测) 三种子帧中选最小的，
+ * 残差使用分区 Rice 编码。通话语音通常能比原始 PCM 小 40%~60%，噪声大的录音压缩率会低一些。
+ * <p>
+ * 编码器内部的工作缓冲区和输出缓冲区在多次调用之间复用，不是线程安全的，每个编码线程持有一个实例。
+ * 编码结果位于 {@link #getBuffer()} 的 [0, 返回值) 范围内，下次调用 encode 前有效。
+ */
+public class FlacEncoder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 6;
+    // 4 位 Rice 参数的最大值（15 是转义码，这里不使用）
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int STREAMINFO_OFFSET = 8;
+
+    private static final byte[] CRC8_TABLE = new byte[256];
+    private static final short[] CRC16_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = (byte) crc8;
+            CRC16_TABLE[i] = (short) crc16;
+        }
+    }
+
+    private final int sampleRate;
+    private final int blockSize;
+    private final int[] samples;
+    private final int[] residual;
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] bestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final MessageDigest md5;
+    // choosePartitionOrder 计算出的最佳残差编码位数
+    private long estimatedResidualBits;
+
+    private byte[] buffer = new byte[64 * 1024];
+    private int bytePos;
+    private long bitAccumulator;
+    private int bitCount;
+
+    public FlacEncoder(int sampleRate) {
+        this(sampleRate, DEFAULT_BLOCK_SIZE);
+    }
+
+    public FlacEncoder(int sampleRate, int blockSize) {
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("blockSize out of range: " + blockSize);
+        }
+        this.sampleRate = sampleRate;
+        this.blockSize = blockSize;
+        this.samples = new int[blockSize];
+        this.residual = new int[blockSize];
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 把 16 位小端单声道 PCM 编码为完整的 FLAC 文件
+     *
+     * @return 编码后的字节数，数据位于 {@link #getBuffer()} 开头
+     */
+    public int encode(byte[] pcm, int offset, int length) {
+        int totalSamples = length / 2;
+        bytePos = 0;
+        bitAccumulator = 0;
+        bitCount = 0;
+        ensureCapacity(length + 1024);
+
+        // "fLaC" + 最后一个元数据块标记 + STREAMINFO(类型 0，长度 34)
+        writeBits(0x664C6143, 32);
+        writeBits(0x80, 8);
+        writeBits(34, 24);
+        for (int i = 0; i < 34; i++) {
+            writeBits(0, 8);
+        }
+
+        int minFrameSize = Integer.MAX_VALUE;
+        int maxFrameSize = 0;
+        int frameNumber = 0;
+        for (int start = 0; start < totalSamples; start += blockSize) {
+            int n = Math.min(blockSize, totalSamples - start);
+            int base = offset + start * 2;
+            for (int i = 0; i < n; i++) {
+                int lo = pcm[base + 2 * i] & 0xFF;
+                int hi = pcm[base + 2 * i + 1];
+                samples[i] = (hi << 8) | lo;
+            }
+            int frameStart = bytePos;
+            writeFrame(n, frameNumber++);
+            int frameSize = bytePos - frameStart;
+            minFrameSize = Math.min(minFrameSize, frameSize);
+            maxFrameSize = Math.max(maxFrameSize, frameSize);
+        }
+        if (maxFrameSize == 0) {
+            minFrameSize = 0;
+        }
+
+        md5.reset();
+        md5.update(pcm, offset, totalSamples * 2);
+        writeStreamInfo(totalSamples, minFrameSize, maxFrameSize, md5.digest());
+        return bytePos;
+    }
+
+    /**
+     * 编码输出缓冲区，可能随输入增大而重新分配
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    private void writeStreamInfo(int totalSamples, int minFrameSize, int maxFrameSize, byte[] digest) {
+        int end = bytePos;
+        int streamBlockSize = Math.min(blockSize, Math.max(totalSamples, 16));
+        bytePos = STREAMINFO_OFFSET;
+        writeBits(streamBlockSize, 16);
+        writeBits(streamBlockSize, 16);
+        writeBits(minFrameSize, 24);
+        writeBits(maxFrameSize, 24);
+        writeBits(sampleRate, 20);
+        writeBits(0, 3); // 声道数 - 1
+        writeBits(BITS_PER_SAMPLE - 1, 5);
+        writeBits(0, 4); // 36 位总采样数的高 4 位
+        writeBits(totalSamples, 32);
+        for (byte b : digest) {
+            writeBits(b & 0xFF, 8);
+        }
+        bytePos = end;
+    }
+
+    private void writeFrame(int n, int frameNumber) {
+        ensureCapacity(bytePos + n * 3 + 64);
+        int frameStart = bytePos;
+
+        // 帧头：同步码 + 固定块大小
+        writeBits(0xFFF8, 16);
+        int blockSizeCode = blockSizeCode(n);
+        int sampleRateCode = sampleRateCode();
+        writeBits(blockSizeCode, 4);
+        writeBits(sampleRateCode, 4);
+        writeBits(0, 4); // 单声道
+        writeBits(0b100, 3); // 16 位
+        writeBits(0, 1);
+        writeUtf8(frameNumber);
+        if (blockSizeCode == 0b0110) {
+            writeBits(n - 1, 8);
+        } else if (blockSizeCode == 0b0111) {
+            writeBits(n - 1, 16);
+        }
+        if (sampleRateCode == 0b1101) {
+            writeBits(sampleRate, 16);
+        }
+        writeBits(crc8(frameStart, bytePos), 8);
+
+        writeSubframe(n);
+
+        alignToByte();
+        writeBits(crc16(frameStart, bytePos), 16);
+    }
+
+    private void writeSubframe(int n) {
+        boolean constant = true;
+        for (int i = 1; i < n && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            writeBits(0, 8);
+            writeBits(samples[0], BITS_PER_SAMPLE);
+            return;
+        }
+
+        int order = chooseFixedOrder(n);
+        computeResidual(order, n);
+        int partitionOrder = choosePartitionOrder(order, n);
+        long fixedBits = 8 + (long) order * BITS_PER_SAMPLE + 6 + estimatedResidualBits;
+        long verbatimBits = 8 + (long) n * BITS_PER_SAMPLE;
+
+        if (fixedBits >= verbatimBits) {
+            writeBits(0b000001 << 1, 8);
+            for (int i = 0; i < n; i++) {
+                writeBits(samples[i], BITS_PER_SAMPLE);
+            }
+            return;
+        }
+
+        writeBits((0b001000 | order) << 1, 8);
+        for (int i = 0; i < order; i++) {
+            writeBits(samples[i], BITS_PER_SAMPLE);
+        }
+        writeBits(0, 2); // 4 位 Rice 参数
+        writeBits(partitionOrder, 4);
+        int partitions = 1 << partitionOrder;
+        int partitionSamples = n >> partitionOrder;
+        int pos = order;
+        for (int p = 0; p < partitions; p++) {
+            int k = bestRiceParameters[p];
+            writeBits(k, 4);
+            int end = (p + 1) * partitionSamples;
+            for (; pos < end; pos++) {
+                writeRice(residual[pos], k);
+            }
+        }
+    }
+
+    /**
+     * 与 libFLAC 相同的思路：按各阶残差绝对值之和选择预测阶数
+     */
+    private int chooseFixedOrder(int n) {
+        int maxOrder = Math.min(MAX_FIXED_ORDER, n - 1);
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        int start = Math.min(MAX_FIXED_ORDER, n);
+        for (int i = start; i < n; i++) {
+            int x0 = samples[i];
+            int x1 = samples[i - 1];
+            int x2 = samples[i - 2];
+            int x3 = samples[i - 3];
+            int x4 = samples[i - 4];
+            e0 += Math.abs(x0);
+            e1 += Math.abs(x0 - x1);
+            e2 += Math.abs(x0 - 2 * x1 + x2);
+            e3 += Math.abs(x0 - 3 * x1 + 3 * x2 - x3);
+            e4 += Math.abs(x0 - 4 * x1 + 6 * x2 - 4 * x3 + x4);
+        }
+        long[] errors = {e0, e1, e2, e3, e4};
+        int best = 0;
+        for (int order = 1; order <= maxOrder; order++) {
+            if (errors[order] < errors[best]) {
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    private void computeResidual(int order, int n) {
+        int[] x = samples;
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, n);
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) residual[i] = x[i] - x[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                break;
+            default:
+                for (int i = 4; i < n; i++) residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                break;
+        }
+    }
+
+    /**
+     * 从最细的分区开始统计每个分区 zigzag 残差之和，逐级合并，选出估算位数最少的分区阶数，
+     * 对应的 Rice 参数保存在 bestRiceParameters 中
+     */
+    private int choosePartitionOrder(int order, int n) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER
+                && (n & ((2 << maxOrder) - 1)) == 0
+                && (n >> (maxOrder + 1)) > order) {
+            maxOrder++;
+        }
+
+        int partitions = 1 << maxOrder;
+        int partitionSamples = n >> maxOrder;
+        int pos = order;
+        for (int p = 0; p < partitions; p++) {
+            long sum = 0;
+            int end = (p + 1) * partitionSamples;
+            for (; pos < end; pos++) {
+                sum += zigzag(residual[pos]);
+            }
+            partitionSums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        int bestOrder = 0;
+        for (int po = maxOrder; po >= 0; po--) {
+            int count = 1 << po;
+            if (po < maxOrder) {
+                // 相邻分区两两合并，得到上一级分区的和
+                for (int p = 0; p < count; p++) {
+                    partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+                }
+            }
+            int samplesPerPartition = n >> po;
+            long bits = 0;
+            for (int p = 0; p < count; p++) {
+                int size = p == 0 ? samplesPerPartition - order : samplesPerPartition;
+                int k = riceParameter(partitionSums[p], size);
+                riceParameters[p] = k;
+                bits += 4 + (long) size * (k + 1) + (partitionSums[p] >> k);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = po;
+                System.arraycopy(riceParameters, 0, bestRiceParameters, 0, count);
+            }
+        }
+        estimatedResidualBits = bestBits;
+        return bestOrder;
+    }
+
+    private static int riceParameter(long sum, int size) {
+        if (size <= 0 || sum <= size) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(sum / size);
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private int blockSizeCode(int n) {
+        switch (n) {
+            case 192: return 0b0001;
+            case 576: return 0b0010;
+            case 1152: return 0b0011;
+            case 2304: return 0b0100;
+            case 4608: return 0b0101;
+            case 256: return 0b1000;
+            case 512: return 0b1001;
+            case 1024: return 0b1010;
+            case 2048: return 0b1011;
+            case 4096: return 0b1100;
+            case 8192: return 0b1101;
+            case 16384: return 0b1110;
+            case 32768: return 0b1111;
+            default: return n <= 256 ? 0b0110 : 0b0111;
+        }
+    }
+
+    private int sampleRateCode() {
+        switch (sampleRate) {
+            case 8000: return 0b0100;
+            case 16000: return 0b0101;
+            case 22050: return 0b0110;
+            case 24000: return 0b0111;
+            case 32000: return 0b1000;
+            case 44100: return 0b1001;
+            case 48000: return 0b1010;
+            case 96000: return 0b1011;
+            default: return sampleRate < 65536 ? 0b1101 : 0b0000;
+        }
+    }
+
+    // ---- 位写入 ----
+
+    private void writeBits(int value, int bits) {
+        bitAccumulator = (bitAccumulator << bits) | (value & ((1L << bits) - 1));
+        bitCount += bits;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            buffer[bytePos++] = (byte) (bitAccumulator >>> bitCount);
+        }
+    }
+
+    private void writeRice(int value, int k) {
+        int u = zigzag(value);
+        int q = u >>> k;
+        ensureCapacity(bytePos + (q >> 3) + 16);
+        while (q >= 32) {
+            writeBits(0, 32);
+            q -= 32;
+        }
+        // q 个 0 后跟一个 1，再写 k 位低位
+        writeBits(1, q + 1);
+        if (k > 0) {
+            writeBits(u, k);
+        }
+    }
+
+    private void writeUtf8(int value) {
+        if (value < 0x80) {
+            writeBits(value, 8);
+        } else if (value < 0x800) {
+            writeBits(0xC0 | (value >> 6), 8);
+            writeBits(0x80 | (value & 0x3F), 8);
+        } else if (value < 0x10000) {
+            writeBits(0xE0 | (value >> 12), 8);
+            writeBits(0x80 | ((value >> 6) & 0x3F), 8);
+            writeBits(0x80 | (value & 0x3F), 8);
+        } else {
+            writeBits(0xF0 | (value >> 18), 8);
+            writeBits(0x80 | ((value >> 12) & 0x3F), 8);
+            writeBits(0x80 | ((value >> 6) & 0x3F), 8);
+            writeBits(0x80 | (value & 0x3F), 8);
+        }
+    }
+
+    private void alignToByte() {
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    private int crc8(int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = CRC8_TABLE[(crc ^ buffer[i]) & 0xFF] & 0xFF;
+        }
+        return crc;
+    }
+
+    private int crc16(int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) ^ (CRC16_TABLE[((crc >> 8) ^ buffer[i]) & 0xFF] & 0xFFFF)) & 0xFFFF;
+        }
+        return crc;
+    }
+}
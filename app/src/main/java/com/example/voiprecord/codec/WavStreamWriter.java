@@ -0,0 +1,93 @@
+package com.example.voiprecord.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流式 WAV 写入器：先写 44 字节的 RIFF 头，再把 PCM 数据原样写入目标流，不在内存中拼接完整的 WAV。
+ * <p>
+ * 两种用法：
+ * <ul>
+ *     <li>数据长度已知（录音分片）：{@link #writeHeader(OutputStream, long)} 后直接写 PCM。</li>
+ *     <li>数据长度未知（导出等场景）：先写占位头，写完后用 {@link #patchSizes(FileChannel, long)} 回填长度。</li>
+ * </ul>
+ * 实例内部复用头部缓冲区，不是线程安全的，每个写线程持有一个实例。
+ */
+public class WavStreamWriter {
+
+    public static final int HEADER_SIZE = 44;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+    public WavStreamWriter(int sampleRate, int channels, int bitsPerSample) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+    }
+
+    /**
+     * 写入 WAV 头
+     *
+     * @param dataBytes 随后写入的 PCM 字节数，未知时传 0 并在结束后调用 {@link #patchSizes}
+     */
+    public void writeHeader(OutputStream out, long dataBytes) throws IOException {
+        fillHeader(dataBytes);
+        out.write(header, 0, HEADER_SIZE);
+    }
+
+    /**
+     * 写入一个完整的 WAV：头 + pcm[offset, offset + length)，中间不产生拷贝
+     */
+    public void write(OutputStream out, byte[] pcm, int offset, int length) throws IOException {
+        writeHeader(out, length);
+        out.write(pcm, offset, length);
+    }
+
+    /**
+     * 以 ByteBuffer 形式返回填好的头部，便于直接写入 FileChannel。返回的缓冲区在下次调用前有效。
+     */
+    public ByteBuffer headerBuffer(long dataBytes) {
+        fillHeader(dataBytes);
+        headerBuffer.clear();
+        return headerBuffer;
+    }
+
+    /**
+     * 数据写完后回填 RIFF 与 data 块的长度字段，channel 必须支持随机写
+     */
+    public static void patchSizes(FileChannel channel, long dataBytes) throws IOException {
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        size.putInt(0, (int) (dataBytes + 36));
+        channel.write(size, 4);
+        size.clear();
+        size.putInt(0, (int) dataBytes);
+        channel.write(size, 40);
+    }
+
+    private void fillHeader(long dataBytes) {
+        int blockAlign = channels * (bitsPerSample / 8);
+        ByteBuffer b = headerBuffer;
+        b.clear();
+        // RIFF/WAVE header
+        b.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        b.putInt((int) (dataBytes + 36));
+        b.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        b.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        b.putInt(16); // 16 for PCM
+        b.putShort((short) 1); // Audio format 1=PCM
+        b.putShort((short) channels);
+        b.putInt(sampleRate);
+        b.putInt(sampleRate * blockAlign); // Byte rate
+        b.putShort((short) blockAlign); // Block align
+        b.putShort((short) bitsPerSample); // Bits per sample
+        b.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        b.putInt((int) dataBytes);
+    }
+}
@@ -7,6 +7,11 @@ public class FileRecordHistory {
     String direction;
     String username;
     String sessionId;
+    // 索引中的行号，分页和列表比较用
+    long id;
+    long timestampMillis;
+    long size;
+    int uploadState;
 
     public String getTimestamp() {
         return timestamp;
@@ -47,4 +52,36 @@ public class FileRecordHistory {
     public void setSessionId(String sessionId) {
         this.sessionId = sessionId;
     }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public void setTimestampMillis(long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getUploadState() {
+        return uploadState;
+    }
+
+    public void setUploadState(int uploadState) {
+        this.uploadState = uploadState;
+    }
 }
@@ -0,0 +1,85 @@
+package com.example.voiprecord.damain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个会话的录音汇总
+ */
+public class SessionRecordHistory {
+
+    String sessionId;
+    String username;
+    long startMillis;
+    // 最后一个分片的结束时间
+    long endMillis;
+    long bytes;
+    int chunks;
+    int uploadedChunks;
+    // 声道 -> 已落盘音频的时长（毫秒）
+    Map<String, Long> channelDurations = new LinkedHashMap<>();
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public void setStartMillis(long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public void setEndMillis(long endMillis) {
+        this.endMillis = endMillis;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+
+    public int getUploadedChunks() {
+        return uploadedChunks;
+    }
+
+    public void setUploadedChunks(int uploadedChunks) {
+        this.uploadedChunks = uploadedChunks;
+    }
+
+    public Map<String, Long> getChannelDurations() {
+        return channelDurations;
+    }
+
+    public void setChannelDurations(Map<String, Long> channelDurations) {
+        this.channelDurations = channelDurations;
+    }
+}
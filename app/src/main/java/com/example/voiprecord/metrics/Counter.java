@@ -0,0 +1,25 @@
+package com.example.voiprecord.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单调递增的计数器，多线程高频写入时不竞争同一个变量
+ */
+public final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
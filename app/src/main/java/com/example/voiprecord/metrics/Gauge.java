@@ -0,0 +1,30 @@
+package com.example.voiprecord.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 瞬时值：可以直接 {@link #set}，也可以绑定一个取值函数（例如队列长度），读取快照时再求值
+ */
+public final class Gauge {
+    private volatile long value;
+    private volatile LongSupplier supplier;
+
+    Gauge() {
+    }
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    /**
+     * 绑定取值函数，覆盖之前绑定的函数；传 null 解除绑定，恢复为最后一次 set 的值
+     */
+    public void bind(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public long get() {
+        LongSupplier s = supplier;
+        return s != null ? s.getAsLong() : value;
+    }
+}
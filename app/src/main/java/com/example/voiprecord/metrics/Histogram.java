@@ -0,0 +1,60 @@
+package com.example.voiprecord.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定分桶的直方图，用于记录耗时（毫秒）。记录时只做一次二分查找和几次原子加，不分配内存。
+ * <p>
+ * 第 i 个桶统计 {@code bounds[i-1] < v <= bounds[i]} 的样本，最后一个桶统计大于所有上界的样本。
+ */
+public final class Histogram {
+    // 默认的耗时分桶上界（毫秒），覆盖一次读音频到一次弱网上传
+    static final long[] DEFAULT_LATENCY_BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 30_000
+    };
+
+    private final long[] bounds;
+    private final AtomicLongArray buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.buckets = new AtomicLongArray(this.bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        buckets.incrementAndGet(index);
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * 记录从 {@code startNanos}（{@link System#nanoTime()}）到现在经过的毫秒数
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    HistogramSnapshot snapshot() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new HistogramSnapshot(bounds, counts, sum.sum(), max.get());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.voiprecord.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 直方图在某一时刻的副本。各个桶是分别读取的，与并发写入之间不保证严格一致。
+ */
+public final class HistogramSnapshot {
+    private final long[] bounds;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] bounds, long[] counts, long sum, long max) {
+        this.bounds = bounds;
+        this.counts = counts;
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : sum / (double) count;
+    }
+
+    /**
+     * 分位数的估计值：取样本所在桶的上界，落在最后一个桶时取最大值
+     *
+     * @param quantile 0 ~ 1
+     */
+    public long getPercentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < bounds.length ? Math.min(bounds[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "n=" + count
+                + " mean=" + Math.round(getMean())
+                + " p50=" + getPercentile(0.5)
+                + " p95=" + getPercentile(0.95)
+                + " max=" + max;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.voiprecord.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 进程内的指标注册表：计数器、瞬时值和固定分桶的耗时直方图。
+ * <p>
+ * 同名指标只创建一次，调用方通常在类初始化时取到指标对象并保存在静态字段里，之后的记录都是无锁的原子操作。
+ * 指标名用点分隔，例如 {@code audio.ch0.read_ms}、{@code http.audio.retries}；耗时直方图以 {@code _ms} 结尾。
+ * {@link #snapshot()} 返回所有指标的副本，供日志、心跳上报等使用。
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    MetricsRegistry() {
+    }
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, n -> new Gauge());
+    }
+
+    /**
+     * 取得瞬时值并绑定取值函数，同名指标再次绑定时覆盖（例如每次录音新建的流水线）
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        Gauge gauge = gauge(name);
+        gauge.bind(supplier);
+        return gauge;
+    }
+
+    /**
+     * 使用默认耗时分桶（1ms ~ 30s）的直方图
+     */
+    public Histogram histogram(String name) {
+        return histogram(name, Histogram.DEFAULT_LATENCY_BOUNDS_MS);
+    }
+
+    /**
+     * @param bounds 各个桶的上界，只在第一次创建时使用
+     */
+    public Histogram histogram(String name, long[] bounds) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(bounds));
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            counterValues.put(e.getKey(), e.getValue().get());
+        }
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            gaugeValues.put(e.getKey(), e.getValue().get());
+        }
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            histogramValues.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+    }
+}
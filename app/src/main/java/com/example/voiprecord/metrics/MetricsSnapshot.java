@@ -0,0 +1,85 @@
+package com.example.voiprecord.metrics;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.Gson;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 所有指标在某一时刻的副本，按名称排序，可以直接用 Gson 导出
+ */
+public final class MetricsSnapshot {
+    private final long timestampMillis;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timestampMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, HistogramSnapshot> histograms) {
+        this.timestampMillis = timestampMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * 计数器的值，没有该计数器时返回 0
+     */
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * 瞬时值，没有该指标时返回 0
+     */
+    public long getGauge(String name) {
+        Long value = gauges.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * 直方图，没有该指标时返回 null
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public String toJson() {
+        return new Gson().toJson(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> e : gauges.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, HistogramSnapshot> e : histograms.entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.voiprecord.pipeline;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个音频分片，是 {@link PcmRingBuffer} 中某个槽位的视图（不持有独立的数据拷贝）。
+ * <p>
+ * 生命周期：录音线程 {@link PcmRingBuffer#acquire()} 取得 -> 写入 PCM 并 {@link #seal} ->
+ * 交给 {@link UploadPipeline}，之后录音线程不再访问它 -> 流水线处理完毕后 {@link #release()} 归还槽位。
+ */
+public class AudioChunk {
+
+    private final byte[] buffer;
+    private final int offset;
+    private final int capacity;
+    private final boolean pooled;
+    private final AtomicBoolean inUse = new AtomicBoolean(false);
+
+    private int length;
+    private String sessionId;
+    private String direction;
+    private int index;
+    private long timestampMillis;
+    private boolean silent;
+
+    AudioChunk(byte[] buffer, int offset, int capacity, boolean pooled) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.capacity = capacity;
+        this.pooled = pooled;
+    }
+
+    boolean tryAcquire() {
+        if (inUse.compareAndSet(false, true)) {
+            length = 0;
+            silent = false;
+            return true;
+        }
+        return false;
+    }
+
+    boolean isInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * 归还槽位。重复调用是安全的。
+     */
+    public void release() {
+        inUse.set(false);
+    }
+
+    /**
+     * 录音完成后填写分片的元数据
+     */
+    public void seal(String sessionId, String direction, int index, long timestampMillis) {
+        this.sessionId = sessionId;
+        this.direction = direction;
+        this.index = index;
+        this.timestampMillis = timestampMillis;
+    }
+
+    /**
+     * 录音线程写入 read 个字节后调用
+     */
+    public void advance(int read) {
+        length += read;
+    }
+
+    /**
+     * 底层数组，有效数据位于 [getOffset(), getOffset() + getLength())
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 下一次写入的位置
+     */
+    public int getWritePosition() {
+        return offset + length;
+    }
+
+    /**
+     * 是否属于环形缓冲区（否则是槽位耗尽时临时分配的）
+     */
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * 由录音线程根据 {@link VoiceActivityDetector} 的结果标记整段静音
+     */
+    public void setSilent(boolean silent) {
+        this.silent = silent;
+    }
+
+    public boolean isSilent() {
+        return silent;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "AudioChunk{" +
+                "sessionId='" + sessionId + '\'' +
+                ", direction='" + direction + '\'' +
+                ", index=" + index +
+                ", bytes=" + length +
+                ", silent=" + silent +
+                '}';
+    }
+}
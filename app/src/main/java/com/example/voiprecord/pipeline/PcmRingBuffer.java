@@ -0,0 +1,94 @@
+package com.example.voiprecord.pipeline;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个声道一个的预分配 PCM 环形缓冲区。
+ * <p>
+ * 整块内存在录音开始时一次性分配，按分片大小切成若干个槽位，每个槽位对应一个可复用的 {@link AudioChunk}。
+ * 录音线程通过 {@link #acquire()} 拿到下一个空闲槽位，{@code AudioRecord.read} 直接写进槽位，
+ * 分片交给流水线后由流水线在用完时 {@link AudioChunk#release()} 归还。稳态下录音路径不分配任何内存。
+ * <p>
+ * 所有槽位都被占用时（流水线严重积压），会临时分配一个不属于环形缓冲区的分片，保证录音线程不阻塞，
+ * 并计入 {@link #getOverflowCount()}。
+ */
+public class PcmRingBuffer {
+    private static final String TAG = "PcmRingBuffer";
+
+    // 16 位单声道，每个采样 2 字节
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final byte[] ring;
+    private final AudioChunk[] slots;
+    private final int slotBytes;
+    private int nextSlot = 0;
+
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    /**
+     * @param slotCount 槽位数量，应覆盖“正在录制 + 流水线中尚未释放”的分片数
+     * @param slotBytes 单个槽位的字节数，一般由 {@link #bytesFor(int, int)} 计算
+     */
+    public PcmRingBuffer(int slotCount, int slotBytes) {
+        this.slotBytes = slotBytes;
+        this.ring = new byte[slotCount * slotBytes];
+        this.slots = new AudioChunk[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new AudioChunk(ring, i * slotBytes, slotBytes, true);
+        }
+    }
+
+    /**
+     * 计算指定时长的 16 位单声道 PCM 所需字节数
+     */
+    public static int bytesFor(int durationMs, int sampleRate) {
+        long bytes = (long) sampleRate * BYTES_PER_SAMPLE * durationMs / 1000;
+        // 保证按采样对齐
+        return (int) (bytes - bytes % BYTES_PER_SAMPLE);
+    }
+
+    public int getSlotBytes() {
+        return slotBytes;
+    }
+
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * 录音线程调用：取得下一个空闲槽位。只应由单个录音线程调用。
+     */
+    public AudioChunk acquire() {
+        for (int i = 0; i < slots.length; i++) {
+            AudioChunk chunk = slots[nextSlot];
+            nextSlot = (nextSlot + 1) % slots.length;
+            if (chunk.tryAcquire()) {
+                return chunk;
+            }
+        }
+        long overflows = overflowCount.incrementAndGet();
+        Log.w(TAG, "环形缓冲区槽位耗尽，临时分配分片内存, overflow=" + overflows);
+        AudioChunk chunk = new AudioChunk(new byte[slotBytes], 0, slotBytes, false);
+        chunk.tryAcquire();
+        return chunk;
+    }
+
+    /**
+     * 当前被占用（录制中或流水线中）的槽位数量
+     */
+    public int getInUseCount() {
+        int count = 0;
+        for (AudioChunk slot : slots) {
+            if (slot.isInUse()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+}
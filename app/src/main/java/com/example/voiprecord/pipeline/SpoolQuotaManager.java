@@ -0,0 +1,272 @@
+package com.example.voiprecord.pipeline;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.example.voiprecord.MainActivity;
+import com.example.voiprecord.metrics.Counter;
+import com.example.voiprecord.metrics.MetricsRegistry;
+import com.example.voiprecord.store.ChunkFileName;
+import com.example.voiprecord.store.RecordIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 录音分片缓存目录（Download/voip）的空间配额，上限为 {@link MainActivity#MAX_FOLDER_SIZE_BYTES}。
+ * <p>
+ * 在内存中维护所有分片文件的索引（MediaStore id 和大小，按会话分组），落盘线程每写一个分片调用一次
+ * {@link #recordWrite}，只在服务启动时用一次 MediaStore 查询 {@link #rescan} 重建索引。
+ * 周期性的 {@link #enforce} 在未超额时只比较一次总大小；超额时从最旧的会话开始整会话淘汰，
+ * 用 {@code _id IN (...)} 批量删除 MediaStore 条目。正在录音的会话最后才淘汰，且只删它最旧的分片。
+ * <p>
+ * 被删除但仍未上传的分片由 {@link UploadJournal} 在补传时发现文件不存在后放弃。
+ * 淘汰和重建时同步更新历史记录索引 {@link RecordIndex}。
+ * 整个进程共用一个实例，方法都是同步的（MediaStore 查询和删除在锁外进行）。
+ */
+public class SpoolQuotaManager {
+    private static final String TAG = "SpoolQuotaManager";
+
+    // 每次删除的条目数，SQLite 的参数个数上限为 999
+    private static final int DELETE_BATCH = 500;
+    private static final String RELATIVE_PATH = Environment.DIRECTORY_DOWNLOADS + "/voip/";
+
+    private static SpoolQuotaManager instance;
+
+    private final ContentResolver resolver;
+    private final RecordIndex index;
+    private final long quotaBytes;
+    private final Counter evictedFiles = MetricsRegistry.get().counter("spool.evicted_files");
+    // 按会话最早分片的录制时间排列，新会话追加在末尾
+    private final LinkedHashMap<String, SessionFiles> sessions = new LinkedHashMap<>();
+    private final Set<Long> knownIds = new HashSet<>();
+    private long totalBytes;
+    private String activeSession;
+
+    /**
+     * 一个会话的分片，按写入顺序排列
+     */
+    private static final class SessionFiles {
+        final List<Long> ids = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        final long firstTimestamp;
+        long bytes;
+
+        SessionFiles(long firstTimestamp) {
+            this.firstTimestamp = firstTimestamp;
+        }
+
+        void add(long id, long size) {
+            ids.add(id);
+            sizes.add(size);
+            bytes += size;
+        }
+    }
+
+    public static synchronized SpoolQuotaManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new SpoolQuotaManager(context.getApplicationContext().getContentResolver(),
+                    RecordIndex.getInstance(context), MainActivity.MAX_FOLDER_SIZE_BYTES);
+        }
+        return instance;
+    }
+
+    SpoolQuotaManager(ContentResolver resolver, RecordIndex index, long quotaBytes) {
+        this.resolver = resolver;
+        this.index = index;
+        this.quotaBytes = quotaBytes;
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.gauge("spool.bytes", this::getTotalBytes);
+        metrics.gauge("spool.files", this::getFileCount);
+    }
+
+    /**
+     * 记录一个新写入的分片文件，O(1)
+     *
+     * @param timestampMillis 分片的录制时间
+     */
+    public synchronized void recordWrite(Uri uri, String sessionId, long timestampMillis, long size) {
+        long id = ContentUris.parseId(uri);
+        if (!knownIds.add(id)) {
+            return;
+        }
+        add(sessionId, timestampMillis, id, size);
+    }
+
+    /**
+     * 正在录音的会话，淘汰时最后考虑；录音结束后传 null
+     */
+    public synchronized void setActiveSession(String sessionId) {
+        this.activeSession = sessionId;
+    }
+
+    /**
+     * 查询 MediaStore 重建索引，只在启动时调用一次。扫描期间写入的分片不会丢失。
+     * 扫描结果同时用于校正 {@link RecordIndex}。
+     */
+    public void rescan() {
+        Map<String, List<long[]>> scanned = new HashMap<>();
+        List<RecordIndex.Entry> entries = new ArrayList<>();
+        long indexedBefore = index.getLastRowId();
+        Map<String, Long> firstTimestamps = new HashMap<>();
+        String[] projection = {MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.SIZE};
+        try (Cursor cursor = resolver.query(collection(), projection,
+                MediaStore.MediaColumns.RELATIVE_PATH + " = ?", new String[]{RELATIVE_PATH}, null)) {
+            if (cursor == null) {
+                Log.w(TAG, "MediaStore query returned null");
+                return;
+            }
+            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME);
+            int sizeColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.SIZE);
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameColumn);
+                if (name == null) {
+                    continue;
+                }
+                long id = cursor.getLong(idColumn);
+                long size = cursor.getLong(sizeColumn);
+                ChunkFileName parsed = ChunkFileName.parse(name);
+                // 无法解析的文件归入同一个空会话，录制时间按 0 处理（最先淘汰），也不进入历史记录索引
+                String session = parsed != null ? parsed.getSessionId() : "";
+                long timestamp = parsed != null ? parsed.getTimestampMillis() : 0;
+                scanned.computeIfAbsent(session, s -> new ArrayList<>()).add(new long[]{timestamp, id, size});
+                if (parsed != null) {
+                    entries.add(new RecordIndex.Entry(id, name, parsed, size));
+                }
+                firstTimestamps.merge(session, timestamp, Math::min);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Spool rescan failed", e);
+            return;
+        }
+
+        List<String> order = new ArrayList<>(scanned.keySet());
+        order.sort((a, b) -> Long.compare(firstTimestamps.get(a), firstTimestamps.get(b)));
+        synchronized (this) {
+            // 扫描期间 recordWrite 写入的分片排在扫描结果之后
+            LinkedHashMap<String, SessionFiles> recent = new LinkedHashMap<>(sessions);
+            sessions.clear();
+            knownIds.clear();
+            totalBytes = 0;
+            for (String session : order) {
+                List<long[]> files = scanned.get(session);
+                files.sort((a, b) -> Long.compare(a[0], b[0]));
+                for (long[] f : files) {
+                    if (knownIds.add(f[1])) {
+                        add(session, f[0], f[1], f[2]);
+                    }
+                }
+            }
+            for (Map.Entry<String, SessionFiles> e : recent.entrySet()) {
+                SessionFiles files = e.getValue();
+                for (int i = 0; i < files.ids.size(); i++) {
+                    if (knownIds.add(files.ids.get(i))) {
+                        add(e.getKey(), files.firstTimestamp, files.ids.get(i), files.sizes.get(i));
+                    }
+                }
+            }
+            Log.i(TAG, "Spool index rebuilt: " + knownIds.size() + " files, " + totalBytes / (1024 * 1024)
+                    + "MB in " + sessions.size() + " sessions");
+        }
+        // 扫描开始后落盘的分片可能不在扫描结果中，只校正扫描开始前已有的行
+        index.sync(entries, indexedBefore);
+    }
+
+    /**
+     * 超过配额时淘汰最旧的会话，未超额时立即返回
+     *
+     * @return 删除的文件数
+     */
+    public int enforce() {
+        List<Long> victims = new ArrayList<>();
+        synchronized (this) {
+            if (totalBytes <= quotaBytes) {
+                return 0;
+            }
+            Iterator<Map.Entry<String, SessionFiles>> it = sessions.entrySet().iterator();
+            while (totalBytes > quotaBytes && it.hasNext()) {
+                Map.Entry<String, SessionFiles> e = it.next();
+                if (e.getKey().equals(activeSession)) {
+                    continue;
+                }
+                victims.addAll(e.getValue().ids);
+                totalBytes -= e.getValue().bytes;
+                it.remove();
+            }
+            SessionFiles active = activeSession != null ? sessions.get(activeSession) : null;
+            // 只剩正在录音的会话仍然超额：删除它最旧的分片
+            while (totalBytes > quotaBytes && active != null && !active.ids.isEmpty()) {
+                long size = active.sizes.remove(0);
+                victims.add(active.ids.remove(0));
+                active.bytes -= size;
+                totalBytes -= size;
+            }
+            knownIds.removeAll(victims);
+        }
+        int deleted = delete(victims);
+        index.delete(victims);
+        evictedFiles.add(victims.size());
+        Log.i(TAG, "Evicted " + victims.size() + " spool files (" + deleted + " deleted), now "
+                + getTotalBytes() / (1024 * 1024) + "MB");
+        return victims.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getFileCount() {
+        return knownIds.size();
+    }
+
+    private void add(String session, long timestamp, long id, long size) {
+        SessionFiles files = sessions.get(session);
+        if (files == null) {
+            files = new SessionFiles(timestamp);
+            sessions.put(session, files);
+        }
+        files.add(id, size);
+        totalBytes += size;
+    }
+
+    /**
+     * 按 {@link #DELETE_BATCH} 分批删除 MediaStore 条目
+     */
+    private int delete(List<Long> ids) {
+        int deleted = 0;
+        Uri collection = collection();
+        for (int start = 0; start < ids.size(); start += DELETE_BATCH) {
+            List<Long> batch = ids.subList(start, Math.min(ids.size(), start + DELETE_BATCH));
+            StringBuilder where = new StringBuilder(MediaStore.MediaColumns._ID).append(" IN (");
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                where.append(i == 0 ? "?" : ",?");
+                args[i] = String.valueOf(batch.get(i));
+            }
+            where.append(')');
+            try {
+                deleted += resolver.delete(collection, where.toString(), args);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to delete spool files", e);
+            }
+        }
+        return deleted;
+    }
+
+    private static Uri collection() {
+        return MediaStore.Downloads.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.voiprecord.pipeline;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.voiprecord.codec.AudioCodec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 持久化的上传日志（append-only），保证上传失败或进程被杀时已落盘的分片不会丢失。
+ * <p>
+ * 每个落盘的分片追加一条 P 记录（会话、声道、序号、编码、大小、上传服务器、本地位置），上传成功后追加 D 记录，
+ * 超过 {@link #MAX_ENTRY_AGE_MS} 仍未成功或本地文件已被清理的追加 A 记录。启动时重放整个文件，
+ * 只有 P 没有 D/A 的分片就是待补传的分片。文件末尾没有换行符的半行会被忽略，随后压缩文件把它去掉。
+ * <p>
+ * 记录格式为一行一条、制表符分隔：
+ * <pre>
+ * P  createdMillis  sessionId  channel  index  extension  length  baseUrl  location
+ * D  sessionId  channel  index
+ * A  sessionId  channel  index
+ * </pre>
+ * location 是落盘文件的 content Uri，静音分片为 "silence:采样数"，分段文件中的分片见
+ * {@link com.example.voiprecord.store.SegmentedSessionStore#location}。
+ * baseUrl 是会话所在的服务器，补传时发往这里而不是当前流水线的服务器；旧版本写入的 P 记录没有这一列，
+ * 读出为 null。
+ * 已完成的记录累计超过 {@link #COMPACT_THRESHOLD} 条时，重写文件只保留待补传的记录。
+ * <p>
+ * 整个进程共用一个实例，方法都是同步的。
+ */
+public class UploadJournal {
+    private static final String TAG = "UploadJournal";
+
+    private static final String FILE_NAME = "upload_journal.log";
+    private static final String SILENCE_PREFIX = "silence:";
+    // 超过该时长仍未上传成功的分片不再补传
+    public static final long MAX_ENTRY_AGE_MS = 24L * 60 * 60 * 1000;
+    // 已完成记录超过该数量时压缩文件
+    static final int COMPACT_THRESHOLD = 512;
+
+    /**
+     * 补传顺序
+     */
+    public enum ReplayOrder {
+        // 按录制顺序补传，服务端拼接最简单
+        OLDEST_FIRST,
+        // 先补最近的分片，适合需要尽快看到最新内容的场景
+        NEWEST_FIRST;
+
+        public static ReplayOrder fromName(String name, ReplayOrder defaultOrder) {
+            for (ReplayOrder order : values()) {
+                if (order.name().equalsIgnoreCase(name)) {
+                    return order;
+                }
+            }
+            return defaultOrder;
+        }
+    }
+
+    /**
+     * 一个待上传的分片
+     */
+    public static final class Entry {
+        final long createdMillis;
+        final String sessionId;
+        final String channel;
+        final int index;
+        final String extension;
+        final long length;
+        // 旧版本的记录为 null
+        final String baseUrl;
+        final String location;
+        // 是否已在某个流水线的上传队列中，只在内存中维护
+        boolean queued;
+
+        Entry(long createdMillis, String sessionId, String channel, int index, String extension, long length,
+              String baseUrl, String location) {
+            this.createdMillis = createdMillis;
+            this.sessionId = sessionId;
+            this.channel = channel;
+            this.index = index;
+            this.extension = extension;
+            this.length = length;
+            this.baseUrl = baseUrl;
+            this.location = location;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public AudioCodec getCodec() {
+            return AudioCodec.fromName(extension, AudioCodec.WAV);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        /**
+         * 分片所属会话的服务器地址，旧版本写入的记录返回 null
+         */
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**
+         * 落盘文件的 Uri 字符串；静音分片返回 null
+         */
+        public String getUri() {
+            return isSilence() ? null : location;
+        }
+
+        public boolean isSilence() {
+            return location.startsWith(SILENCE_PREFIX);
+        }
+
+        public int getSilentSamples() {
+            return isSilence() ? Integer.parseInt(location.substring(SILENCE_PREFIX.length())) : 0;
+        }
+
+        String key() {
+            return UploadJournal.key(sessionId, channel, index);
+        }
+
+        String toRecord() {
+            return "P\t" + createdMillis + "\t" + sessionId + "\t" + channel + "\t" + index + "\t"
+                    + extension + "\t" + length + "\t" + (baseUrl != null ? baseUrl : "") + "\t" + location;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return sessionId + "/" + channel + "#" + index;
+        }
+    }
+
+    private static UploadJournal instance;
+
+    private final File file;
+    // 按写入（即录制）顺序排列的待上传分片
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private int obsoleteRecords;
+
+    public static synchronized UploadJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadJournal(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    UploadJournal(File file) {
+        this.file = file;
+        load();
+        if (obsoleteRecords > 0) {
+            compact();
+        }
+    }
+
+    /**
+     * 静音分片在日志中的位置字符串
+     */
+    public static String silenceLocation(int samples) {
+        return SILENCE_PREFIX + samples;
+    }
+
+    /**
+     * 记录一个已落盘、即将进入上传队列的分片
+     */
+    public synchronized Entry recordPending(String sessionId, String channel, int index, AudioCodec codec,
+                                            long length, String baseUrl, String location) {
+        Entry entry = new Entry(System.currentTimeMillis(), sessionId, channel, index, codec.getExtension(), length,
+                baseUrl, location);
+        entry.queued = true;
+        Entry previous = pending.put(entry.key(), entry);
+        if (previous != null) {
+            obsoleteRecords++;
+        }
+        append(entry.toRecord(), true);
+        return entry;
+    }
+
+    /**
+     * 上传成功
+     */
+    public synchronized void markDone(Entry entry) {
+        finish(entry, "D");
+    }
+
+    /**
+     * 放弃补传（本地文件已不存在或超过保留时长）
+     */
+    public synchronized void markAbandoned(Entry entry) {
+        Log.w(TAG, "放弃补传: " + entry);
+        finish(entry, "A");
+    }
+
+    /**
+     * 分片离开了上传队列但没有上传成功（失败、积压被挤出、停止时超时），留待之后补传
+     */
+    public synchronized void release(Entry entry) {
+        entry.queued = false;
+    }
+
+    /**
+     * 取出下一个需要补传的分片并标记为已入队；没有时返回 null
+     */
+    public synchronized Entry nextForReplay(ReplayOrder order) {
+        long now = System.currentTimeMillis();
+        List<Entry> expired = null;
+        Entry next = null;
+        Iterator<Entry> it = order == ReplayOrder.OLDEST_FIRST
+                ? pending.values().iterator()
+                : reversed(pending.values()).iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.queued) {
+                continue;
+            }
+            if (now - entry.createdMillis > MAX_ENTRY_AGE_MS) {
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(entry);
+                continue;
+            }
+            next = entry;
+            break;
+        }
+        if (expired != null) {
+            for (Entry entry : expired) {
+                markAbandoned(entry);
+            }
+        }
+        if (next != null) {
+            next.queued = true;
+        }
+        return next;
+    }
+
+    /**
+     * 是否有不在任何上传队列中、可以补传的分片
+     */
+    public synchronized boolean hasReplayable() {
+        for (Entry entry : pending.values()) {
+            if (!entry.queued) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void finish(Entry entry, String state) {
+        if (pending.get(entry.key()) != entry) {
+            return;
+        }
+        pending.remove(entry.key());
+        obsoleteRecords += 2;
+        append(state + "\t" + entry.sessionId + "\t" + entry.channel + "\t" + entry.index, false);
+        if (obsoleteRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            boolean complete = endsWithNewline();
+            String line;
+            String previous = null;
+            while ((line = reader.readLine()) != null) {
+                if (previous != null) {
+                    parse(previous);
+                }
+                previous = line;
+            }
+            if (previous != null) {
+                if (complete) {
+                    parse(previous);
+                } else {
+                    // 进程在写入中途被杀：即使截断后的内容碰巧能解析（例如 location 被截短）也不能相信
+                    obsoleteRecords++;
+                    Log.w(TAG, "忽略末尾不完整的日志记录: " + previous);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "读取上传日志失败", e);
+        }
+        Log.i(TAG, "上传日志中待补传的分片: " + pending.size());
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length == 0) {
+                return true;
+            }
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private void parse(String line) {
+        String[] parts = line.split("\t", -1);
+        try {
+            if ("P".equals(parts[0]) && (parts.length == 8 || parts.length == 9)) {
+                // 8 列是没有 baseUrl 的旧记录
+                String baseUrl = parts.length == 9 && !parts[7].isEmpty() ? parts[7] : null;
+                Entry entry = new Entry(Long.parseLong(parts[1]), parts[2], parts[3], Integer.parseInt(parts[4]),
+                        parts[5], Long.parseLong(parts[6]), baseUrl, parts[parts.length - 1]);
+                if (pending.put(entry.key(), entry) != null) {
+                    obsoleteRecords++;
+                }
+            } else if (("D".equals(parts[0]) || "A".equals(parts[0])) && parts.length == 4) {
+                pending.remove(key(parts[1], parts[2], Integer.parseInt(parts[3])));
+                obsoleteRecords += 2;
+            } else {
+                obsoleteRecords++;
+                Log.w(TAG, "忽略无法识别的日志记录: " + line);
+            }
+        } catch (NumberFormatException e) {
+            obsoleteRecords++;
+            Log.w(TAG, "忽略损坏的日志记录: " + line);
+        }
+    }
+
+    /**
+     * 把待补传的记录写入临时文件后原子替换日志文件
+     */
+    private void compact() {
+        closeOutput();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+            StringBuilder sb = new StringBuilder();
+            for (Entry entry : pending.values()) {
+                sb.append(entry.toRecord()).append('\n');
+            }
+            tmpOut.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            tmpOut.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "压缩上传日志失败", e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "替换上传日志失败: " + file);
+            return;
+        }
+        obsoleteRecords = 0;
+    }
+
+    private void append(String record, boolean sync) {
+        try {
+            if (out == null) {
+                out = new FileOutputStream(file, true);
+            }
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "写入上传日志失败: " + record, e);
+            closeOutput();
+        }
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private static String key(String sessionId, String channel, int index) {
+        return sessionId + "/" + channel + "/" + index;
+    }
+
+    private static List<Entry> reversed(Iterable<Entry> entries) {
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries) {
+            list.add(entry);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+}
@@ -0,0 +1,683 @@
+package com.example.voiprecord.pipeline;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.voiprecord.VoipRecordService;
+import com.example.voiprecord.codec.AudioCodec;
+import com.example.voiprecord.codec.FlacEncoder;
+import com.example.voiprecord.codec.WavStreamWriter;
+import com.example.voiprecord.metrics.Histogram;
+import com.example.voiprecord.metrics.MetricsRegistry;
+import com.example.voiprecord.rpc.ApiClient;
+import com.example.voiprecord.rpc.ContentUriRequestBody;
+import com.example.voiprecord.rpc.PcmWavRequestBody;
+import com.example.voiprecord.store.ChunkFileName;
+import com.example.voiprecord.store.RecordIndex;
+import com.example.voiprecord.store.SegmentedSessionStore;
+import com.example.voiprecord.task.TaskScheduler;
+import com.example.voiprecord.utils.HistoryRecordUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.RequestBody;
+
+/**
+ * 录音分片的异步处理流水线：录音 -> 编码 -> 落盘 -> 上传。
+ * <p>
+ * 录音线程只调用 {@link #submit(AudioChunk)} 把分片放入有界队列，立即返回继续 {@code AudioRecord.read}；
+ * 编码落盘和网络上传分别在独立的线程中完成，慢速网络（以及 RetryInterceptor 的重试等待）
+ * 不会再阻塞录音循环。
+ * <p>
+ * 上传内容直接从环形缓冲区中的分片内存写出，每个分片只写一次闪存、不再读回，也不会与 MediaStore 写入竞争。
+ * 为了不长期占用环形缓冲区，最多 {@link #MEMORY_RESIDENT_UPLOADS} 个待上传分片保留在内存中，
+ * 更早的分片会归还槽位，改为通过落盘时拿到的 Uri 上传。
+ * <p>
+ * 会话使用 {@link AudioCodec#FLAC} 时，落盘线程先把分片编码为 FLAC，编码结果拷贝一份后立即归还环形缓冲区槽位，
+ * 落盘与上传都使用压缩后的数据。
+ * <p>
+ * 被标记为静音的分片（见 {@link VoiceActivityDetector}）照常落盘，以免误判丢失音频，但落盘后立即归还槽位，
+ * 只上传（以及在日志中记录）一个记录采样数的静音标记，分片序号保持连续。
+ * <p>
+ * 开启 {@link #setSegmentedStorage} 时分片不再逐个写入 MediaStore，而是追加到 {@link SegmentedSessionStore}
+ * 中该会话该声道的分段文件（WAV 分片只存 PCM），日志中记录分段位置；这些分片不计入 Download/voip 的配额，
+ * 但同样记入历史记录索引。
+ * <p>
+ * 每个落盘的分片都记入 {@link UploadJournal}。上传失败、积压被挤出或进程被杀的分片保留在日志中，
+ * 上传线程在实时队列空闲时按 {@link UploadJournal.ReplayOrder} 从日志补传；补传失败后指数退避，
+ * 实时分片重新上传成功（网络恢复）时立即恢复补传。
+ * <p>
+ * 队列满时的策略：
+ * <ul>
+ *     <li>落盘队列满：丢弃新分片（说明磁盘写入本身跟不上，计入 droppedChunks）。</li>
+ *     <li>上传队列满：挤出最旧的待上传分片，它已经落盘并记入日志，之后补传（计入 skippedUploads）。</li>
+ * </ul>
+ * <p>
+ * 分片编码耗时、写入 MediaStore 的耗时和两个队列的长度记入 {@link MetricsRegistry}（{@code pipeline.*}）。
+ */
+public class UploadPipeline {
+    private static final String TAG = "UploadPipeline";
+
+    // 落盘队列容量：正常情况下落盘远快于录音，这里只用于吸收抖动
+    public static final int PERSIST_QUEUE_CAPACITY = 8;
+    // 上传队列容量：弱网时允许积压的分片数量
+    public static final int UPLOAD_QUEUE_CAPACITY = 32;
+    // 最多保留在内存（环形缓冲区）中等待上传的分片数，所有声道合计
+    public static final int MEMORY_RESIDENT_UPLOADS = 4;
+    // 停止录音后，等待剩余分片上传完成的最长时间
+    private static final long DRAIN_TIMEOUT_MS = 30_000;
+    // 积压超过该值时打印告警日志
+    private static final int BACKLOG_WARN_THRESHOLD = 4;
+    // 补传失败后的退避时间范围
+    private static final long REPLAY_BACKOFF_MIN_MS = 5_000;
+    private static final long REPLAY_BACKOFF_MAX_MS = 5 * 60_000;
+
+    private static final Histogram CHUNK_BUILD_MS = MetricsRegistry.get().histogram("pipeline.chunk_build_ms");
+    private static final Histogram STORE_WRITE_MS = MetricsRegistry.get().histogram("pipeline.store_write_ms");
+
+    private final Context context;
+    private final String baseUrl;
+    private final String username;
+    private final AudioCodec codec;
+    private final ApiClient apiClient = new ApiClient();
+    private final UploadJournal journal;
+    private final SpoolQuotaManager spool;
+    private final RecordIndex index;
+    private final SegmentedSessionStore segments;
+    // 新落盘分片是否写入分段文件，补传时无论是否开启都能读取分段文件中的分片
+    private volatile boolean segmentedStorage;
+    private volatile UploadJournal.ReplayOrder replayOrder = UploadJournal.ReplayOrder.OLDEST_FIRST;
+    // 只在落盘线程中使用
+    private final WavStreamWriter persistWavWriter = new WavStreamWriter(VoipRecordService.SAMPLE_RATE, 1, 16);
+    // 只在落盘线程中使用，仅 FLAC 会话创建
+    private final FlacEncoder flacEncoder;
+    // 只在上传线程中使用
+    private final WavStreamWriter uploadWavWriter = new WavStreamWriter(VoipRecordService.SAMPLE_RATE, 1, 16);
+
+    private final BlockingQueue<AudioChunk> persistQueue = new ArrayBlockingQueue<>(PERSIST_QUEUE_CAPACITY);
+    private final BlockingQueue<PendingUpload> uploadQueue = new ArrayBlockingQueue<>(UPLOAD_QUEUE_CAPACITY);
+    private final AtomicInteger residentUploads = new AtomicInteger();
+
+    private final AtomicLong submittedChunks = new AtomicLong();
+    private final AtomicLong persistedChunks = new AtomicLong();
+    private final AtomicLong uploadedChunks = new AtomicLong();
+    private final AtomicLong failedUploads = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private final AtomicLong skippedUploads = new AtomicLong();
+    private final AtomicLong spilledUploads = new AtomicLong();
+    private final AtomicLong silentChunks = new AtomicLong();
+    private final AtomicLong replayedUploads = new AtomicLong();
+
+    private volatile boolean accepting = false;
+    private volatile boolean persistDone = false;
+    private volatile long drainDeadline = Long.MAX_VALUE;
+    private volatile Runnable onDrained;
+    // 只在上传线程中使用
+    private long replayBackoffMs = REPLAY_BACKOFF_MIN_MS;
+    private long replayPausedUntil = 0;
+
+    /**
+     * 已落盘、等待上传的分片。
+     * <p>
+     * WAV 分片内存仍在环形缓冲区中时 chunk 不为 null，上传直接从内存写出；被换出后 chunk 为 null，
+     * 通过 uri 读取落盘文件上传。换出与开始上传之间用对象锁互斥，避免上传过程中槽位被复用。
+     * FLAC 分片不占用环形缓冲区，encoded 保存编码结果直到上传结束。
+     * 从日志补传的分片只有 uri（或静音标记）。
+     * 保存在分段文件中的分片 uri 为 null、segmented 为 true，按会话、声道、序号读取。
+     */
+    private static final class PendingUpload {
+        final String sessionId;
+        final String direction;
+        final int index;
+        final AudioCodec codec;
+        // 落盘文件（即上传内容）的字节数
+        final long storedLength;
+        final String fileName;
+        final Uri uri;
+        // 保存在 SegmentedSessionStore 中
+        boolean segmented;
+        // 补传的分片所属会话的服务器，为 null 时（实时分片、旧的日志记录）使用流水线的 baseUrl
+        final String baseUrl;
+        // 录制时间，补传的分片为记入日志的时间
+        final long timestampMillis;
+        // 音频时长，补传的分片为 0
+        final long durationMillis;
+        // 大于 0 表示静音分片，只上传标记
+        int silentSamples;
+        AudioChunk chunk;
+        byte[] encoded;
+        boolean uploading;
+        // 对应的日志记录，未能记入日志时为 null
+        UploadJournal.Entry journalEntry;
+        boolean replay;
+
+        PendingUpload(AudioChunk chunk, AudioCodec codec, long storedLength, String fileName, Uri uri) {
+            this.sessionId = chunk.getSessionId();
+            this.direction = chunk.getDirection();
+            this.index = chunk.getIndex();
+            this.codec = codec;
+            this.storedLength = storedLength;
+            this.fileName = fileName;
+            this.uri = uri;
+            this.timestampMillis = chunk.getTimestampMillis();
+            this.durationMillis = chunk.getLength() / 2 * 1000L / VoipRecordService.SAMPLE_RATE;
+            this.baseUrl = null;
+        }
+
+        PendingUpload(UploadJournal.Entry entry) {
+            this.sessionId = entry.getSessionId();
+            this.direction = entry.getChannel();
+            this.index = entry.getIndex();
+            this.codec = entry.getCodec();
+            this.storedLength = entry.getLength();
+            this.fileName = entry.toString();
+            this.segmented = SegmentedSessionStore.isLocation(entry.getUri());
+            this.uri = entry.isSilence() || segmented ? null : Uri.parse(entry.getUri());
+            this.timestampMillis = entry.getCreatedMillis();
+            this.durationMillis = 0;
+            this.baseUrl = entry.getBaseUrl();
+            this.silentSamples = entry.getSilentSamples();
+            this.journalEntry = entry;
+            this.replay = true;
+        }
+
+        /**
+         * 是否已落盘，可以不依赖内存上传和补传
+         */
+        boolean isStored() {
+            return uri != null || segmented;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return direction + "#" + index + " (" + fileName + ")";
+        }
+    }
+
+    public UploadPipeline(Context context, String baseUrl, String username) {
+        this(context, baseUrl, username, AudioCodec.WAV);
+    }
+
+    public UploadPipeline(Context context, String baseUrl, String username, AudioCodec codec) {
+        this.context = context.getApplicationContext();
+        this.baseUrl = baseUrl;
+        this.username = username;
+        this.codec = codec;
+        this.flacEncoder = codec == AudioCodec.FLAC ? new FlacEncoder(VoipRecordService.SAMPLE_RATE) : null;
+        this.journal = UploadJournal.getInstance(context);
+        this.spool = SpoolQuotaManager.getInstance(context);
+        this.index = RecordIndex.getInstance(context);
+        this.segments = SegmentedSessionStore.getInstance(context);
+    }
+
+    /**
+     * 设置从日志补传的顺序，默认 {@link UploadJournal.ReplayOrder#OLDEST_FIRST}
+     */
+    public void setReplayOrder(UploadJournal.ReplayOrder replayOrder) {
+        this.replayOrder = replayOrder;
+    }
+
+    /**
+     * 之后落盘的分片写入 {@link SegmentedSessionStore} 的分段文件，而不是每个分片一个 MediaStore 文件
+     */
+    public void setSegmentedStorage(boolean segmentedStorage) {
+        this.segmentedStorage = segmentedStorage;
+    }
+
+    public AudioCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * 落盘循环运行在 {@link TaskScheduler.Stage#ENCODE}，上传循环运行在 {@link TaskScheduler.Stage#NETWORK}，
+     * 两者在 {@link #stop} 之后处理完剩余分片自行结束
+     */
+    public void start(TaskScheduler scheduler) {
+        registerGauges();
+        accepting = true;
+        scheduler.submit(TaskScheduler.Stage.ENCODE, this::persistLoop);
+        scheduler.submit(TaskScheduler.Stage.NETWORK, this::uploadLoop);
+    }
+
+    /**
+     * 不录音，只把日志中遗留的分片补传一遍（例如服务被系统杀死后以 START_STICKY 重启）。
+     * 补传失败或超过 {@link #DRAIN_TIMEOUT_MS} 后结束并回调 onDone，剩余分片留给下次录音时补传。
+     */
+    public void startReplayOnly(TaskScheduler scheduler, Runnable onDone) {
+        registerGauges();
+        this.onDrained = onDone;
+        this.drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        persistDone = true;
+        scheduler.submit(TaskScheduler.Stage.NETWORK, this::uploadLoop);
+    }
+
+    /**
+     * 由录音线程调用，非阻塞。调用后分片归流水线所有，无论是否被接收，都由流水线负责 release。
+     *
+     * @return 分片是否被接收；流水线已停止或落盘队列已满时返回 false
+     */
+    public boolean submit(AudioChunk chunk) {
+        if (!accepting) {
+            chunk.release();
+            return false;
+        }
+        submittedChunks.incrementAndGet();
+        if (!persistQueue.offer(chunk)) {
+            droppedChunks.incrementAndGet();
+            Log.e(TAG, "落盘队列已满，丢弃分片: " + chunk);
+            chunk.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 停止接收新分片，在后台把队列中剩余的分片处理完后回调 onDrained。
+     * 该方法不会阻塞调用线程（通常是主线程）。
+     */
+    public void stop(Runnable onDrained) {
+        this.onDrained = onDrained;
+        this.drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        accepting = false;
+    }
+
+    /**
+     * 队列长度等瞬时值绑定到当前流水线，新的流水线启动时覆盖
+     */
+    private void registerGauges() {
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.gauge("pipeline.persist_queue", persistQueue::size);
+        metrics.gauge("pipeline.upload_queue", uploadQueue::size);
+        metrics.gauge("pipeline.resident_uploads", residentUploads::get);
+        metrics.gauge("pipeline.dropped_chunks", droppedChunks::get);
+        metrics.gauge("pipeline.skipped_uploads", skippedUploads::get);
+        metrics.gauge("pipeline.failed_uploads", failedUploads::get);
+        metrics.gauge("pipeline.uploaded_chunks", uploadedChunks::get);
+        metrics.gauge("pipeline.replayed_uploads", replayedUploads::get);
+    }
+
+    public int getPersistBacklog() {
+        return persistQueue.size();
+    }
+
+    public int getUploadBacklog() {
+        return uploadQueue.size();
+    }
+
+    public long getSubmittedChunks() {
+        return submittedChunks.get();
+    }
+
+    public long getPersistedChunks() {
+        return persistedChunks.get();
+    }
+
+    public long getUploadedChunks() {
+        return uploadedChunks.get();
+    }
+
+    public long getFailedUploads() {
+        return failedUploads.get();
+    }
+
+    public long getDroppedChunks() {
+        return droppedChunks.get();
+    }
+
+    public long getSkippedUploads() {
+        return skippedUploads.get();
+    }
+
+    /**
+     * 因内存积压而改为从落盘文件上传的分片数
+     */
+    public long getSpilledUploads() {
+        return spilledUploads.get();
+    }
+
+    /**
+     * 从日志补传成功的分片数
+     */
+    public long getReplayedUploads() {
+        return replayedUploads.get();
+    }
+
+    /**
+     * 日志中尚未上传成功的分片数（包括当前队列中的）
+     */
+    public int getJournalPending() {
+        return journal.getPendingCount();
+    }
+
+    /**
+     * 以静音标记代替的分片数
+     */
+    public long getSilentChunks() {
+        return silentChunks.get();
+    }
+
+    private void persistLoop() {
+        try {
+            while (accepting || !persistQueue.isEmpty()) {
+                AudioChunk chunk = persistQueue.poll(200, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    continue;
+                }
+                PendingUpload pending = persist(chunk);
+                persistedChunks.incrementAndGet();
+                enqueueUpload(pending);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            persistDone = true;
+            Log.i(TAG, "persist thread finished.");
+        }
+    }
+
+    private PendingUpload persist(AudioChunk chunk) {
+        AudioCodec codec = this.codec;
+        int silentSamples = chunk.isSilent() ? chunk.getLength() / 2 : 0;
+        if (silentSamples > 0) {
+            silentChunks.incrementAndGet();
+        }
+        String fileName = ChunkFileName.format(chunk.getTimestampMillis(), chunk.getIndex(), chunk.getDirection(),
+                username, chunk.getSessionId(), codec.getExtension());
+        if (codec == AudioCodec.FLAC) {
+            long buildStart = System.nanoTime();
+            int encodedLength = flacEncoder.encode(chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
+            byte[] encoded = Arrays.copyOf(flacEncoder.getBuffer(), encodedLength);
+            CHUNK_BUILD_MS.recordSince(buildStart);
+            long writeStart = System.nanoTime();
+            boolean segmented = segmentedStorage && segments.append(chunk.getSessionId(), chunk.getDirection(),
+                    chunk.getIndex(), chunk.getTimestampMillis(), codec, encoded, 0, encodedLength);
+            Uri uri = segmented ? null : HistoryRecordUtil.saveFileToDownloads(context, fileName, encoded);
+            STORE_WRITE_MS.recordSince(writeStart);
+            PendingUpload pending = new PendingUpload(chunk, codec, encodedLength, fileName, uri);
+            pending.segmented = segmented;
+            pending.silentSamples = silentSamples;
+            pending.encoded = silentSamples > 0 ? null : encoded;
+            // 编码结果已独立保存，槽位可以立即归还给录音线程
+            chunk.release();
+            recordInJournal(pending);
+            recordInSpool(pending);
+            recordInIndex(pending);
+            return pending;
+        }
+        // WAV 头和 PCM 直接流式写入 MediaStore，不再拼接一份完整的 WAV 数组，构建耗时计入写入耗时；
+        // 分段文件只保存 PCM，WAV 头在上传或还原时再生成；写入分段文件失败时退回 MediaStore
+        long writeStart = System.nanoTime();
+        boolean segmented = segmentedStorage && segments.append(chunk.getSessionId(), chunk.getDirection(),
+                chunk.getIndex(), chunk.getTimestampMillis(), codec, chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
+        Uri uri = segmented ? null : HistoryRecordUtil.saveWavToDownloads(context, fileName, persistWavWriter,
+                chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
+        STORE_WRITE_MS.recordSince(writeStart);
+        PendingUpload pending = new PendingUpload(chunk, codec, WavStreamWriter.HEADER_SIZE + (long) chunk.getLength(), fileName, uri);
+        pending.segmented = segmented;
+        pending.silentSamples = silentSamples;
+        if (silentSamples > 0) {
+            // 只上传静音标记，不需要保留分片内存
+            chunk.release();
+        } else {
+            pending.chunk = chunk;
+            residentUploads.incrementAndGet();
+        }
+        recordInJournal(pending);
+        recordInSpool(pending);
+        recordInIndex(pending);
+        return pending;
+    }
+
+    /**
+     * 落盘成功的分片记入日志；落盘失败的分片只能从内存上传一次，无法补传。
+     * 静音分片记入静音标记，补传时也只上传标记
+     */
+    private void recordInJournal(PendingUpload pending) {
+        if (pending.silentSamples > 0) {
+            pending.journalEntry = journal.recordPending(pending.sessionId, pending.direction, pending.index,
+                    pending.codec, 0, baseUrl, UploadJournal.silenceLocation(pending.silentSamples));
+        } else if (pending.isStored()) {
+            String location = pending.segmented
+                    ? SegmentedSessionStore.location(pending.sessionId, pending.direction, pending.index)
+                    : pending.uri.toString();
+            pending.journalEntry = journal.recordPending(pending.sessionId, pending.direction, pending.index,
+                    pending.codec, pending.storedLength, baseUrl, location);
+        }
+    }
+
+    /**
+     * 落盘成功的分片计入缓存目录的配额
+     */
+    private void recordInSpool(PendingUpload pending) {
+        if (pending.uri != null) {
+            spool.recordWrite(pending.uri, pending.sessionId, pending.timestampMillis, pending.storedLength);
+        }
+    }
+
+    /**
+     * 落盘成功的分片记入历史记录索引，分段文件中的分片也一样
+     */
+    private void recordInIndex(PendingUpload pending) {
+        if (pending.uri != null) {
+            index.recordWrite(new RecordIndex.Entry(ContentUris.parseId(pending.uri), pending.fileName,
+                    pending.timestampMillis, pending.sessionId, username, pending.direction, pending.index,
+                    pending.storedLength, pending.durationMillis));
+        } else if (pending.segmented) {
+            index.recordWrite(new RecordIndex.Entry(pending.fileName, pending.timestampMillis, pending.sessionId,
+                    username, pending.direction, pending.index, pending.storedLength, pending.durationMillis));
+        }
+    }
+
+    private void enqueueUpload(PendingUpload pending) {
+        while (!uploadQueue.offer(pending)) {
+            // 上传积压已满：挤出最旧的上传，它已经保存在本地并记入日志，之后补传
+            PendingUpload oldest = uploadQueue.poll();
+            if (oldest != null) {
+                skippedUploads.incrementAndGet();
+                Log.w(TAG, "上传积压已满，推迟上传: " + oldest);
+                releaseChunk(oldest);
+                releaseJournalEntry(oldest);
+            }
+        }
+        if (residentUploads.get() > MEMORY_RESIDENT_UPLOADS) {
+            spillOldestResident();
+        }
+        int backlog = uploadQueue.size();
+        if (backlog >= BACKLOG_WARN_THRESHOLD) {
+            Log.w(TAG, "上传积压: " + backlog + " 个分片");
+        }
+    }
+
+    /**
+     * 把队列中最旧的、仍占用内存且已成功落盘的分片换出，归还其环形缓冲区槽位
+     */
+    private void spillOldestResident() {
+        for (PendingUpload pending : uploadQueue) {
+            synchronized (pending) {
+                if (pending.uploading || pending.chunk == null || !pending.isStored()) {
+                    continue;
+                }
+                releaseChunk(pending);
+            }
+            spilledUploads.incrementAndGet();
+            return;
+        }
+    }
+
+    private void releaseChunk(PendingUpload pending) {
+        synchronized (pending) {
+            pending.encoded = null;
+            if (pending.chunk != null) {
+                pending.chunk.release();
+                pending.chunk = null;
+                residentUploads.decrementAndGet();
+            }
+        }
+    }
+
+    private void releaseJournalEntry(PendingUpload pending) {
+        if (pending.journalEntry != null) {
+            journal.release(pending.journalEntry);
+        }
+    }
+
+    private void uploadLoop() {
+        try {
+            while (!persistDone || !uploadQueue.isEmpty() || canReplayWhileDraining()) {
+                PendingUpload pending = uploadQueue.poll(200, TimeUnit.MILLISECONDS);
+                if (pending == null) {
+                    pending = nextReplay();
+                    if (pending == null) {
+                        continue;
+                    }
+                }
+                if (!accepting && System.currentTimeMillis() > drainDeadline) {
+                    skippedUploads.incrementAndGet();
+                    Log.w(TAG, "停止后等待超时，推迟上传: " + pending);
+                    releaseChunk(pending);
+                    releaseJournalEntry(pending);
+                    continue;
+                }
+                boolean success = false;
+                try {
+                    success = upload(pending);
+                } finally {
+                    releaseChunk(pending);
+                    onUploadFinished(pending, success);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 刷新并关闭本次写入和补传时打开的分段文件，正在录音的会话由它自己的流水线继续写入
+            segments.closeInactive();
+            Log.i(TAG, "upload thread finished.");
+            Runnable callback = onDrained;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * 停止后在等待时间内继续补传，直到补传失败
+     */
+    private boolean canReplayWhileDraining() {
+        long now = System.currentTimeMillis();
+        return now < drainDeadline && now >= replayPausedUntil && journal.hasReplayable();
+    }
+
+    /**
+     * 实时队列空闲时从日志中取一个分片补传；处于退避期时返回 null
+     */
+    private PendingUpload nextReplay() {
+        if (System.currentTimeMillis() < replayPausedUntil) {
+            return null;
+        }
+        UploadJournal.Entry entry = journal.nextForReplay(replayOrder);
+        if (entry == null) {
+            return null;
+        }
+        PendingUpload pending = new PendingUpload(entry);
+        if (pending.segmented ? !segments.contains(entry.getUri()) : pending.uri != null && !exists(pending.uri)) {
+            // 本地文件已被清理，无法补传
+            journal.markAbandoned(entry);
+            return null;
+        }
+        Log.i(TAG, "补传分片: " + entry + ", 日志中剩余 " + journal.getPendingCount());
+        return pending;
+    }
+
+    private boolean exists(Uri uri) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            return in != null;
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private void onUploadFinished(PendingUpload pending, boolean success) {
+        if (success) {
+            if (pending.journalEntry != null) {
+                journal.markDone(pending.journalEntry);
+            }
+            if (pending.isStored()) {
+                index.markUploaded(pending.sessionId, pending.direction, pending.index);
+            }
+            if (pending.replay) {
+                replayedUploads.incrementAndGet();
+            }
+            // 网络已恢复，立即恢复补传
+            replayBackoffMs = REPLAY_BACKOFF_MIN_MS;
+            replayPausedUntil = 0;
+        } else {
+            releaseJournalEntry(pending);
+            replayPausedUntil = System.currentTimeMillis() + replayBackoffMs;
+            replayBackoffMs = Math.min(replayBackoffMs * 2, REPLAY_BACKOFF_MAX_MS);
+        }
+    }
+
+    /**
+     * @return 是否上传成功
+     */
+    private boolean upload(PendingUpload pending) {
+        // 补传其他会话的分片时发往该会话的服务器（例如内外网切换、服务重启后的默认地址）
+        String baseUrl = pending.baseUrl != null ? pending.baseUrl : this.baseUrl;
+        if (pending.silentSamples > 0) {
+            if (apiClient.uploadSilenceMarker(baseUrl, pending.sessionId, pending.direction, pending.index, pending.silentSamples)) {
+                uploadedChunks.incrementAndGet();
+                return true;
+            }
+            failedUploads.incrementAndGet();
+            Log.e(TAG, "静音标记上传失败: " + pending);
+            return false;
+        }
+        RequestBody body;
+        synchronized (pending) {
+            pending.uploading = true;
+            if (pending.chunk != null) {
+                AudioChunk chunk = pending.chunk;
+                body = new PcmWavRequestBody(uploadWavWriter, chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
+            } else if (pending.encoded != null) {
+                body = RequestBody.create(pending.encoded, pending.codec.getMediaType());
+            } else if (pending.uri != null) {
+                body = new ContentUriRequestBody(context.getContentResolver(), pending.uri, pending.codec.getMediaType(),
+                        pending.storedLength);
+            } else if (pending.segmented) {
+                byte[] stored = segments.read(pending.sessionId, pending.direction, pending.index);
+                if (stored == null) {
+                    Log.e(TAG, "无法读取分段文件中的分片: " + pending);
+                    failedUploads.incrementAndGet();
+                    return false;
+                }
+                body = pending.codec == AudioCodec.WAV
+                        ? new PcmWavRequestBody(uploadWavWriter, stored, 0, stored.length)
+                        : RequestBody.create(stored, pending.codec.getMediaType());
+            } else {
+                Log.e(TAG, "分片既不在内存中也没有落盘，无法上传: " + pending);
+                failedUploads.incrementAndGet();
+                return false;
+            }
+        }
+        if (apiClient.uploadAudioChunk(baseUrl, pending.sessionId, pending.direction, pending.index, body, pending.codec)) {
+            uploadedChunks.incrementAndGet();
+            Log.i(TAG, "Sent " + pending.direction + " chunk: " + pending.fileName + ", backlog=" + uploadQueue.size());
+            return true;
+        }
+        failedUploads.incrementAndGet();
+        Log.e(TAG, "上传失败: " + pending);
+        return false;
+    }
+}
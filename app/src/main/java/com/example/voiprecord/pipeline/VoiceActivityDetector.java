@@ -0,0 +1,150 @@
+package com.example.voiprecord.pipeline;
+
+/**
+ * 基于短时能量和过零率的语音活动检测（VAD），用于判断一个录音分片是否整段静音。
+ * <p>
+ * 录音线程每次 {@code AudioRecord.read} 之后把新数据交给 {@link #process(byte[], int, int)}，
+ * 检测器按 20ms 一帧累计，帧可以跨越两次 read；分片结束时用 {@link #isSilent()} 取结果，
+ * 再 {@link #reset()} 开始下一个分片。所有状态都是基本类型字段，整个过程不分配内存。
+ * <p>
+ * 判定规则：
+ * <ul>
+ *     <li>帧能量（均方根）高于 max(绝对门限, 噪声底 × {@link #NOISE_FLOOR_RATIO}) 才可能是语音；</li>
+ *     <li>能量只是略高于门限、但过零率很高的帧视为嘶声/噪声；</li>
+ *     <li>一个分片内语音帧少于 {@link #MIN_VOICED_FRAMES} 个时整段视为静音。</li>
+ * </ul>
+ * 噪声底跨分片持续跟踪：遇到更安静的帧立即下降；只在非语音帧上缓慢上升（不超过该帧能量和
+ * {@link #MAX_NOISE_FLOOR_RMS}），以适应不同设备和环境的底噪。语音帧不参与上升，
+ * 持续的说话或音乐不会把噪声底抬到自身的水平而被误判为静音。
+ * 每个声道（录音线程）持有一个实例，不是线程安全的。
+ */
+public class VoiceActivityDetector {
+
+    // 帧长 20ms
+    private static final int FRAME_MS = 20;
+    // 绝对能量门限（16 位 PCM 的 RMS），约 -47 dBFS
+    private static final double MIN_SPEECH_RMS = 150;
+    // 语音帧能量至少是噪声底的倍数
+    private static final double NOISE_FLOOR_RATIO = 3.0;
+    // 噪声底在非语音帧上每帧的上升系数（约 1.4 秒翻倍）
+    private static final double NOISE_FLOOR_RISE = 1.01;
+    // 噪声底的上限（约 -30 dBFS），更响的持续声音总是可能被判为语音
+    private static final double MAX_NOISE_FLOOR_RMS = 1000;
+    // 能量低于 门限 × 该倍数 且过零率高于 MAX_NOISY_ZCR 的帧视为噪声
+    private static final double WEAK_FRAME_RATIO = 2.0;
+    private static final double MAX_NOISY_ZCR = 0.35;
+    // 一个分片至少包含这么多语音帧（60ms）才算有声
+    public static final int MIN_VOICED_FRAMES = 3;
+
+    private final int frameSamples;
+
+    private double noiseFloorRms = MIN_SPEECH_RMS;
+
+    // 当前帧（可能跨越多次 read）的累计量
+    private long frameSumSquares;
+    private int frameZeroCrossings;
+    private int frameSampleCount;
+    private int lastSample;
+
+    // 当前分片的统计
+    private int voicedFrames;
+    private int totalFrames;
+    private int samples;
+    // 一次 read 可能以奇数字节结束，保存未配对的低字节
+    private int pendingLowByte = -1;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this.frameSamples = sampleRate * FRAME_MS / 1000;
+    }
+
+    /**
+     * 累计一段 16 位小端 PCM
+     */
+    public void process(byte[] pcm, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        if (pendingLowByte >= 0 && i < end) {
+            processSample((pcm[i++] << 8) | pendingLowByte);
+            pendingLowByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            processSample((pcm[i + 1] << 8) | (pcm[i] & 0xFF));
+        }
+        if (i < end) {
+            pendingLowByte = pcm[i] & 0xFF;
+        }
+    }
+
+    private void processSample(int sample) {
+        frameSumSquares += (long) sample * sample;
+        if ((sample ^ lastSample) < 0) {
+            frameZeroCrossings++;
+        }
+        lastSample = sample;
+        samples++;
+        if (++frameSampleCount == frameSamples) {
+            finishFrame();
+        }
+    }
+
+    private void finishFrame() {
+        double rms = Math.sqrt((double) frameSumSquares / frameSampleCount);
+        double zcr = (double) frameZeroCrossings / frameSampleCount;
+        double threshold = Math.max(MIN_SPEECH_RMS, noiseFloorRms * NOISE_FLOOR_RATIO);
+
+        boolean voiced = rms > threshold && !(rms < threshold * WEAK_FRAME_RATIO && zcr > MAX_NOISY_ZCR);
+        if (voiced) {
+            voicedFrames++;
+        }
+        totalFrames++;
+
+        // 静音分片只上传标记，误判为静音的代价更大：语音帧不抬高噪声底，宁可把底噪突然变大的分片当成有声
+        if (rms < noiseFloorRms) {
+            noiseFloorRms = Math.max(rms, 1.0);
+        } else if (!voiced) {
+            noiseFloorRms = Math.min(Math.min(noiseFloorRms * NOISE_FLOOR_RISE, rms), MAX_NOISE_FLOOR_RMS);
+        }
+
+        frameSumSquares = 0;
+        frameZeroCrossings = 0;
+        frameSampleCount = 0;
+    }
+
+    /**
+     * 当前分片是否整段静音。不足一帧的尾部数据按一帧计算。
+     */
+    public boolean isSilent() {
+        if (frameSampleCount > 0) {
+            finishFrame();
+        }
+        return samples > 0 && voicedFrames < MIN_VOICED_FRAMES;
+    }
+
+    /**
+     * 当前分片累计的采样数
+     */
+    public int getSampleCount() {
+        return samples;
+    }
+
+    public int getVoicedFrames() {
+        return voicedFrames;
+    }
+
+    public int getTotalFrames() {
+        return totalFrames;
+    }
+
+    /**
+     * 开始新的分片；噪声底保留
+     */
+    public void reset() {
+        frameSumSquares = 0;
+        frameZeroCrossings = 0;
+        frameSampleCount = 0;
+        voicedFrames = 0;
+        totalFrames = 0;
+        samples = 0;
+        pendingLowByte = -1;
+    }
+}
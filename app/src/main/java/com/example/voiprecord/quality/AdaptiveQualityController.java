@@ -0,0 +1,213 @@
+package com.example.voiprecord.quality;
+
+import android.util.Log;
+
+import com.example.voiprecord.metrics.MetricsRegistry;
+import com.example.voiprecord.rpc.UploadMeter;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据实测的上传吞吐量、延迟和积压，周期性地调整截图分辨率、JPEG 质量和截图间隔，
+ * 让上传积压保持在接近 0 的水平。
+ * <p>
+ * 质量分为 0 ~ {@link #MAX_LEVEL} 档，0 为最高质量。每个控制周期检查一次：积压超过阈值、链路占用率过高
+ * 或出现上传失败时立即降一档（积压严重时降两档）；连续 {@link #UPGRADE_AFTER_TICKS} 个周期空闲才升一档，
+ * 避免在两档之间来回抖动。各档的参数在 {@link Bounds} 给定的上下限之间插值：先降 JPEG 质量，
+ * 再拉长截图间隔，最后才降低分辨率（需要重建虚拟屏幕）。
+ * 音频编码格式由会话协商决定，不在这里调整：服务端没有要求 FLAC 时不能擅自改用 FLAC。
+ * 当前档位和升降次数记入 {@link MetricsRegistry}（{@code quality.*}）。
+ */
+public class AdaptiveQualityController {
+    private static final String TAG = "AdaptiveQuality";
+
+    public static final int MAX_LEVEL = 8;
+    public static final long CONTROL_INTERVAL_MS = 5_000;
+    // 上传积压超过该分片数时降级，超过两倍时一次降两档
+    private static final int BACKLOG_HIGH = 1;
+    // 控制周期内上传请求占用的时间比例
+    private static final double UTILIZATION_HIGH = 0.8;
+    private static final double UTILIZATION_LOW = 0.4;
+    private static final int UPGRADE_AFTER_TICKS = 3;
+
+    /**
+     * 被控制的一方，通常是录音服务
+     */
+    public interface Target {
+        /**
+         * 等待上传的分片数
+         */
+        int getUploadBacklog();
+
+        /**
+         * 应用新的质量参数，在控制线程上调用
+         */
+        void applyQuality(QualitySettings settings);
+    }
+
+    /**
+     * 各项参数的上下限，对应本地设置 "quality_*"
+     */
+    public static final class Bounds {
+        final int minJpegQuality;
+        final int maxJpegQuality;
+        final float minScale;
+        final float maxScale;
+        final long minIntervalMs;
+        final long maxIntervalMs;
+
+        public Bounds(int minJpegQuality, int maxJpegQuality, float minScale, float maxScale,
+                      long minIntervalMs, long maxIntervalMs) {
+            this.minJpegQuality = Math.min(minJpegQuality, maxJpegQuality);
+            this.maxJpegQuality = maxJpegQuality;
+            this.minScale = Math.min(minScale, maxScale);
+            this.maxScale = maxScale;
+            this.minIntervalMs = minIntervalMs;
+            this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        }
+    }
+
+    private final Target target;
+    private final UploadMeter meter;
+    private final Bounds bounds;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+    private volatile boolean running;
+
+    private volatile int level;
+    private int calmTicks;
+    private long lastBusyMillis;
+    private long lastFailures;
+    private volatile long downgrades;
+    private volatile long upgrades;
+
+    /**
+     * @param executor 执行周期检查的执行器（通常是 TaskScheduler 的后台维护执行器），停止时只取消自己的任务
+     */
+    public AdaptiveQualityController(ScheduledExecutorService executor, Target target, UploadMeter meter, Bounds bounds) {
+        this.executor = executor;
+        this.target = target;
+        this.meter = meter;
+        this.bounds = bounds;
+    }
+
+    /**
+     * 按最高质量应用一次参数，然后开始周期性检查
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        level = 0;
+        calmTicks = 0;
+        lastBusyMillis = meter.getBusyMillis();
+        lastFailures = meter.getFailures();
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.gauge("quality.level", () -> level);
+        metrics.gauge("quality.downgrades", () -> downgrades);
+        metrics.gauge("quality.upgrades", () -> upgrades);
+        target.applyQuality(settingsFor(0));
+        task = executor.scheduleWithFixedDelay(this::runTick,
+                CONTROL_INTERVAL_MS, CONTROL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消周期检查；正在执行的一次检查会继续完成
+     */
+    public synchronized void stop() {
+        running = false;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        Log.i(TAG, "Finished at level " + level + ", downgrades=" + downgrades + ", upgrades=" + upgrades);
+    }
+
+    private void runTick() {
+        if (!running) {
+            return;
+        }
+        try {
+            tick(CONTROL_INTERVAL_MS);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Quality control tick failed", e);
+        }
+    }
+
+    /**
+     * 检查一个控制周期内的上传情况，必要时调整档位
+     *
+     * @param elapsedMillis 距离上次检查的时间
+     */
+    void tick(long elapsedMillis) {
+        int backlog = target.getUploadBacklog();
+        long busy = meter.getBusyMillis();
+        long failures = meter.getFailures();
+        double utilization = (busy - lastBusyMillis) / (double) Math.max(1, elapsedMillis);
+        long newFailures = failures - lastFailures;
+        lastBusyMillis = busy;
+        lastFailures = failures;
+
+        int next = level;
+        if (backlog > BACKLOG_HIGH || utilization > UTILIZATION_HIGH || newFailures > 0) {
+            calmTicks = 0;
+            next = Math.min(MAX_LEVEL, level + (backlog > 2 * BACKLOG_HIGH ? 2 : 1));
+        } else if (backlog == 0 && utilization < UTILIZATION_LOW) {
+            if (++calmTicks >= UPGRADE_AFTER_TICKS && level > 0) {
+                calmTicks = 0;
+                next = level - 1;
+            }
+        } else {
+            calmTicks = 0;
+        }
+
+        String metrics = "backlog=" + backlog
+                + ", utilization=" + Math.round(utilization * 100) + "%"
+                + ", throughput=" + Math.round(meter.getThroughputBytesPerSecond() / 1024) + "KB/s"
+                + ", latency=" + Math.round(meter.getLatencyMillis()) + "ms"
+                + ", failures=" + newFailures;
+        if (next == level) {
+            Log.d(TAG, "Level " + level + " kept, " + metrics);
+            return;
+        }
+        if (next > level) {
+            downgrades++;
+        } else {
+            upgrades++;
+        }
+        QualitySettings settings = settingsFor(next);
+        Log.i(TAG, "Level " + level + " -> " + next + ", " + metrics + "; apply " + settings);
+        level = next;
+        target.applyQuality(settings);
+    }
+
+    /**
+     * 计算某一档的参数：前半程降 JPEG 质量、拉长间隔，后半程再降低分辨率
+     */
+    public QualitySettings settingsFor(int level) {
+        float f = Math.max(0, Math.min(MAX_LEVEL, level)) / (float) MAX_LEVEL;
+        int quality = Math.round(lerp(bounds.maxJpegQuality, bounds.minJpegQuality, Math.min(1f, 2 * f)));
+        long interval = Math.round(lerp(bounds.minIntervalMs, bounds.maxIntervalMs, f));
+        float scale = f <= 0.5f ? bounds.maxScale : lerp(bounds.maxScale, bounds.minScale, (f - 0.5f) * 2);
+        return new QualitySettings(level, quality, scale, interval);
+    }
+
+    private static float lerp(float from, float to, float t) {
+        return from + (to - from) * t;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getDowngrades() {
+        return downgrades;
+    }
+
+    public long getUpgrades() {
+        return upgrades;
+    }
+}
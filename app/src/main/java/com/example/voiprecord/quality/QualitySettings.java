@@ -0,0 +1,48 @@
+package com.example.voiprecord.quality;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 某一档上传质量对应的截图参数，不可变
+ */
+public final class QualitySettings {
+    private final int level;
+    private final int jpegQuality;
+    private final float screenshotScale;
+    private final long screenshotIntervalMs;
+
+    public QualitySettings(int level, int jpegQuality, float screenshotScale, long screenshotIntervalMs) {
+        this.level = level;
+        this.jpegQuality = jpegQuality;
+        this.screenshotScale = screenshotScale;
+        this.screenshotIntervalMs = screenshotIntervalMs;
+    }
+
+    /**
+     * 降级档位，0 为最高质量
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public float getScreenshotScale() {
+        return screenshotScale;
+    }
+
+    public long getScreenshotIntervalMs() {
+        return screenshotIntervalMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "level=" + level
+                + ", jpeg=" + jpegQuality
+                + ", scale=" + screenshotScale
+                + ", interval=" + screenshotIntervalMs + "ms";
+    }
+}
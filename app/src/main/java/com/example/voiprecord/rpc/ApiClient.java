@@ -8,7 +8,6 @@ import okhttp3.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.FormBody;
 import okhttp3.OkHttpClient;
@@ -16,20 +15,15 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
-import com.example.voiprecord.MainActivity;
+import com.example.voiprecord.codec.AudioCodec;
 import com.example.voiprecord.vo.CloseSessionVO;
 import com.example.voiprecord.vo.UserSessionVO;
 import com.google.gson.Gson;
 
 public class ApiClient {
 
-    // 推荐做法：全局共享一个 OkHttpClient 实例
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS) // 连接超时
-            .readTimeout(30, TimeUnit.SECONDS)    // 读取超时
-            .writeTimeout(30, TimeUnit.SECONDS)   // 写入超时
-            .addInterceptor(new RetryInterceptor(MainActivity.MAXRETRIY)) // 添加拦截器，设置重试次数
-            .build();
+    // 全局共享的 OkHttpClient，所有 ApiClient 共用连接池（见 HttpClients）
+    private final OkHttpClient client = HttpClients.upload();
 
 
     /**
@@ -37,11 +31,8 @@ public class ApiClient {
      */
     public UserSessionVO createNewCallSession(String baseUrl, String username) {
 
-        OkHttpClient createClient = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS) // 连接超时
-                .readTimeout(10, TimeUnit.SECONDS)    // 读取超时
-                .writeTimeout(10, TimeUnit.SECONDS)   // 写入超时
-                .build();
+        // 10 秒超时、不重试，与上传请求共用连接池
+        OkHttpClient createClient = HttpClients.control();
 
         // 2. 使用 FormBody.Builder 构建请求体
         // 这会自动处理 URL 编码和设置 Content-Type 为 application/x-www-form-urlencoded
@@ -82,36 +73,88 @@ public class ApiClient {
      * @param channelName 声道名, 例如 "ch0", "ch1"
      * @param chunkIndex  分块序号, 从 0 开始
      * @param audioFile   要上传的本地音频文件 (File对象)
+     * @return 是否上传成功
      */
-    public void uploadAudioChunk(String baseUrl, String sessionId, String channelName, int chunkIndex, File audioFile){
-
-
-        // 1. 遵循API要求，生成文件名
-        String apiFilename = String.format("%s_%d.wav", channelName, chunkIndex);
+    public boolean uploadAudioChunk(String baseUrl, String sessionId, String channelName, int chunkIndex, File audioFile){
 
         System.out.printf("准备上传: %s, 声道: %s, 序号: %d\n", audioFile.getAbsolutePath(), channelName, chunkIndex);
 
-        // 2. 验证文件是否存在且可读
+        // 验证文件是否存在且可读
         if (!audioFile.exists() || !audioFile.canRead()) {
             Log.e(TAG, String.format("文件不存在或不可读: %s", audioFile.getAbsolutePath()));
+            return false;
         }
 
-        // 3. 构建 multipart/form-data 请求体
+        return uploadAudioChunk(baseUrl, sessionId, channelName, chunkIndex,
+                RequestBody.create(audioFile, MediaType.parse("audio/wav")));
+    }
+
+    /**
+     * 上传单个音频分片，内容由调用方提供的请求体写出（例如直接从内存写出的 {@link PcmWavRequestBody}）
+     *
+     * @param baseUrl    API的基础URL
+     * @param sessionId  通话的 session_id
+     * @param channelName 声道名, 例如 "ch0", "ch1"
+     * @param chunkIndex  分块序号, 从 0 开始
+     * @param audioBody   分片内容，contentLength 应当已知
+     * @return 是否上传成功
+     */
+    public boolean uploadAudioChunk(String baseUrl, String sessionId, String channelName, int chunkIndex, RequestBody audioBody){
+        return uploadAudioChunk(baseUrl, sessionId, channelName, chunkIndex, audioBody, AudioCodec.WAV);
+    }
+
+    /**
+     * 上传单个音频分片，文件名扩展名与 Content-Type 由 codec 决定（例如 ch0_3.flac / audio/flac），
+     * 服务端据此选择解码方式
+     *
+     * @param codec 分片的编码格式，audioBody 的内容必须与之一致
+     * @return 是否上传成功
+     */
+    public boolean uploadAudioChunk(String baseUrl, String sessionId, String channelName, int chunkIndex,
+                                    RequestBody audioBody, AudioCodec codec){
+
+        // 1. 遵循API要求，生成文件名
+        String apiFilename = String.format("%s_%d.%s", channelName, chunkIndex, codec.getExtension());
+
+        // 2. 构建 multipart/form-data 请求体
         // Content-Type: multipart/form-data
         RequestBody requestBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart(
                         "audio", // 这是API要求的表单字段名
                         apiFilename,     // 这是API要求的文件名
-                        RequestBody.create(audioFile, MediaType.parse("audio/wav"))
+                        audioBody
                 )
                 .build();
+        return postAudio(baseUrl, sessionId, requestBody);
+    }
+
+    /**
+     * 上传静音标记代替整段静音的音频分片：仍占用一个分片序号，服务端按 samples 补齐静音。
+     * <p>
+     * 表单字段 silent=1、samples=采样数，audio 部分为空内容、文件名为 chN_i.silence，
+     * 不认识该标记的服务端仍能从文件名解析出声道和序号。
+     *
+     * @param samples 静音的采样数
+     * @return 是否上传成功
+     */
+    public boolean uploadSilenceMarker(String baseUrl, String sessionId, String channelName, int chunkIndex, int samples){
+        String apiFilename = String.format("%s_%d.silence", channelName, chunkIndex);
+        RequestBody requestBody = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("silent", "1")
+                .addFormDataPart("samples", String.valueOf(samples))
+                .addFormDataPart("audio", apiFilename, RequestBody.create(new byte[0], MediaType.parse("application/octet-stream")))
+                .build();
+        return postAudio(baseUrl, sessionId, requestBody);
+    }
 
-        // 4. 构建完整的请求URL
+    private boolean postAudio(String baseUrl, String sessionId, RequestBody requestBody) {
+        // 3. 构建完整的请求URL
         // POST /api/v1/call/{session_id}/audio
         String url = String.format("%s/api/v1/call/%s/audio", baseUrl, sessionId);
 
-        // 5. 创建Request对象
+        // 4. 创建Request对象
         Request request = new Request.Builder()
                 .url(url)
                 .post(requestBody)
@@ -119,16 +162,22 @@ public class ApiClient {
                 // .addHeader("Authorization", "Bearer your_token_here")
                 .build();
 
-        // 6. 发送请求并处理响应
+        // 5. 发送请求并处理响应
         // 使用 try-with-resources 确保 Response 对象被正确关闭
         try (Response response = client.newCall(request).execute()) {
             // 获取响应体，同样需要处理关闭
             ResponseBody responseBody = response.body();
-            String responseBodyString = (responseBody != null) ? responseBody.string() : "Response body is null";
-
-
+            if (responseBody != null) {
+                responseBody.string();
+            }
+            if (!response.isSuccessful()) {
+                Log.e(TAG, "上传音频分片失败: " + response.code() + " " + response.message());
+                return false;
+            }
+            return true;
         } catch (IOException e) {
             Log.e(TAG, "上传音频分片失败: " + e.getMessage());
+            return false;
         }
     }
 
@@ -139,14 +188,28 @@ public class ApiClient {
      * @param sessionId 会话 ID
      * @param bytes     要上传的图片文件的字节数组
      * @param filename  要上传的文件名 (例如 "screenshot.png")，用于服务器保存和判断MIME类型
+     * @return 是否上传成功
+     */
+    public boolean uploadScreenshot(String baseUrl, String sessionId, byte[] bytes, String filename){
+        return uploadScreenshot(baseUrl, sessionId, bytes, bytes.length, filename);
+    }
+
+    /**
+     * 上传截图图片到服务器，只上传 bytes 的 [0, length) 部分，便于复用截图编码缓冲区。
+     * 请求是同步发送的，方法返回后 bytes 即可被覆盖。
+     * 文件名以 .vtd 结尾时表示分块增量帧（格式见 {@link com.example.voiprecord.capture.TileDeltaFormat}）。
+     *
+     * @return 是否上传成功
      */
-    public void uploadScreenshot(String baseUrl, String sessionId, byte[] bytes, String filename){
+    public boolean uploadScreenshot(String baseUrl, String sessionId, byte[] bytes, int length, String filename){
         // 1. 根据传入的文件名确定 MIME 类型
         MediaType mediaType = MediaType.parse("application/octet-stream"); // 默认的二进制类型
         if (filename.toLowerCase().endsWith(".png")) {
             mediaType = MediaType.parse("image/png");
         } else if (filename.toLowerCase().endsWith(".jpg") || filename.toLowerCase().endsWith(".jpeg")) {
             mediaType = MediaType.parse("image/jpeg");
+        } else if (filename.toLowerCase().endsWith(".vtd")) {
+            mediaType = MediaType.parse("application/x-voip-tile-delta");
         }
 
         // 2. 构建请求体 (Request Body)
@@ -156,7 +219,7 @@ public class ApiClient {
                 .addFormDataPart(
                         "image", // 这是 API 定义的参数名 (key)
                         filename, // 文件名
-                        RequestBody.create(bytes, mediaType) // 使用字节数组创建文件内容
+                        RequestBody.create(bytes, mediaType, 0, length) // 使用字节数组创建文件内容
                 )
                 .build();
 
@@ -178,13 +241,16 @@ public class ApiClient {
                 // 打印更详细的错误信息
                 String errorBody = response.body() != null ? response.body().string() : "无响应体";
                 Log.e(TAG, "上传截图失败: " + response.code() + " " + response.message() + " " + errorBody);
+                return false;
             }
 
             // 获取响应体并返回
             // 注意：response.body().string() 只能调用一次
             Log.d(TAG, "上传截图成功: " + response.body().string());
+            return true;
         } catch (IOException e) {
             Log.e(TAG, "上传截图失败: " + e.getMessage());
+            return false;
         }
     }
 
@@ -198,12 +264,29 @@ public class ApiClient {
      * @param username 使用人姓名
      */
     public void postHealthStatusSync(String baseUrl, String version, String username) {
+        postHealthStatusSync(baseUrl, version, username, null, null);
+    }
+
+    /**
+     * 上报客户端健康状态，附带会话 ID 和统计信息（见 {@link HealthHeartbeat}）
+     *
+     * @param sessionId 当前会话 ID，可以为 null
+     * @param stats     精简的统计 JSON，可以为 null
+     * @return 是否上报成功
+     */
+    public boolean postHealthStatusSync(String baseUrl, String version, String username, String sessionId, String stats) {
         // 2. 构建请求体 (Request Body)
         // Content-Type 是 application/x-www-form-urlencoded，所以使用 FormBody.
-        RequestBody formBody = new FormBody.Builder()
+        FormBody.Builder form = new FormBody.Builder()
                 .add("version", version)
-                .add("username", username)
-                .build();
+                .add("username", username);
+        if (sessionId != null) {
+            form.add("session_id", sessionId);
+        }
+        if (stats != null) {
+            form.add("stats", stats);
+        }
+        RequestBody formBody = form.build();
 
         String apiUrl = baseUrl + "/api/v1/client/health";
         // 3. 创建一个 Request 对象
@@ -225,8 +308,10 @@ public class ApiClient {
             if (responseBody != null) {
                 responseBody.string();
             }
+            return true;
         } catch (IOException e) {
             Log.e(TAG, "上报客户端健康状态失败: " + e.getMessage());
+            return false;
         }
     }
 
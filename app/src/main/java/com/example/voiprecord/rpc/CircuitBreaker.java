@@ -0,0 +1,104 @@
+package com.example.voiprecord.rpc;
+
+import android.util.Log;
+
+/**
+ * 单个服务器（host:port）的熔断器。
+ * <p>
+ * 连续失败达到 {@link #failureThreshold} 次后进入 OPEN 状态，在 openMillis 内所有请求直接失败，不再访问网络；
+ * 到期后进入 HALF_OPEN，只放行一个探测请求：成功则恢复 CLOSED，失败则重新 OPEN 并把等待时间翻倍（有上限）。
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long minOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long minOpenMillis, long maxOpenMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.minOpenMillis = minOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.openMillis = minOpenMillis;
+    }
+
+    /**
+     * 请求发出前调用
+     *
+     * @return 是否允许本次请求
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                Log.i(TAG, name + " half-open, probing");
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            Log.i(TAG, name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMillis = minOpenMillis;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        probeInFlight = false;
+        if (state == State.HALF_OPEN) {
+            openMillis = Math.min(openMillis * 2, maxOpenMillis);
+            open();
+            return;
+        }
+        if (++consecutiveFailures >= failureThreshold && state == State.CLOSED) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        Log.w(TAG, name + " open for " + openMillis + "ms after " + consecutiveFailures + " failures");
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * OPEN 状态剩余的毫秒数
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+}
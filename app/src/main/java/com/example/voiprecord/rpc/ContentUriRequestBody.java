@@ -0,0 +1,61 @@
+package com.example.voiprecord.rpc;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 从 MediaStore/ContentResolver 的 Uri 流式读取上传内容的请求体。
+ * <p>
+ * 仅用于内存中已经没有数据的分片（例如上传积压时被换出的分片），文件通过写入时拿到的 Uri 打开，
+ * 而不是拼接出来的文件路径，因此不受 MediaStore 重命名的影响。
+ */
+public class ContentUriRequestBody extends RequestBody {
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final MediaType mediaType;
+    private final long contentLength;
+
+    /**
+     * @param contentLength 文件的字节数，未知时传 -1
+     */
+    public ContentUriRequestBody(ContentResolver resolver, Uri uri, MediaType mediaType, long contentLength) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.mediaType = mediaType;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        InputStream inputStream = resolver.openInputStream(uri);
+        if (inputStream == null) {
+            throw new FileNotFoundException("无法打开: " + uri);
+        }
+        try (Source source = Okio.source(inputStream)) {
+            sink.writeAll(source);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.voiprecord.rpc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.voiprecord.metrics.Counter;
+import com.example.voiprecord.metrics.MetricsRegistry;
+import com.example.voiprecord.metrics.MetricsSnapshot;
+import com.google.gson.Gson;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录音期间按固定频率向 {@code /api/v1/client/health} 上报心跳，附带一份精简的采集/上传统计。
+ * <p>
+ * 第 n 次心跳安排在 {@code 开始时间 + n * 间隔 + 抖动}，抖动在 ±jitter 内随机，不会累积漂移；
+ * 多台设备同时开始录音时也不会在同一时刻集中请求。
+ * <p>
+ * 两次心跳之间有音频分片或截图上传成功，说明设备在线、链路正常，本次心跳跳过；
+ * 但最多连续跳过 {@link #MAX_SUPPRESSED} 次，服务端仍能定期收到统计。上传出问题的设备每次都会上报，
+ * 服务端可以据此在数据丢失之前发现积压、丢弃和延迟异常。
+ * <p>
+ * 心跳运行在调用方提供的执行器上（通常是 TaskScheduler 的网络执行器），停止时只取消自己的任务。
+ */
+public class HealthHeartbeat {
+    private static final String TAG = "HealthHeartbeat";
+
+    private static final int MAX_SUPPRESSED = 4;
+
+    private final ApiClient apiClient = new ApiClient();
+    private final Random random = new Random();
+    private final String baseUrl;
+    private final String sessionId;
+    private final String username;
+    private final String version;
+    private final long intervalMs;
+    private final long jitterMs;
+
+    private final Counter sentCounter = MetricsRegistry.get().counter("heartbeat.sent");
+    private final Counter suppressedCounter = MetricsRegistry.get().counter("heartbeat.suppressed");
+    private final Counter failedCounter = MetricsRegistry.get().counter("heartbeat.failures");
+
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> pending;
+    private boolean running;
+    // 以下字段只在执行心跳的线程上访问
+    private long startedAt;
+    private long beats;
+    private long lastLiveness = -1;
+    private int suppressed;
+
+    /**
+     * @param jitterMs 抖动范围，超过间隔的一半时按一半处理
+     */
+    public HealthHeartbeat(ScheduledExecutorService executor, String baseUrl, String sessionId, String username,
+                           String version, long intervalMs, long jitterMs) {
+        this.executor = executor;
+        this.baseUrl = baseUrl;
+        this.sessionId = sessionId;
+        this.username = username;
+        this.version = version;
+        this.intervalMs = Math.max(1000, intervalMs);
+        this.jitterMs = Math.max(0, Math.min(jitterMs, this.intervalMs / 2));
+    }
+
+    /**
+     * 立即发送第一次心跳，之后按固定频率发送
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startedAt = SystemClock.elapsedRealtime();
+        pending = executor.schedule(this::beat, 0, TimeUnit.MILLISECONDS);
+        Log.i(TAG, "Heartbeat every " + intervalMs + "ms ±" + jitterMs + "ms, version " + version);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void beat() {
+        try {
+            MetricsSnapshot snapshot = MetricsRegistry.get().snapshot();
+            long liveness = liveness(snapshot);
+            if (liveness > lastLiveness && lastLiveness >= 0 && suppressed < MAX_SUPPRESSED) {
+                suppressed++;
+                suppressedCounter.inc();
+            } else {
+                suppressed = 0;
+                String stats = buildStats(snapshot, HttpClients.meter());
+                if (apiClient.postHealthStatusSync(baseUrl, version, username, sessionId, stats)) {
+                    sentCounter.inc();
+                } else {
+                    failedCounter.inc();
+                }
+            }
+            lastLiveness = liveness;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Heartbeat failed", e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if (!running || executor.isShutdown()) {
+            return;
+        }
+        beats++;
+        long jitter = jitterMs > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterMs) : 0;
+        long delay = startedAt + beats * intervalMs + jitter - SystemClock.elapsedRealtime();
+        pending = executor.schedule(this::beat, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 成功上传的音频分片和截图总数，两次心跳之间增加说明数据上传本身已经证明设备在线
+     */
+    private static long liveness(MetricsSnapshot snapshot) {
+        return snapshot.getGauge("pipeline.uploaded_chunks")
+                + snapshot.getGauge("pipeline.replayed_uploads")
+                + snapshot.getCounter("screenshot.uploaded");
+    }
+
+    /**
+     * 精简的统计 JSON：积压、发送量、丢弃数和最近一次上传延迟
+     */
+    static String buildStats(MetricsSnapshot snapshot, UploadMeter meter) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("persist_backlog", snapshot.getGauge("pipeline.persist_queue"));
+        stats.put("upload_backlog", snapshot.getGauge("pipeline.upload_queue"));
+        stats.put("uploaded", snapshot.getGauge("pipeline.uploaded_chunks"));
+        stats.put("failed", snapshot.getGauge("pipeline.failed_uploads"));
+        stats.put("dropped", snapshot.getGauge("pipeline.dropped_chunks"));
+        stats.put("deferred", snapshot.getGauge("pipeline.skipped_uploads"));
+        stats.put("stream_dropped_bytes", snapshot.getGauge("stream.uplink.dropped_bytes")
+                + snapshot.getGauge("stream.downlink.dropped_bytes"));
+        stats.put("screenshots", snapshot.getCounter("screenshot.uploaded"));
+        stats.put("bytes_sent", meter.getBytesSent());
+        stats.put("last_latency_ms", meter.getLastLatencyMillis());
+        stats.put("throughput_kbps", Math.max(0, Math.round(meter.getThroughputBytesPerSecond() * 8 / 1000)));
+        stats.put("quality_level", snapshot.getGauge("quality.level"));
+        return new Gson().toJson(stats);
+    }
+}
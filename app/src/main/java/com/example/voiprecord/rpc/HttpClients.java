@@ -0,0 +1,272 @@
+package com.example.voiprecord.rpc;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.voiprecord.MainActivity;
+import com.example.voiprecord.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * 进程内共享的 OkHttpClient。
+ * <p>
+ * 所有 {@link ApiClient} 共用同一个连接池和调度器，音频、截图、心跳等请求都复用已经建立好的 keep-alive 连接，
+ * 不再为每个 ApiClient 各自建连。不同用途的 client 通过 {@code newBuilder()} 从同一个基础 client 派生，
+ * 只覆盖超时和拦截器，连接池、调度器和线程池保持共享。
+ * <p>
+ * 连接池按 3~4 路并发（音频上传/补传、截图、心跳、会话控制）设置空闲连接数，
+ * 并通过 {@link EventListener} 统计连接复用情况和上传吞吐量/延迟（见 {@link #meter()}）。
+ * 每个接口（按路径最后一段区分，例如 audio、img、health）的请求数、失败数、重试次数和整次调用的耗时
+ * 记入 {@link MetricsRegistry}，指标名为 {@code http.<接口>.*}。
+ */
+public final class HttpClients {
+    private static final String TAG = "HttpClients";
+
+    // 最多保留的空闲连接数：并发流数量 + 余量
+    private static final int MAX_IDLE_CONNECTIONS = 6;
+    // 空闲连接保活时间
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    // 调度器限制（只影响异步请求），所有请求都发往同一台服务器
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+
+    private static final AtomicLong callsStarted = new AtomicLong();
+    private static final AtomicLong connectionsAcquired = new AtomicLong();
+    private static final AtomicLong connectionsOpened = new AtomicLong();
+    private static final AtomicLong connectFailures = new AtomicLong();
+    private static final UploadMeter METER = new UploadMeter();
+
+    private static final OkHttpClient BASE;
+    private static final OkHttpClient UPLOAD;
+    private static final OkHttpClient CONTROL;
+
+    static {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        BASE = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .eventListenerFactory(call -> new CallStatsListener())
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+
+        // 上传与上报：带重试
+        UPLOAD = BASE.newBuilder()
+                .addInterceptor(new RetryInterceptor(MainActivity.MAXRETRIY))
+                .build();
+
+        // 会话控制：快速失败，由调用方决定是否重试
+        CONTROL = BASE.newBuilder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private HttpClients() {
+    }
+
+    /**
+     * 音频、截图、心跳等上传请求使用的 client，30 秒超时，带重试
+     */
+    public static OkHttpClient upload() {
+        return UPLOAD;
+    }
+
+    /**
+     * 创建会话等控制请求使用的 client，10 秒超时，不重试
+     */
+    public static OkHttpClient control() {
+        return CONTROL;
+    }
+
+    public static long getCallsStarted() {
+        return callsStarted.get();
+    }
+
+    /**
+     * 请求获取连接的次数（每次请求至少一次）
+     */
+    public static long getConnectionsAcquired() {
+        return connectionsAcquired.get();
+    }
+
+    /**
+     * 新建立的连接数
+     */
+    public static long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * 复用已有连接的次数
+     */
+    public static long getConnectionsReused() {
+        return Math.max(0, connectionsAcquired.get() - connectionsOpened.get());
+    }
+
+    public static long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    /**
+     * 当前连接池中的连接数（含正在使用的）
+     */
+    public static int getPooledConnections() {
+        return BASE.connectionPool().connectionCount();
+    }
+
+    /**
+     * 所有请求共用的吞吐量/延迟统计
+     */
+    public static UploadMeter meter() {
+        return METER;
+    }
+
+    public static void logStats() {
+        Log.i(TAG, "calls=" + callsStarted.get()
+                + ", acquired=" + connectionsAcquired.get()
+                + ", opened=" + connectionsOpened.get()
+                + ", reused=" + getConnectionsReused()
+                + ", connectFailures=" + connectFailures.get()
+                + ", pooled=" + getPooledConnections()
+                + ", throughput=" + Math.round(METER.getThroughputBytesPerSecond() / 1024) + "KB/s"
+                + ", latency=" + Math.round(METER.getLatencyMillis()) + "ms");
+    }
+
+    /**
+     * 每个请求一个实例。统计连接复用：connectEnd 只在新建连接时回调，connectionAcquired 每次请求拿到连接都会回调；
+     * 重试拦截器在同一个 Call 里多次尝试，每次尝试从写请求头到收到响应头的耗时记入 {@link UploadMeter}，
+     * 尝试次数减一即为重试次数。
+     */
+    private static final class CallStatsListener extends EventListener {
+        private long callStartNanos;
+        private long attemptStartNanos;
+        private long requestBytes;
+        private int attempts;
+        private int lastResponseCode;
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            callsStarted.incrementAndGet();
+            callStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            recordCall(call, false);
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            recordCall(call, true);
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                               @NonNull Proxy proxy, Protocol protocol) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                                  @NonNull Proxy proxy, Protocol protocol, @NonNull IOException ioe) {
+            connectFailures.incrementAndGet();
+            METER.recordFailure(0);
+        }
+
+        @Override
+        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+            connectionsAcquired.incrementAndGet();
+        }
+
+        @Override
+        public void requestHeadersStart(@NonNull Call call) {
+            attempts++;
+            attemptStartNanos = System.nanoTime();
+            requestBytes = 0;
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            requestBytes = byteCount;
+        }
+
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+            lastResponseCode = response.code();
+            if (attemptStartNanos != 0) {
+                METER.recordAttempt(requestBytes, elapsedMillis());
+                attemptStartNanos = 0;
+            }
+        }
+
+        @Override
+        public void requestFailed(@NonNull Call call, @NonNull IOException ioe) {
+            attemptFailed();
+        }
+
+        @Override
+        public void responseFailed(@NonNull Call call, @NonNull IOException ioe) {
+            attemptFailed();
+        }
+
+        private void attemptFailed() {
+            if (attemptStartNanos != 0) {
+                METER.recordFailure(elapsedMillis());
+                attemptStartNanos = 0;
+            }
+        }
+
+        private long elapsedMillis() {
+            return (System.nanoTime() - attemptStartNanos) / 1_000_000;
+        }
+
+        private void recordCall(Call call, boolean failed) {
+            String prefix = "http." + endpoint(call) + ".";
+            MetricsRegistry metrics = MetricsRegistry.get();
+            metrics.counter(prefix + "calls").inc();
+            if (failed || lastResponseCode >= 400) {
+                // 网络失败或者重试后仍然是错误状态码
+                metrics.counter(prefix + "failures").inc();
+            }
+            if (attempts > 1) {
+                metrics.counter(prefix + "retries").add(attempts - 1);
+            }
+            metrics.histogram(prefix + "latency_ms").recordSince(callStartNanos);
+        }
+
+        /**
+         * 路径的最后一段，会话 id 在路径中间，不会产生过多的指标名
+         */
+        private static String endpoint(Call call) {
+            List<String> segments = call.request().url().pathSegments();
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                if (!segments.get(i).isEmpty()) {
+                    return segments.get(i);
+                }
+            }
+            return "root";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.voiprecord.rpc;
+
+import androidx.annotation.NonNull;
+
+import com.example.voiprecord.codec.WavStreamWriter;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * 直接从内存中的 PCM 片段生成 WAV 上传内容的请求体。
+ * <p>
+ * 写出时先写 WAV 头，再把 pcm[offset, offset + length) 原样写入网络，不读取磁盘、不拷贝数据。
+ * contentLength 已知，可以被 RetryInterceptor 重复写出。
+ * 调用方必须保证在请求完成之前 pcm 数组的这段内容不被修改。
+ */
+public class PcmWavRequestBody extends RequestBody {
+
+    private static final MediaType AUDIO_WAV = MediaType.parse("audio/wav");
+
+    private final byte[] pcm;
+    private final int offset;
+    private final int length;
+    private final WavStreamWriter wavWriter;
+
+    /**
+     * @param wavWriter 用于生成 WAV 头，请求在调用 execute 的线程上写出，所以可以传入该线程持有的实例
+     */
+    public PcmWavRequestBody(WavStreamWriter wavWriter, byte[] pcm, int offset, int length) {
+        this.wavWriter = wavWriter;
+        this.pcm = pcm;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return AUDIO_WAV;
+    }
+
+    @Override
+    public long contentLength() {
+        return WavStreamWriter.HEADER_SIZE + (long) length;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        sink.write(wavWriter.headerBuffer(length));
+        sink.write(pcm, offset, length);
+    }
+}
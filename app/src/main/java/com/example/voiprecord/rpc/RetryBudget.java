@@ -0,0 +1,49 @@
+package com.example.voiprecord.rpc;
+
+/**
+ * 全局重试预算（令牌桶），防止服务器故障时所有请求一起重试把负载放大。
+ * <p>
+ * 每次重试消耗 1 个令牌，每次成功的请求返还 {@link #tokenRatio} 个令牌，令牌数不超过 maxTokens。
+ * 令牌数低于一半时不再允许重试，直到成功的请求把预算补回来。
+ * 也就是说稳态下重试请求最多约占成功请求的 tokenRatio 比例。
+ */
+public class RetryBudget {
+
+    // 以千分之一令牌为单位，避免浮点数
+    private static final int SCALE = 1000;
+
+    private final int maxTokens;
+    private final int tokenRatio;
+    private int tokens;
+
+    /**
+     * @param maxTokens  桶容量
+     * @param tokenRatio 每次成功返还的令牌数，例如 0.1
+     */
+    public RetryBudget(int maxTokens, double tokenRatio) {
+        this.maxTokens = maxTokens * SCALE;
+        this.tokenRatio = (int) (tokenRatio * SCALE);
+        this.tokens = this.maxTokens;
+    }
+
+    /**
+     * 尝试为一次重试支付 1 个令牌
+     *
+     * @return 是否允许重试
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokens <= maxTokens / 2) {
+            return false;
+        }
+        tokens -= SCALE;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        tokens = Math.min(maxTokens, tokens + tokenRatio);
+    }
+
+    public synchronized double getTokens() {
+        return (double) tokens / SCALE;
+    }
+}
@@ -1,18 +1,50 @@
 package com.example.voiprecord.rpc;
 
-import androidx.annotation.NonNull;
-import static androidx.constraintlayout.helper.widget.MotionEffect.TAG;
 import android.util.Log;
+
+import androidx.annotation.NonNull;
+
 import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
 
+/**
+ * 请求重试拦截器。
+ * <ul>
+ *     <li>重试状态（次数）只属于单次请求，实例可以被共享 client 的所有请求并发使用；</li>
+ *     <li>只重试网络异常和 408/429/5xx，其余 4xx 直接返回给调用方；</li>
+ *     <li>退避时间为指数增长的 full jitter：random(0, min(上限, 基数 × 2^n))；
+ *         429/503 带 Retry-After 时按服务器要求等待，要求等待过久则不再重试；</li>
+ *     <li>所有请求共用一个 {@link RetryBudget}，服务器故障时重试量不会超过正常流量的一小部分；</li>
+ *     <li>每个 host 一个 {@link CircuitBreaker}，服务器不可用时请求直接失败，不再占用上传线程。</li>
+ * </ul>
+ */
 public class RetryInterceptor implements Interceptor {
+    private static final String TAG = "RetryInterceptor";
 
+    // 退避基数与上限
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // Retry-After 超过该值时不在当前线程里等待，直接把响应交给调用方
+    private static final long MAX_RETRY_AFTER_MS = 60_000;
+    // 重试预算：桶容量 10，每次成功返还 0.1
+    private static final int BUDGET_TOKENS = 10;
+    private static final double BUDGET_TOKEN_RATIO = 0.1;
+    // 熔断：连续失败 5 次后熔断 10 秒，探测失败时翻倍，最长 2 分钟
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_MIN_OPEN_MS = 10_000;
+    private static final long BREAKER_MAX_OPEN_MS = 120_000;
 
+    // 单次请求的最大尝试次数（含第一次）
     private final int maxRetries;
-    private int retryCount = 0;
+    private final RetryBudget budget = new RetryBudget(BUDGET_TOKENS, BUDGET_TOKEN_RATIO);
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
 
     public RetryInterceptor(int maxRetries) {
         this.maxRetries = maxRetries;
@@ -22,55 +54,121 @@ public class RetryInterceptor implements Interceptor {
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
-        Response response = null;
-        IOException lastException = null;
+        CircuitBreaker breaker = breakerFor(request.url());
+        int attempt = 0;
+
+        while (true) {
+            if (!breaker.allowRequest()) {
+                throw new IOException("服务器不可用，熔断中 (" + breaker.getRemainingOpenMillis() + "ms): " + request.url().host());
+            }
 
-        // 循环进行重试
-        while (retryCount < maxRetries) {
+            Response response = null;
+            IOException failure = null;
             try {
-                // 尝试执行请求
                 response = chain.proceed(request);
-                // 如果请求成功 (HTTP 状态码 2xx)，直接返回响应
-                if (response.isSuccessful()) {
-                    return response;
-                }
             } catch (IOException e) {
-                // 捕获到 IO 异常，这是最常见的需要重试的场景（例如网络中断）
-                lastException = e;
-                Log.w(TAG, "请求失败 (IOException), 正在进行重试... (" + (retryCount + 1) + "/" + maxRetries + ")");
-            } finally {
-                // 注意：如果响应不成功（例如 500 服务器错误），也应该关闭它
-                // 但在这里我们主要关注 IO 异常。如果 response 不为 null 但不成功，
-                // 我们会在循环外返回它，让调用者处理。
-                if (response != null && !response.isSuccessful()) {
-                    response.close(); // 关闭不成功的响应体，避免资源泄露
+                failure = e;
+            }
+
+            if (response != null && response.isSuccessful()) {
+                breaker.onSuccess();
+                budget.onSuccess();
+                return response;
+            }
+            // 普通 4xx 说明服务器是可达的，不计入熔断
+            if (response == null || isServerFailure(response.code())) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+
+            attempt++;
+            long delay = retryDelay(response, attempt);
+            String reason = response != null ? "HTTP " + response.code() : failure.getClass().getSimpleName();
+            if (delay < 0
+                    || attempt >= maxRetries
+                    || chain.call().isCanceled()
+                    || (request.body() != null && request.body().isOneShot())
+                    || !budget.tryAcquire()) {
+                if (response != null) {
+                    return response;
                 }
+                throw failure;
+            }
+            if (response != null) {
+                // 关闭不成功的响应，释放连接
+                response.close();
             }
 
-            retryCount++;
+            Log.w(TAG, "请求失败 (" + reason + "), " + delay + "ms 后重试 (" + attempt + "/" + maxRetries + "): " + request.url().encodedPath());
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("重试被中断", e);
+            }
+        }
+    }
 
-            // 如果还可以重试，就等待一小段时间
-            if (retryCount < maxRetries) {
-                try {
-                    // 简单的延迟策略：每次重试多等待 1 秒
-                    Thread.sleep(2000L * retryCount);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("重试被中断", e);
+    /**
+     * @return 下次重试前的等待毫秒数，不应重试时返回 -1
+     */
+    private long retryDelay(Response response, int attempt) {
+        if (response != null) {
+            int code = response.code();
+            if (code == 429 || code == 503) {
+                long retryAfter = retryAfterMillis(response);
+                if (retryAfter > MAX_RETRY_AFTER_MS) {
+                    return -1;
+                }
+                if (retryAfter >= 0) {
+                    return retryAfter;
                 }
+            } else if (code != 408 && !isServerFailure(code)) {
+                return -1;
             }
         }
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
 
-        // 如果所有重试都失败了，抛出最后一次的异常
-        if (lastException != null) {
-            throw lastException;
+    /**
+     * 解析 Retry-After（秒数或 HTTP 日期），没有或无法解析时返回 -1
+     */
+    private static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException ignored) {
         }
+        Date date = response.headers().getDate("Retry-After");
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    private static boolean isServerFailure(int code) {
+        return code == 500 || code == 502 || code == 503 || code == 504;
+    }
 
-        // 如果是因为非 IO 异常（如 5xx 错误）导致循环结束，返回最后的 response
-        // 但在这里我们的逻辑是只要不成功就重试，所以这里实际上不会执行。
-        // 为了健壮性，返回最后的 response 对象，即使它不成功。
-        // 但在上面的逻辑中，我们已经处理并返回了成功的 response，所以这里可以简化为抛出异常。
-        throw new IOException("请求在 " + maxRetries + " 次重试后仍然失败");
+    private CircuitBreaker breakerFor(HttpUrl url) {
+        String key = url.host() + ":" + url.port();
+        return breakers.computeIfAbsent(key, k ->
+                new CircuitBreaker(k, BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_OPEN_MS, BREAKER_MAX_OPEN_MS));
     }
 
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * 指定服务器当前的熔断状态
+     */
+    public CircuitBreaker.State getCircuitState(HttpUrl url) {
+        return breakerFor(url).getState();
+    }
 }
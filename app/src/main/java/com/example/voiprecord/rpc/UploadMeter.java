@@ -0,0 +1,89 @@
+package com.example.voiprecord.rpc;
+
+/**
+ * 统计实际的上传吞吐量和延迟，由 {@link HttpClients} 的 EventListener 在每次请求尝试结束时记录。
+ * <p>
+ * 一次尝试的耗时从开始写请求头算到收到响应头，包含上传和服务端处理。吞吐量和延迟都是指数加权平均，
+ * 吞吐量只统计请求体足够大的尝试，避免心跳等小请求把结果拉低。另外累计所有尝试的总耗时（busy 时间），
+ * 调用方按时间窗口取差值即可得到链路的占用率。
+ */
+public class UploadMeter {
+
+    // 指数加权平均的平滑系数
+    private static final double ALPHA = 0.3;
+    // 请求体小于该值的尝试不计入吞吐量
+    private static final long MIN_THROUGHPUT_BYTES = 4096;
+
+    private double throughput = -1;
+    private double latency = -1;
+    private long lastLatency = -1;
+    private long attempts;
+    private long failures;
+    private long bytesSent;
+    private long busyMillis;
+
+    /**
+     * 记录一次收到响应的尝试（不论状态码）
+     */
+    public synchronized void recordAttempt(long requestBytes, long millis) {
+        millis = Math.max(1, millis);
+        attempts++;
+        bytesSent += requestBytes;
+        busyMillis += millis;
+        lastLatency = millis;
+        latency = latency < 0 ? millis : latency + ALPHA * (millis - latency);
+        if (requestBytes >= MIN_THROUGHPUT_BYTES) {
+            double sample = requestBytes * 1000.0 / millis;
+            throughput = throughput < 0 ? sample : throughput + ALPHA * (sample - throughput);
+        }
+    }
+
+    /**
+     * 记录一次网络失败的尝试
+     */
+    public synchronized void recordFailure(long millis) {
+        attempts++;
+        failures++;
+        busyMillis += Math.max(0, millis);
+    }
+
+    /**
+     * 平均上传吞吐量（字节/秒），还没有样本时返回 -1
+     */
+    public synchronized double getThroughputBytesPerSecond() {
+        return throughput;
+    }
+
+    /**
+     * 平均单次尝试的延迟（毫秒），还没有样本时返回 -1
+     */
+    public synchronized double getLatencyMillis() {
+        return latency;
+    }
+
+    /**
+     * 最近一次收到响应的尝试的延迟（毫秒），还没有样本时返回 -1
+     */
+    public synchronized long getLastLatencyMillis() {
+        return lastLatency;
+    }
+
+    public synchronized long getAttempts() {
+        return attempts;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * 所有尝试的累计耗时，多个请求并发时会重复计算
+     */
+    public synchronized long getBusyMillis() {
+        return busyMillis;
+    }
+}
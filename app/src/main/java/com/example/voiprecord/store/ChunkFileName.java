@@ -0,0 +1,260 @@
+package com.example.voiprecord.store;
+
+import androidx.annotation.NonNull;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 录音分片文件名，格式为 {@code yyyyMMddHHmmss=序号=_voip_up_=声道=用户名=会话id=.扩展名}，时间为本地时间。
+ * <p>
+ * {@link #parse} 只扫描一遍字符串，不用正则也不产生 split 数组；{@link #format} 不创建 SimpleDateFormat。
+ * 本地时间与毫秒时间戳的换算按小时缓存：同一小时内的文件名只做整数运算，跨小时才调用一次 java.time。
+ * 夏令时切换发生在整点，同一小时内的偏移不变。系统时区变化后，缓存中的那个小时仍按旧时区换算。
+ * <p>
+ * 不可变，线程安全。
+ */
+public final class ChunkFileName {
+
+    public static final String MARKER = "_voip_up_";
+    private static final int TIMESTAMP_LENGTH = 14;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    /**
+     * 一个本地小时：yyyyMMddHH 和它开始时的毫秒时间戳
+     */
+    private static final class Hour {
+        final long key;
+        final long startMillis;
+
+        Hour(long key, long startMillis) {
+            this.key = key;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private static volatile Hour cachedHour;
+
+    private final long timestampMillis;
+    private final int index;
+    private final String channel;
+    private final String username;
+    private final String sessionId;
+    private final String extension;
+
+    public ChunkFileName(long timestampMillis, int index, String channel, String username, String sessionId,
+                         String extension) {
+        this.timestampMillis = timestampMillis;
+        this.index = index;
+        this.channel = channel;
+        this.username = username;
+        this.sessionId = sessionId;
+        this.extension = extension;
+    }
+
+    /**
+     * 录制时间（毫秒时间戳），文件名只精确到秒
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 不带点的扩展名，例如 "wav"
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return format(timestampMillis, index, channel, username, sessionId, extension);
+    }
+
+    /**
+     * 生成分片文件名
+     */
+    public static String format(long timestampMillis, int index, String channel, String username, String sessionId,
+                                String extension) {
+        StringBuilder name = new StringBuilder(48 + channel.length() + username.length() + sessionId.length());
+        appendTimestamp(name, timestampMillis);
+        return name.append('=').append(index)
+                .append('=').append(MARKER)
+                .append('=').append(channel)
+                .append('=').append(username)
+                .append('=').append(sessionId)
+                .append("=.").append(extension)
+                .toString();
+    }
+
+    /**
+     * 把毫秒时间戳格式化为本地时间 yyyyMMddHHmmss
+     */
+    public static String formatTimestamp(long timestampMillis) {
+        StringBuilder text = new StringBuilder(TIMESTAMP_LENGTH);
+        appendTimestamp(text, timestampMillis);
+        return text.toString();
+    }
+
+    /**
+     * 解析分片文件名，格式不符时返回 null。声道、用户名和会话 id 经过 {@link String#intern()}，
+     * 大量文件名共用同一份字符串。
+     */
+    public static ChunkFileName parse(String name) {
+        if (name == null || name.length() <= TIMESTAMP_LENGTH || name.charAt(TIMESTAMP_LENGTH) != '=') {
+            return null;
+        }
+        long digits = parseDigits(name, 0, TIMESTAMP_LENGTH);
+        if (digits < 0) {
+            return null;
+        }
+        long timestamp = toMillis(digits);
+        if (timestamp == Long.MIN_VALUE) {
+            return null;
+        }
+
+        int start = TIMESTAMP_LENGTH + 1;
+        int end = name.indexOf('=', start);
+        // 序号最多 9 位，不会溢出 int
+        if (end < 0 || end - start > 9) {
+            return null;
+        }
+        long index = parseDigits(name, start, end);
+        if (index < 0) {
+            return null;
+        }
+
+        start = end + 1;
+        end = start + MARKER.length();
+        if (!name.startsWith(MARKER, start) || end >= name.length() || name.charAt(end) != '=') {
+            return null;
+        }
+
+        start = end + 1;
+        end = name.indexOf('=', start);
+        if (end <= start) {
+            return null;
+        }
+        String channel = name.substring(start, end).intern();
+
+        start = end + 1;
+        end = name.indexOf('=', start);
+        if (end <= start) {
+            return null;
+        }
+        String username = name.substring(start, end).intern();
+
+        start = end + 1;
+        end = name.indexOf('=', start);
+        if (end <= start) {
+            return null;
+        }
+        String sessionId = name.substring(start, end).intern();
+
+        // 剩余部分为 ".扩展名"
+        start = end + 1;
+        if (start + 1 >= name.length() || name.charAt(start) != '.' || name.indexOf('=', start) >= 0) {
+            return null;
+        }
+        return new ChunkFileName(timestamp, (int) index, channel, username, sessionId, name.substring(start + 1));
+    }
+
+    /**
+     * 解析 [start, end) 之间的十进制数字，为空或含非数字字符时返回 -1
+     */
+    private static long parseDigits(String s, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void appendTimestamp(StringBuilder out, long timestampMillis) {
+        Hour hour = hourOf(timestampMillis);
+        long inHour = timestampMillis - hour.startMillis;
+        out.append(hour.key);
+        appendTwoDigits(out, (int) (inHour / 60_000));
+        appendTwoDigits(out, (int) (inHour / 1000 % 60));
+    }
+
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * 毫秒时间戳所在的本地小时
+     */
+    private static Hour hourOf(long timestampMillis) {
+        Hour hour = cachedHour;
+        if (hour != null && timestampMillis >= hour.startMillis && timestampMillis < hour.startMillis + HOUR_MS) {
+            return hour;
+        }
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault());
+        long key = time.getYear() * 1_000_000L + time.getMonthValue() * 10_000L
+                + time.getDayOfMonth() * 100L + time.getHour();
+        long startMillis = timestampMillis - time.getMinute() * 60_000L - time.getSecond() * 1000L
+                - time.getNano() / 1_000_000;
+        hour = new Hour(key, startMillis);
+        cachedHour = hour;
+        return hour;
+    }
+
+    /**
+     * 本地时间 yyyyMMddHHmmss 转为毫秒时间戳，不是有效时间时返回 Long.MIN_VALUE
+     */
+    private static long toMillis(long digits) {
+        long key = digits / 10_000;
+        int minute = (int) (digits / 100 % 100);
+        int second = (int) (digits % 100);
+        if (minute > 59 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        Hour hour = cachedHour;
+        if (hour == null || hour.key != key) {
+            int year = (int) (key / 1_000_000);
+            int month = (int) (key / 10_000 % 100);
+            int day = (int) (key / 100 % 100);
+            int h = (int) (key % 100);
+            long startMillis;
+            try {
+                startMillis = LocalDateTime.of(year, month, day, h, 0)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (RuntimeException e) {
+                // 月、日、时超出范围
+                return Long.MIN_VALUE;
+            }
+            hour = hourOf(startMillis);
+            if (hour.key != key) {
+                // 夏令时跳过的那个小时，不存在对应的本地时间，按顺延后的时间计算
+                return startMillis + minute * 60_000L + second * 1000L;
+            }
+        }
+        return hour.startMillis + minute * 60_000L + second * 1000L;
+    }
+}
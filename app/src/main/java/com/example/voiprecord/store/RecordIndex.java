@@ -0,0 +1,623 @@
+package com.example.voiprecord.store;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.voiprecord.VoipRecordService;
+import com.example.voiprecord.codec.AudioCodec;
+import com.example.voiprecord.codec.WavStreamWriter;
+import com.example.voiprecord.damain.FileRecordHistory;
+import com.example.voiprecord.damain.SessionRecordHistory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 本地录音分片索引（SQLite），历史记录页面直接分页查询，不再列目录、解析文件名。
+ * <p>
+ * 每个落盘的分片在写入时插入一行（录制时间、会话、用户、声道、序号、大小、上传状态），上传成功后更新状态，
+ * 分片被配额淘汰时删除对应的行。{@link #sync} 用 MediaStore 的扫描结果校正索引：补上索引缺失的文件
+ * （例如升级前已有的分片），删除已不存在的文件。
+ * 保存在 {@link SegmentedSessionStore} 分段文件中的分片同样各占一行（storage 为 {@link #STORAGE_SEGMENT}，
+ * 没有 media_id），不参与 MediaStore 校正，整个会话被淘汰时由 {@link #deleteSegments} 删除。
+ * <p>
+ * 会话汇总（起止时间、每个声道的时长、总字节数、已上传/总分片数）保存在 sessions 和 session_channels 表中，
+ * 与分片的插入、上传、删除在同一个事务中增量更新，打开历史记录页面时不需要聚合分片表。
+ * <p>
+ * 查询按 (时间, 行号) 倒序做 keyset 分页，每页的开销与缓存目录中的文件总数无关。
+ * 内容变化后通知 {@link #CONTENT_URI} 的 ContentObserver，历史记录页面据此实时刷新。
+ * 整个进程共用一个实例，SQLiteDatabase 本身是线程安全的。
+ */
+public class RecordIndex extends SQLiteOpenHelper {
+    private static final String TAG = "RecordIndex";
+
+    private static final String DB_NAME = "record_index.db";
+    private static final int DB_VERSION = 3;
+    private static final String TABLE = "chunks";
+    private static final String SESSIONS = "sessions";
+    private static final String SESSION_CHANNELS = "session_channels";
+    // 每个事务删除的行数，SQLite 的参数个数上限为 999
+    private static final int DELETE_BATCH = 500;
+
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_UPLOADED = 1;
+
+    public static final int STORAGE_MEDIASTORE = 0;
+    public static final int STORAGE_SEGMENT = 1;
+
+    /**
+     * 第一页的 before 参数
+     */
+    public static final long FIRST_PAGE = Long.MAX_VALUE;
+
+    /**
+     * 索引内容变化时通知的 Uri，只用于 ContentObserver，没有对应的 ContentProvider
+     */
+    public static final Uri CONTENT_URI = Uri.parse("content://com.example.voiprecord.records/chunks");
+
+    private static final String COLUMNS = "_id, timestamp, session_id, username, channel, chunk_index, size, state";
+    private static final String SESSION_COLUMNS = "session_id, username, start_ts, end_ts, bytes, chunks, uploaded";
+
+    private static final String UPSERT_SESSION = "INSERT INTO " + SESSIONS
+            + " (session_id, username, start_ts, end_ts, bytes, chunks, uploaded) VALUES (?, ?, ?, ?, ?, 1, 0)"
+            + " ON CONFLICT(session_id) DO UPDATE SET start_ts = MIN(start_ts, excluded.start_ts),"
+            + " end_ts = MAX(end_ts, excluded.end_ts), bytes = bytes + excluded.bytes, chunks = chunks + 1";
+    private static final String UPSERT_CHANNEL = "INSERT INTO " + SESSION_CHANNELS
+            + " (session_id, channel, duration_ms, chunks) VALUES (?, ?, ?, 1)"
+            + " ON CONFLICT(session_id, channel) DO UPDATE SET duration_ms = duration_ms + excluded.duration_ms,"
+            + " chunks = chunks + 1";
+
+    private static RecordIndex instance;
+
+    private final ContentResolver resolver;
+
+    /**
+     * 一个已落盘的分片
+     */
+    public static final class Entry {
+        // 分段文件中的分片为 -1
+        final long mediaId;
+        final int storage;
+        final String fileName;
+        final long timestampMillis;
+        final String sessionId;
+        final String username;
+        final String channel;
+        final int index;
+        final long size;
+        // 音频时长，未知时为 0
+        final long durationMillis;
+
+        public Entry(long mediaId, String fileName, long timestampMillis, String sessionId, String username,
+                     String channel, int index, long size, long durationMillis) {
+            this(mediaId, STORAGE_MEDIASTORE, fileName, timestampMillis, sessionId, username, channel, index, size,
+                    durationMillis);
+        }
+
+        /**
+         * 保存在分段文件中的分片，fileName 为直接写入 MediaStore 时的文件名
+         */
+        public Entry(String fileName, long timestampMillis, String sessionId, String username,
+                     String channel, int index, long size, long durationMillis) {
+            this(-1, STORAGE_SEGMENT, fileName, timestampMillis, sessionId, username, channel, index, size,
+                    durationMillis);
+        }
+
+        private Entry(long mediaId, int storage, String fileName, long timestampMillis, String sessionId,
+                      String username, String channel, int index, long size, long durationMillis) {
+            this.mediaId = mediaId;
+            this.storage = storage;
+            this.fileName = fileName;
+            this.timestampMillis = timestampMillis;
+            this.sessionId = sessionId;
+            this.username = username;
+            this.channel = channel;
+            this.index = index;
+            this.size = size;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * 从已解析的文件名创建。WAV 分片的时长按文件大小计算，其他格式的时长未知
+         */
+        public Entry(long mediaId, String fileName, ChunkFileName parsed, long size) {
+            this(mediaId, fileName, parsed.getTimestampMillis(), parsed.getSessionId(), parsed.getUsername(),
+                    parsed.getChannel(), parsed.getIndex(), size,
+                    AudioCodec.WAV.getExtension().equals(parsed.getExtension())
+                            ? Math.max(0, size - WavStreamWriter.HEADER_SIZE) * 1000
+                            / (VoipRecordService.SAMPLE_RATE * 2L) : 0);
+        }
+    }
+
+    public static synchronized RecordIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecordIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RecordIndex(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.resolver = context.getContentResolver();
+        // 落盘线程写入的同时历史页面可以并发读取
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "media_id INTEGER, "
+                + "storage INTEGER NOT NULL DEFAULT " + STORAGE_MEDIASTORE + ", "
+                + "file_name TEXT NOT NULL, "
+                + "timestamp INTEGER NOT NULL, "
+                + "session_id TEXT NOT NULL, "
+                + "username TEXT NOT NULL, "
+                + "channel TEXT NOT NULL, "
+                + "chunk_index INTEGER NOT NULL, "
+                + "size INTEGER NOT NULL, "
+                + "duration_ms INTEGER NOT NULL DEFAULT 0, "
+                + "state INTEGER NOT NULL DEFAULT " + STATE_PENDING + ")");
+        // 分段文件中的分片没有 media_id（UNIQUE 允许多个 NULL），按会话、声道、序号去重
+        db.execSQL("CREATE UNIQUE INDEX idx_chunks_media ON " + TABLE + " (media_id)");
+        db.execSQL("CREATE UNIQUE INDEX idx_chunks_segment ON " + TABLE + " (session_id, channel, chunk_index)"
+                + " WHERE storage = " + STORAGE_SEGMENT);
+        db.execSQL("CREATE INDEX idx_chunks_time ON " + TABLE + " (timestamp, _id)");
+        db.execSQL("CREATE INDEX idx_chunks_session ON " + TABLE + " (session_id, timestamp, _id)");
+        db.execSQL("CREATE INDEX idx_chunks_chunk ON " + TABLE + " (session_id, channel, chunk_index)");
+        db.execSQL("CREATE INDEX idx_chunks_user ON " + TABLE + " (username, timestamp, _id)");
+
+        db.execSQL("CREATE TABLE " + SESSIONS + " ("
+                + "session_id TEXT PRIMARY KEY, "
+                + "username TEXT NOT NULL, "
+                + "start_ts INTEGER NOT NULL, "
+                + "end_ts INTEGER NOT NULL, "
+                + "bytes INTEGER NOT NULL, "
+                + "chunks INTEGER NOT NULL, "
+                + "uploaded INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX idx_sessions_end ON " + SESSIONS + " (end_ts, session_id)");
+        db.execSQL("CREATE TABLE " + SESSION_CHANNELS + " ("
+                + "session_id TEXT NOT NULL, "
+                + "channel TEXT NOT NULL, "
+                + "duration_ms INTEGER NOT NULL, "
+                + "chunks INTEGER NOT NULL, "
+                + "PRIMARY KEY (session_id, channel))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 索引可以从 MediaStore 重建，直接丢弃旧表（版本 3 之前分段文件中的分片本来就没有记入索引）
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + SESSIONS);
+        db.execSQL("DROP TABLE IF EXISTS " + SESSION_CHANNELS);
+        onCreate(db);
+    }
+
+    /**
+     * 记录一个新落盘的分片，由落盘线程调用；同一个文件重复记录时忽略
+     */
+    public void recordWrite(Entry entry) {
+        boolean inserted = false;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            SQLiteStatement insert = db.compileStatement(insertSql());
+            try {
+                bind(insert, entry);
+                inserted = insert(db, insert, entry);
+                db.setTransactionSuccessful();
+            } finally {
+                insert.close();
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to index " + entry.fileName, e);
+            return;
+        }
+        if (inserted) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 分片上传成功（包括补传）
+     */
+    public void markUploaded(String sessionId, String channel, int index) {
+        int updated = 0;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE
+                    + " SET state = " + STATE_UPLOADED + " WHERE session_id = ? AND channel = ? AND chunk_index = ?"
+                    + " AND state != " + STATE_UPLOADED);
+            try {
+                update.bindString(1, sessionId);
+                update.bindString(2, channel);
+                update.bindLong(3, index);
+                updated = update.executeUpdateDelete();
+                if (updated > 0) {
+                    db.execSQL("UPDATE " + SESSIONS + " SET uploaded = uploaded + ? WHERE session_id = ?",
+                            new Object[]{updated, sessionId});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                update.close();
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to mark " + channel + "#" + index + " uploaded", e);
+            return;
+        }
+        if (updated > 0) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 删除已被清理的文件对应的行，并从所属会话的汇总中减去
+     */
+    public void delete(List<Long> mediaIds) {
+        if (mediaIds.isEmpty()) {
+            return;
+        }
+        int deleted = 0;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            Set<String> sessions = new HashSet<>();
+            try {
+                for (int start = 0; start < mediaIds.size(); start += DELETE_BATCH) {
+                    List<Long> batch = mediaIds.subList(start, Math.min(mediaIds.size(), start + DELETE_BATCH));
+                    StringBuilder where = new StringBuilder("media_id IN (");
+                    String[] args = new String[batch.size()];
+                    for (int i = 0; i < batch.size(); i++) {
+                        where.append(i == 0 ? "?" : ",?");
+                        args[i] = String.valueOf(batch.get(i));
+                    }
+                    where.append(')');
+                    subtractFromSessions(db, where.toString(), args, sessions);
+                    deleted += db.delete(TABLE, where.toString(), args);
+                }
+                for (String session : sessions) {
+                    trimSession(db, session);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to delete " + mediaIds.size() + " index rows", e);
+        }
+        if (deleted > 0) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 删除一个会话保存在分段文件中的所有分片，在会话目录被 {@link SegmentedSessionStore} 淘汰后调用
+     */
+    public void deleteSegments(String sessionId) {
+        int deleted = 0;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            Set<String> sessions = new HashSet<>();
+            try {
+                String where = "session_id = ? AND storage = " + STORAGE_SEGMENT;
+                String[] args = {sessionId};
+                subtractFromSessions(db, where, args, sessions);
+                deleted = db.delete(TABLE, where, args);
+                for (String session : sessions) {
+                    trimSession(db, session);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to delete segmented chunks of " + sessionId, e);
+        }
+        if (deleted > 0) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 用一次完整的 MediaStore 扫描结果校正索引：插入缺失的行，删除文件已不存在的行。分段文件中的分片不受影响
+     *
+     * @param lastRowId 扫描开始前的 {@link #getLastRowId()}，之后插入的行不会被删除
+     */
+    public void sync(List<Entry> scanned, long lastRowId) {
+        long start = System.currentTimeMillis();
+        Set<Long> indexed = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT media_id FROM " + TABLE
+                        + " WHERE _id <= ? AND storage = " + STORAGE_MEDIASTORE,
+                new String[]{String.valueOf(lastRowId)})) {
+            while (cursor.moveToNext()) {
+                indexed.add(cursor.getLong(0));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Index sync failed", e);
+            return;
+        }
+        List<Entry> missing = new ArrayList<>();
+        for (Entry entry : scanned) {
+            if (!indexed.remove(entry.mediaId)) {
+                missing.add(entry);
+            }
+        }
+        // indexed 中剩下的就是已经不存在的文件
+        delete(new ArrayList<>(indexed));
+        if (!missing.isEmpty()) {
+            try {
+                SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                SQLiteStatement insert = db.compileStatement(insertSql());
+                try {
+                    for (Entry entry : missing) {
+                        insert.clearBindings();
+                        bind(insert, entry);
+                        insert(db, insert, entry);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    insert.close();
+                    db.endTransaction();
+                }
+                notifyChanged();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to index " + missing.size() + " scanned files", e);
+            }
+        }
+        Log.i(TAG, "Index synced: " + missing.size() + " added, " + indexed.size() + " removed in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 按录制时间倒序分页查询所有分片
+     *
+     * @param beforeTimestamp 上一页最后一行的 {@link FileRecordHistory#getTimestampMillis()}，第一页传 {@link #FIRST_PAGE}
+     * @param beforeId        上一页最后一行的 {@link FileRecordHistory#getId()}，第一页传 {@link #FIRST_PAGE}
+     */
+    public List<FileRecordHistory> queryRecent(long beforeTimestamp, long beforeId, int limit) {
+        return query("", new String[0], beforeTimestamp, beforeId, limit);
+    }
+
+    /**
+     * 按录制时间倒序分页查询某个用户的分片
+     */
+    public List<FileRecordHistory> queryByUser(String username, long beforeTimestamp, long beforeId, int limit) {
+        return query("username = ? AND ", new String[]{username}, beforeTimestamp, beforeId, limit);
+    }
+
+    /**
+     * 按录制时间顺序分页查询一个会话的分片
+     *
+     * @param afterTimestamp 上一页最后一行的 {@link FileRecordHistory#getTimestampMillis()}，第一页传 0
+     * @param afterId        上一页最后一行的 {@link FileRecordHistory#getId()}，第一页传 0
+     */
+    public List<FileRecordHistory> queryBySession(String sessionId, long afterTimestamp, long afterId, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM " + TABLE
+                + " WHERE session_id = ? AND (timestamp > ? OR (timestamp = ? AND _id > ?))"
+                + " ORDER BY timestamp, _id LIMIT " + limit;
+        return read(sql, new String[]{sessionId, String.valueOf(afterTimestamp), String.valueOf(afterTimestamp),
+                String.valueOf(afterId)});
+    }
+
+    /**
+     * 一个会话某个声道的所有 MediaStore 分片文件，分片序号 -> MediaStore id，用于导出。
+     * 分段文件中的分片不在结果中
+     *
+     * @param extension 只返回该扩展名的文件，例如 "wav"
+     */
+    public TreeMap<Integer, Long> queryChunkMediaIds(String sessionId, String channel, String extension) {
+        TreeMap<Integer, Long> ids = new TreeMap<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT chunk_index, media_id FROM " + TABLE
+                        + " WHERE session_id = ? AND channel = ? AND storage = " + STORAGE_MEDIASTORE
+                        + " AND file_name LIKE ?",
+                new String[]{sessionId, channel, "%." + extension})) {
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getInt(0), cursor.getLong(1));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Chunk file query failed", e);
+        }
+        return ids;
+    }
+
+    /**
+     * 按最后录制时间倒序分页查询会话汇总
+     *
+     * @param beforeEnd     上一页最后一个会话的 {@link SessionRecordHistory#getEndMillis()}，第一页传 {@link #FIRST_PAGE}
+     * @param beforeSession 上一页最后一个会话的 id，第一页传空字符串
+     */
+    public List<SessionRecordHistory> querySessions(long beforeEnd, String beforeSession, int limit) {
+        List<SessionRecordHistory> sessions = new ArrayList<>();
+        Map<String, SessionRecordHistory> byId = new HashMap<>();
+        SQLiteDatabase db = getReadableDatabase();
+        String end = String.valueOf(beforeEnd);
+        try (Cursor cursor = db.rawQuery("SELECT " + SESSION_COLUMNS + " FROM " + SESSIONS
+                        + " WHERE end_ts < ? OR (end_ts = ? AND session_id < ?)"
+                        + " ORDER BY end_ts DESC, session_id DESC LIMIT " + limit,
+                new String[]{end, end, beforeSession})) {
+            while (cursor.moveToNext()) {
+                SessionRecordHistory session = new SessionRecordHistory();
+                session.setSessionId(cursor.getString(0));
+                session.setUsername(cursor.getString(1));
+                session.setStartMillis(cursor.getLong(2));
+                session.setEndMillis(cursor.getLong(3));
+                session.setBytes(cursor.getLong(4));
+                session.setChunks(cursor.getInt(5));
+                session.setUploadedChunks(cursor.getInt(6));
+                sessions.add(session);
+                byId.put(session.getSessionId(), session);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Session query failed", e);
+            return sessions;
+        }
+        if (sessions.isEmpty()) {
+            return sessions;
+        }
+        // 一次查出这一页所有会话的声道时长
+        StringBuilder where = new StringBuilder("session_id IN (");
+        String[] args = new String[sessions.size()];
+        for (int i = 0; i < sessions.size(); i++) {
+            where.append(i == 0 ? "?" : ",?");
+            args[i] = sessions.get(i).getSessionId();
+        }
+        where.append(')');
+        try (Cursor cursor = db.rawQuery("SELECT session_id, channel, duration_ms FROM " + SESSION_CHANNELS
+                + " WHERE " + where + " ORDER BY channel", args)) {
+            while (cursor.moveToNext()) {
+                byId.get(cursor.getString(0)).getChannelDurations().put(cursor.getString(1), cursor.getLong(2));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Session channel query failed", e);
+        }
+        return sessions;
+    }
+
+    /**
+     * 最近插入的行号，索引为空时返回 0
+     */
+    public long getLastRowId() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT MAX(_id) FROM " + TABLE, null)) {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Query failed", e);
+            return 0;
+        }
+    }
+
+    public long getCount() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Count failed", e);
+            return 0;
+        }
+    }
+
+    private List<FileRecordHistory> query(String filter, String[] filterArgs, long beforeTimestamp, long beforeId, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM " + TABLE
+                + " WHERE " + filter + "(timestamp < ? OR (timestamp = ? AND _id < ?))"
+                + " ORDER BY timestamp DESC, _id DESC LIMIT " + limit;
+        String[] args = new String[filterArgs.length + 3];
+        System.arraycopy(filterArgs, 0, args, 0, filterArgs.length);
+        args[filterArgs.length] = String.valueOf(beforeTimestamp);
+        args[filterArgs.length + 1] = String.valueOf(beforeTimestamp);
+        args[filterArgs.length + 2] = String.valueOf(beforeId);
+        return read(sql, args);
+    }
+
+    private List<FileRecordHistory> read(String sql, String[] args) {
+        List<FileRecordHistory> records = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                FileRecordHistory record = new FileRecordHistory();
+                record.setId(cursor.getLong(0));
+                record.setTimestampMillis(cursor.getLong(1));
+                record.setTimestamp(ChunkFileName.formatTimestamp(cursor.getLong(1)));
+                record.setSessionId(cursor.getString(2));
+                record.setUsername(cursor.getString(3));
+                record.setDirection(cursor.getString(4));
+                record.setCount(String.valueOf(cursor.getInt(5)));
+                record.setSize(cursor.getLong(6));
+                record.setUploadState(cursor.getInt(7));
+                records.add(record);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Query failed: " + sql, e);
+        }
+        return records;
+    }
+
+    /**
+     * 插入一个分片并计入所属会话的汇总，在调用方的事务中执行
+     *
+     * @return 是否插入（同一个文件已经存在时忽略）
+     */
+    private static boolean insert(SQLiteDatabase db, SQLiteStatement insert, Entry entry) {
+        if (insert.executeInsert() <= 0) {
+            return false;
+        }
+        db.execSQL(UPSERT_SESSION, new Object[]{entry.sessionId, entry.username, entry.timestampMillis,
+                entry.timestampMillis + entry.durationMillis, entry.size});
+        db.execSQL(UPSERT_CHANNEL, new Object[]{entry.sessionId, entry.channel, entry.durationMillis});
+        return true;
+    }
+
+    /**
+     * 从会话汇总中减去即将删除的分片
+     *
+     * @param sessions 收集受影响的会话
+     */
+    private static void subtractFromSessions(SQLiteDatabase db, String where, String[] args, Set<String> sessions) {
+        try (Cursor cursor = db.rawQuery("SELECT session_id, channel, COUNT(*), SUM(size), SUM(duration_ms),"
+                + " SUM(state = " + STATE_UPLOADED + ") FROM " + TABLE + " WHERE " + where
+                + " GROUP BY session_id, channel", args)) {
+            while (cursor.moveToNext()) {
+                String session = cursor.getString(0);
+                long chunks = cursor.getLong(2);
+                db.execSQL("UPDATE " + SESSIONS + " SET bytes = bytes - ?, chunks = chunks - ?, uploaded = uploaded - ?"
+                        + " WHERE session_id = ?", new Object[]{cursor.getLong(3), chunks, cursor.getLong(5), session});
+                db.execSQL("UPDATE " + SESSION_CHANNELS + " SET duration_ms = duration_ms - ?, chunks = chunks - ?"
+                        + " WHERE session_id = ? AND channel = ?", new Object[]{cursor.getLong(4), chunks, session,
+                        cursor.getString(1)});
+                sessions.add(session);
+            }
+        }
+    }
+
+    /**
+     * 删除分片后移除已经清空的会话，剩余会话的起止时间按分片重新计算（只扫描该会话的分片）
+     */
+    private static void trimSession(SQLiteDatabase db, String session) {
+        Object[] args = {session};
+        db.execSQL("DELETE FROM " + SESSION_CHANNELS + " WHERE session_id = ? AND chunks <= 0", args);
+        db.execSQL("DELETE FROM " + SESSIONS + " WHERE session_id = ? AND chunks <= 0", args);
+        db.execSQL("UPDATE " + SESSIONS
+                + " SET start_ts = (SELECT MIN(timestamp) FROM " + TABLE + " WHERE session_id = ?1),"
+                + " end_ts = (SELECT MAX(timestamp + duration_ms) FROM " + TABLE + " WHERE session_id = ?1)"
+                + " WHERE session_id = ?1", args);
+    }
+
+    private void notifyChanged() {
+        resolver.notifyChange(CONTENT_URI, null);
+    }
+
+    private static String insertSql() {
+        return "INSERT OR IGNORE INTO " + TABLE
+                + " (media_id, storage, file_name, timestamp, session_id, username, channel, chunk_index, size,"
+                + " duration_ms) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    private static void bind(SQLiteStatement statement, Entry entry) {
+        if (entry.storage == STORAGE_MEDIASTORE) {
+            statement.bindLong(1, entry.mediaId);
+        } else {
+            statement.bindNull(1);
+        }
+        statement.bindLong(2, entry.storage);
+        statement.bindString(3, entry.fileName);
+        statement.bindLong(4, entry.timestampMillis);
+        statement.bindString(5, entry.sessionId);
+        statement.bindString(6, entry.username);
+        statement.bindString(7, entry.channel);
+        statement.bindLong(8, entry.index);
+        statement.bindLong(9, entry.size);
+        statement.bindLong(10, entry.durationMillis);
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.voiprecord.store;
+
+import com.example.voiprecord.codec.AudioCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 一个会话中一个声道的分段文件：数据文件（.seg）只追加分片记录，索引文件（.idx）为每条记录保存一个定长条目。
+ * <p>
+ * 数据文件的每条记录为 {@link #RECORD_HEADER_SIZE} 字节的头加负载，小端序：
+ * <pre>
+ * magic(4)  chunkIndex(4)  timestampMillis(8)  length(4)  crc32(4)  codec(1)  reserved(3)  payload(length)
+ * </pre>
+ * WAV 分片的负载是裸 PCM（不含 WAV 头），FLAC 分片是完整的 FLAC 数据。
+ * 索引条目为 {@link #INDEX_ENTRY_SIZE} 字节：记录在数据文件中的偏移 + 与记录头相同的字段（不含 magic）。
+ * <p>
+ * 先写数据再写索引，每次追加不调用 fsync。打开时用内存映射读入索引，丢弃越过数据文件末尾或不连续的条目，
+ * 再从最后一条有效记录之后扫描数据文件，补回索引中缺失的记录（逐条校验 magic 和 CRC），
+ * 截掉末尾写了一半的记录。读取时再校验一次 CRC。
+ * 只读方式打开时同样在内存中补回记录，但不写索引、不截断，也不能追加，用于导出没有在写入的声道。
+ * <p>
+ * 不是线程安全的，由 {@link SegmentedSessionStore} 加锁访问。
+ */
+final class SegmentFile implements Closeable {
+
+    static final String DATA_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int RECORD_MAGIC = 0x31524356; // "VCR1"
+    static final int RECORD_HEADER_SIZE = 28;
+    static final int INDEX_ENTRY_SIZE = 32;
+    // 恢复扫描时认为合法的最大负载，防止损坏的长度字段导致分配过大的缓冲区
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    /**
+     * 一条分片记录的位置和元数据
+     */
+    static final class Record {
+        final long offset;
+        final int index;
+        final long timestampMillis;
+        final int length;
+        final int crc;
+        final AudioCodec codec;
+
+        Record(long offset, int index, long timestampMillis, int length, int crc, AudioCodec codec) {
+            this.offset = offset;
+            this.index = index;
+            this.timestampMillis = timestampMillis;
+            this.length = length;
+            this.crc = crc;
+            this.codec = codec;
+        }
+
+        long end() {
+            return offset + RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private final RandomAccessFile dataFile;
+    // 只读方式打开且索引文件不存在时为 null
+    private final RandomAccessFile indexFile;
+    private final FileChannel data;
+    private final FileChannel indexChannel;
+    private final boolean readOnly;
+    // 按追加顺序排列
+    private final List<Record> records = new ArrayList<>();
+    private final Map<Integer, Record> byIndex = new HashMap<>();
+    private final ByteBuffer header = ByteBuffer.allocateDirect(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer entry = ByteBuffer.allocateDirect(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc32 = new CRC32();
+    private long end;
+    // 打开时从数据文件补回的记录数、截掉的字节数
+    private int recoveredRecords;
+    private long truncatedBytes;
+
+    /**
+     * 打开（不存在时创建）dir 下名为 name 的分段文件，并完成恢复
+     */
+    SegmentFile(File dir, String name) throws IOException {
+        this(dir, name, false);
+    }
+
+    /**
+     * @param readOnly 为 true 时不创建、不修改文件，数据文件必须存在
+     */
+    SegmentFile(File dir, String name, boolean readOnly) throws IOException {
+        this.readOnly = readOnly;
+        String mode = readOnly ? "r" : "rw";
+        dataFile = new RandomAccessFile(new File(dir, name + DATA_SUFFIX), mode);
+        File index = new File(dir, name + INDEX_SUFFIX);
+        try {
+            indexFile = readOnly && !index.isFile() ? null : new RandomAccessFile(index, mode);
+        } catch (IOException e) {
+            dataFile.close();
+            throw e;
+        }
+        data = dataFile.getChannel();
+        indexChannel = indexFile != null ? indexFile.getChannel() : null;
+        try {
+            loadIndex();
+            recoverTail();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    static boolean exists(File dir, String name) {
+        return new File(dir, name + DATA_SUFFIX).isFile();
+    }
+
+    private void loadIndex() throws IOException {
+        if (indexChannel == null) {
+            return;
+        }
+        long dataSize = data.size();
+        int count = (int) (indexChannel.size() / INDEX_ENTRY_SIZE);
+        if (count > 0) {
+            MappedByteBuffer map = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY_SIZE);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                int base = i * INDEX_ENTRY_SIZE;
+                AudioCodec codec = codecOf(map.get(base + 28));
+                Record record = new Record(map.getLong(base), map.getInt(base + 8), map.getLong(base + 12),
+                        map.getInt(base + 20), map.getInt(base + 24), codec);
+                // 索引可能比数据先落到闪存上，越过数据末尾的条目丢弃
+                if (codec == null || record.offset != end || record.length < 0 || record.end() > dataSize) {
+                    break;
+                }
+                add(record);
+            }
+        }
+        if (!readOnly) {
+            indexChannel.truncate((long) records.size() * INDEX_ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * 扫描索引之后的数据，补回写了数据但没来得及写索引的记录，截掉不完整的尾部
+     */
+    private void recoverTail() throws IOException {
+        long dataSize = data.size();
+        while (end + RECORD_HEADER_SIZE <= dataSize) {
+            header.clear();
+            readFully(header, end);
+            int length = header.getInt(16);
+            AudioCodec codec = codecOf(header.get(24));
+            if (header.getInt(0) != RECORD_MAGIC || codec == null || length < 0 || length > MAX_PAYLOAD
+                    || end + RECORD_HEADER_SIZE + length > dataSize) {
+                break;
+            }
+            Record record = new Record(end, header.getInt(4), header.getLong(8), length, header.getInt(20), codec);
+            byte[] payload = readPayload(record);
+            if (payload == null) {
+                break;
+            }
+            if (!readOnly) {
+                writeIndexEntry(record);
+            }
+            add(record);
+            recoveredRecords++;
+        }
+        if (end < dataSize) {
+            truncatedBytes = dataSize - end;
+            if (!readOnly) {
+                data.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录。同一个分片序号已存在时不写入。
+     *
+     * @return 是否写入
+     * @throws IOException 写入失败或以只读方式打开
+     */
+    boolean append(int index, long timestampMillis, AudioCodec codec, byte[] payload, int offset, int length)
+            throws IOException {
+        if (readOnly) {
+            throw new IOException("Segment opened read-only");
+        }
+        if (byIndex.containsKey(index)) {
+            return false;
+        }
+        crc32.reset();
+        crc32.update(payload, offset, length);
+        Record record = new Record(end, index, timestampMillis, length, (int) crc32.getValue(), codec);
+        header.clear();
+        header.putInt(RECORD_MAGIC).putInt(index).putLong(timestampMillis).putInt(length).putInt(record.crc)
+                .put(codeOf(codec)).put((byte) 0).putShort((short) 0);
+        header.flip();
+        ByteBuffer body = ByteBuffer.wrap(payload, offset, length);
+        data.position(end);
+        try {
+            while (header.hasRemaining() || body.hasRemaining()) {
+                data.write(new ByteBuffer[]{header, body});
+            }
+            writeIndexEntry(record);
+        } catch (IOException e) {
+            // 丢弃写了一半的记录，下一次追加从原来的位置开始
+            data.truncate(end);
+            indexChannel.truncate((long) records.size() * INDEX_ENTRY_SIZE);
+            throw e;
+        }
+        add(record);
+        return true;
+    }
+
+    /**
+     * 读取一个分片的负载
+     *
+     * @return 负载；不存在或 CRC 校验失败时返回 null
+     */
+    byte[] read(int index) throws IOException {
+        Record record = byIndex.get(index);
+        return record != null ? readPayload(record) : null;
+    }
+
+    Record get(int index) {
+        return byIndex.get(index);
+    }
+
+    /**
+     * 所有记录，按分片序号排列
+     */
+    List<Record> records() {
+        List<Record> sorted = new ArrayList<>(records);
+        Collections.sort(sorted, (a, b) -> Integer.compare(a.index, b.index));
+        return sorted;
+    }
+
+    /**
+     * 把已写入的数据和索引刷到闪存
+     */
+    void force() throws IOException {
+        if (readOnly) {
+            return;
+        }
+        data.force(false);
+        indexChannel.force(false);
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * 数据文件和索引文件的总字节数
+     */
+    long bytes() {
+        return end + (long) records.size() * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * 只读方式打开时表示尚未写入索引的记录数
+     */
+    int getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /**
+     * 只读方式打开时表示末尾不完整、没有截掉的字节数
+     */
+    long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            dataFile.close();
+        } finally {
+            if (indexFile != null) {
+                indexFile.close();
+            }
+        }
+    }
+
+    private void add(Record record) {
+        records.add(record);
+        byIndex.put(record.index, record);
+        end = record.end();
+    }
+
+    private void writeIndexEntry(Record record) throws IOException {
+        entry.clear();
+        entry.putLong(record.offset).putInt(record.index).putLong(record.timestampMillis).putInt(record.length)
+                .putInt(record.crc).put(codeOf(record.codec)).put((byte) 0).putShort((short) 0);
+        entry.flip();
+        long position = (long) records.size() * INDEX_ENTRY_SIZE;
+        while (entry.hasRemaining()) {
+            position += indexChannel.write(entry, position);
+        }
+    }
+
+    private byte[] readPayload(Record record) throws IOException {
+        byte[] payload = new byte[record.length];
+        readFully(ByteBuffer.wrap(payload), record.offset + RECORD_HEADER_SIZE);
+        crc32.reset();
+        crc32.update(payload, 0, payload.length);
+        return (int) crc32.getValue() == record.crc ? payload : null;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = data.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment at " + position);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 编码在文件中的代号，与枚举顺序无关
+     */
+    private static byte codeOf(AudioCodec codec) {
+        return codec == AudioCodec.FLAC ? (byte) 'F' : (byte) 'W';
+    }
+
+    private static AudioCodec codecOf(byte code) {
+        switch (code) {
+            case 'W':
+                return AudioCodec.WAV;
+            case 'F':
+                return AudioCodec.FLAC;
+            default:
+                return null;
+        }
+    }
+}
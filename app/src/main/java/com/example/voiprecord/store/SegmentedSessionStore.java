@@ -0,0 +1,394 @@
+package com.example.voiprecord.store;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.voiprecord.codec.AudioCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 可选的分片存储引擎：每个会话的每个声道只有一个只追加的分段文件（{@link SegmentFile}），
+ * 代替每个分片一次 MediaStore 插入加一个小文件。文件保存在应用私有目录 files/segments/会话/ 下。
+ * <p>
+ * 分片在 {@link com.example.voiprecord.pipeline.UploadJournal} 中的位置记为
+ * {@code segment:会话/声道/序号}（见 {@link #location}），上传和补传都从这里读取。
+ * 这些分片不出现在 Download/voip 中，但同样记入 {@link RecordIndex}（由上传流水线写入），
+ * 历史记录页面可以看到并用 {@link SessionExporter} 导出。
+ * <p>
+ * 写入中的分段文件保持打开，{@link #closeInactive} 时刷到闪存并关闭，正在录音的会话除外。
+ * 空间配额由 {@link #enforce} 控制，配额由调用方给出（和缓存目录共用的总配额减去缓存目录已用的部分）：每个会话的字节数在第一次使用时列一次目录得到，之后随追加增量更新；
+ * 超额时按会话从最旧的开始整目录删除并删除对应的索引行，正在录音的会话（{@link #setActiveSession}）不删除。
+ * 会话 ID 来自服务器，直接用作目录名，含路径分隔符或为 {@code .}、{@code ..} 的会话不写入也不读取（见 {@link #isValidName}）。
+ * 整个进程共用一个实例，方法都是同步的。
+ */
+public class SegmentedSessionStore {
+    private static final String TAG = "SegmentedSessionStore";
+
+    private static final String DIR_NAME = "segments";
+    private static final String LOCATION_PREFIX = "segment:";
+
+    private static SegmentedSessionStore instance;
+
+    private final File root;
+    private final RecordIndex index;
+    // 会话/声道 -> 已打开的分段文件
+    private final Map<String, SegmentFile> open = new HashMap<>();
+    // 会话 -> 数据和索引文件的总字节数，按会话开始的先后排列，新会话追加在末尾；为 null 表示还没有列过目录
+    private LinkedHashMap<String, Long> sessionBytes;
+    private long totalBytes;
+    private String activeSession;
+
+    public static synchronized SegmentedSessionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SegmentedSessionStore(new File(context.getApplicationContext().getFilesDir(), DIR_NAME),
+                    RecordIndex.getInstance(context));
+        }
+        return instance;
+    }
+
+    SegmentedSessionStore(File root, RecordIndex index) {
+        this.root = root;
+        this.index = index;
+    }
+
+    /**
+     * 分片在日志中的位置
+     */
+    public static String location(String sessionId, String channel, int index) {
+        return LOCATION_PREFIX + sessionId + "/" + channel + "/" + index;
+    }
+
+    public static boolean isLocation(String location) {
+        return location != null && location.startsWith(LOCATION_PREFIX);
+    }
+
+    /**
+     * 正在录音的会话，{@link #enforce} 不删除、{@link #closeInactive} 不关闭；录音结束、流水线排空后由 {@link #finishSession} 清除
+     */
+    public synchronized void setActiveSession(String sessionId) {
+        this.activeSession = sessionId;
+    }
+
+    /**
+     * 会话的上传流水线排空后调用：如果它仍是正在录音的会话就清除，然后关闭它的分段文件。
+     * 排空期间已经开始的新会话不受影响
+     */
+    public synchronized void finishSession(String sessionId) {
+        if (sessionId != null && sessionId.equals(activeSession)) {
+            activeSession = null;
+        }
+        closeInactive();
+    }
+
+    /**
+     * 追加一个分片。WAV 分片传裸 PCM，FLAC 分片传编码结果。
+     *
+     * @return 是否写入成功
+     */
+    public synchronized boolean append(String sessionId, String channel, int index, long timestampMillis,
+                                       AudioCodec codec, byte[] data, int offset, int length) {
+        loadSizes();
+        SegmentFile segment = segment(sessionId, channel, true);
+        if (segment == null) {
+            return false;
+        }
+        try {
+            if (!segment.append(index, timestampMillis, codec, data, offset, length)) {
+                Log.w(TAG, "Chunk already stored: " + location(sessionId, channel, index));
+                return false;
+            }
+            long bytes = SegmentFile.RECORD_HEADER_SIZE + length + SegmentFile.INDEX_ENTRY_SIZE;
+            Long previous = sessionBytes.get(sessionId);
+            sessionBytes.put(sessionId, previous != null ? previous + bytes : bytes);
+            totalBytes += bytes;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "写入分段文件失败: " + location(sessionId, channel, index), e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取一个分片
+     *
+     * @return 分片数据（与 {@link #append} 时传入的相同）；不存在或校验失败时返回 null
+     */
+    public synchronized byte[] read(String sessionId, String channel, int index) {
+        SegmentFile segment = segment(sessionId, channel, false);
+        if (segment == null) {
+            return null;
+        }
+        try {
+            byte[] data = segment.read(index);
+            if (data == null && segment.get(index) != null) {
+                Log.e(TAG, "CRC mismatch: " + location(sessionId, channel, index));
+            }
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "读取分段文件失败: " + location(sessionId, channel, index), e);
+            return null;
+        }
+    }
+
+    /**
+     * 日志中的位置对应的分片是否还在
+     */
+    public synchronized boolean contains(String location) {
+        String[] parts = parseLocation(location);
+        if (parts == null) {
+            return false;
+        }
+        SegmentFile segment = segment(parts[0], parts[1], false);
+        return segment != null && segment.get(Integer.parseInt(parts[2])) != null;
+    }
+
+    /**
+     * 一个声道的所有分片记录，按分片序号排列；声道不存在时返回空列表
+     */
+    synchronized List<SegmentFile.Record> records(String sessionId, String channel) {
+        SegmentFile segment = open.get(key(sessionId, channel));
+        if (segment != null) {
+            return segment.records();
+        }
+        File dir = sessionDir(sessionId, channel);
+        if (dir == null || !SegmentFile.exists(dir, channel)) {
+            return Collections.emptyList();
+        }
+        // 没有在写入的声道只为导出临时以只读方式打开，不截断也不改写索引
+        try (SegmentFile closed = new SegmentFile(dir, channel, true)) {
+            return closed.records();
+        } catch (IOException e) {
+            Log.e(TAG, "打开分段文件失败: " + key(sessionId, channel), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 一个声道的数据文件，分片负载位于 {@link SegmentFile.Record#offset} 加 {@link SegmentFile#RECORD_HEADER_SIZE} 处
+     *
+     * @return 会话 ID 或声道不能用作文件名时返回 null
+     */
+    File dataFile(String sessionId, String channel) {
+        File dir = sessionDir(sessionId, channel);
+        return dir != null ? new File(dir, channel + SegmentFile.DATA_SUFFIX) : null;
+    }
+
+    /**
+     * 把正在录音的会话以外的分段文件刷到闪存并关闭，之后的读写会重新打开。
+     * 每条上传流水线结束时调用，不会关闭另一条流水线仍在写入的文件
+     */
+    public synchronized void closeInactive() {
+        Iterator<Map.Entry<String, SegmentFile>> it = open.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, SegmentFile> e = it.next();
+            if (activeSession != null && e.getKey().startsWith(activeSession + "/")) {
+                continue;
+            }
+            close(e.getKey(), e.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * 超过配额时从最旧的会话开始整目录删除，跳过正在录音的会话，并删除这些会话的索引行。未超额时立即返回
+     *
+     * @return 删除的会话数
+     */
+    public int enforce(long quotaBytes) {
+        List<String> victims = new ArrayList<>();
+        long remaining;
+        synchronized (this) {
+            loadSizes();
+            if (totalBytes <= quotaBytes) {
+                return 0;
+            }
+            Iterator<Map.Entry<String, Long>> it = sessionBytes.entrySet().iterator();
+            while (totalBytes > quotaBytes && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                String sessionId = e.getKey();
+                if (sessionId.equals(activeSession)) {
+                    continue;
+                }
+                closeSession(sessionId);
+                if (!deleteDir(new File(root, sessionId))) {
+                    Log.w(TAG, "会话目录未完全删除: " + sessionId);
+                }
+                totalBytes -= e.getValue();
+                it.remove();
+                victims.add(sessionId);
+            }
+            remaining = totalBytes;
+        }
+        for (String sessionId : victims) {
+            index.deleteSegments(sessionId);
+        }
+        Log.i(TAG, "Evicted " + victims.size() + " segmented sessions, now " + remaining / (1024 * 1024) + "MB");
+        return victims.size();
+    }
+
+    /**
+     * 第一次使用时列一次目录，得到每个会话的字节数，按目录的修改时间（声道文件创建时更新，约为开始录音的时间）排列
+     */
+    private void loadSizes() {
+        if (sessionBytes != null) {
+            return;
+        }
+        sessionBytes = new LinkedHashMap<>();
+        totalBytes = 0;
+        File[] sessions = root.listFiles(File::isDirectory);
+        if (sessions == null) {
+            return;
+        }
+        long[] modified = new long[sessions.length];
+        Integer[] order = new Integer[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            modified[i] = sessions[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        for (int i : order) {
+            long size = sizeOf(sessions[i]);
+            sessionBytes.put(sessions[i].getName(), size);
+            totalBytes += size;
+        }
+        Log.i(TAG, "Segment sizes loaded: " + sessions.length + " sessions, " + totalBytes / (1024 * 1024) + "MB");
+    }
+
+    /**
+     * 关闭一个会话所有打开的分段文件
+     */
+    private void closeSession(String sessionId) {
+        String prefix = sessionId + "/";
+        Iterator<Map.Entry<String, SegmentFile>> it = open.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, SegmentFile> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                close(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static void close(String key, SegmentFile segment) {
+        try {
+            segment.force();
+            segment.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭分段文件失败: " + key, e);
+        }
+    }
+
+    /**
+     * 取得已打开的分段文件，必要时打开；create 为 false 且文件不存在时返回 null
+     */
+    private SegmentFile segment(String sessionId, String channel, boolean create) {
+        String key = key(sessionId, channel);
+        SegmentFile segment = open.get(key);
+        if (segment != null) {
+            return segment;
+        }
+        File dir = sessionDir(sessionId, channel);
+        if (dir == null || !create && !SegmentFile.exists(dir, channel)) {
+            return null;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "创建目录失败: " + dir);
+            return null;
+        }
+        try {
+            segment = new SegmentFile(dir, channel);
+        } catch (IOException e) {
+            Log.e(TAG, "打开分段文件失败: " + key, e);
+            return null;
+        }
+        if (segment.getRecoveredRecords() > 0 || segment.getTruncatedBytes() > 0) {
+            Log.w(TAG, "Recovered segment " + key + ": " + segment.getRecoveredRecords() + " records re-indexed, "
+                    + segment.getTruncatedBytes() + " torn bytes truncated");
+        }
+        open.put(key, segment);
+        return segment;
+    }
+
+    /**
+     * @return {会话, 声道, 序号}，格式不对时返回 null
+     */
+    private static String[] parseLocation(String location) {
+        if (!isLocation(location)) {
+            return null;
+        }
+        String[] parts = location.substring(LOCATION_PREFIX.length()).split("/");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return parts;
+    }
+
+    /**
+     * 会话目录；会话 ID 或声道不能安全地用作文件名时记录错误并返回 null
+     */
+    private File sessionDir(String sessionId, String channel) {
+        if (!isValidName(sessionId) || !isValidName(channel)) {
+            Log.e(TAG, "Invalid segment path: " + sessionId + "/" + channel);
+            return null;
+        }
+        return new File(root, sessionId);
+    }
+
+    /**
+     * 能否直接用作一级目录名或文件名：非空，不是 . 或 ..，不含路径分隔符和控制字符
+     */
+    static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '/' || c == '\\' || c < 0x20 || c == 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String key(String sessionId, String channel) {
+        return sessionId + "/" + channel;
+    }
+
+    private static long sizeOf(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    private static boolean deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete()) {
+                    Log.w(TAG, "删除失败: " + f);
+                }
+            }
+        }
+        return dir.delete();
+    }
+}
@@ -0,0 +1,390 @@
+package com.example.voiprecord.store;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.example.voiprecord.VoipRecordService;
+import com.example.voiprecord.codec.AudioCodec;
+import com.example.voiprecord.codec.WavStreamWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 把一个会话的录音分片拼接成一个完整的 WAV 文件，保存到 Download/voip_export。
+ * <p>
+ * 单声道导出先写占位的 WAV 头，再用 {@link FileChannel#transferTo} 把每个分片的 data 块直接拷贝到目标文件，
+ * 数据不经过 Java 堆；立体声导出把两个声道的 PCM 读入固定大小的直接缓冲区交错写出。
+ * 两种方式内存占用都与通话时长无关，最后用 {@link WavStreamWriter#patchSizes} 回填长度。
+ * <p>
+ * 导出按分片序号排列时间轴：缺失的序号（静音标记、FLAC 分片、被丢弃或被配额清理的分片）写入一个分片长度的静音，
+ * 分片长度取该会话最长的 WAV 分片。立体声导出时两个声道按序号逐个对齐，同一序号两侧取较长的一侧，
+ * 短的一侧补静音，因此一侧缺失分片不会让两个声道错位。
+ * 保存在 {@link SegmentedSessionStore} 分段文件中的 WAV 分片与 MediaStore 分片按序号合并，直接从数据文件中
+ * 记录负载的位置读取（不校验 CRC）。{@link #exportChunk} 用同样的方式导出单个分片。
+ * 导出是阻塞的，应在后台线程调用。
+ */
+public class SessionExporter {
+    private static final String TAG = "SessionExporter";
+
+    private static final String EXPORT_PATH = Environment.DIRECTORY_DOWNLOADS + "/voip_export";
+    // 立体声混合时每个声道每次读取的字节数，也是写静音时每次写入的字节数
+    private static final int MIX_BUFFER_BYTES = 64 * 1024;
+    // 读取分片 WAV 头时最多查看的字节数
+    private static final int MAX_HEADER_BYTES = 4096;
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final ContentResolver resolver;
+    private final RecordIndex index;
+    private final SegmentedSessionStore segments;
+
+    public SessionExporter(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.index = RecordIndex.getInstance(context);
+        this.segments = SegmentedSessionStore.getInstance(context);
+    }
+
+    /**
+     * 一个分片的 PCM 在文件中的位置：MediaStore 分片为 WAV 文件的 data 块，分段文件中的分片为记录的负载
+     */
+    private static final class ChunkData {
+        // 分段文件中的分片为 -1
+        final long mediaId;
+        // 分段文件的数据文件，MediaStore 分片为 null
+        final File file;
+        final long offset;
+        final long length;
+
+        ChunkData(long mediaId, File file, long offset, long length) {
+            this.mediaId = mediaId;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 导出一个声道
+     *
+     * @return 导出文件的 Uri，没有可导出的分片或失败时返回 null
+     */
+    public Uri exportChannel(String sessionId, String channel) {
+        TreeMap<Integer, ChunkData> layout = layout(sessionId, channel, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (layout.isEmpty()) {
+            Log.w(TAG, "No WAV chunks to export for " + sessionId + "/" + channel);
+            return null;
+        }
+        return exportMono("voip_" + sessionId + "_" + channel + ".wav", layout, sessionId + "/" + channel);
+    }
+
+    /**
+     * 把一个 WAV 分片导出为单独的文件，分片可以在 MediaStore 或分段文件中
+     *
+     * @return 导出文件的 Uri，分片不存在或失败时返回 null
+     */
+    public Uri exportChunk(String sessionId, String channel, int chunkIndex) {
+        TreeMap<Integer, ChunkData> layout = layout(sessionId, channel, chunkIndex, chunkIndex);
+        if (layout.isEmpty()) {
+            Log.w(TAG, "No WAV chunk to export: " + sessionId + "/" + channel + "#" + chunkIndex);
+            return null;
+        }
+        return exportMono("voip_" + sessionId + "_" + channel + "_" + chunkIndex + ".wav", layout,
+                sessionId + "/" + channel + "#" + chunkIndex);
+    }
+
+    /**
+     * 按序号把分片的 PCM 依次 transferTo 到一个单声道文件，缺失的序号补静音
+     */
+    private Uri exportMono(String fileName, TreeMap<Integer, ChunkData> layout, String label) {
+        long start = System.currentTimeMillis();
+        Uri target = createExportEntry(fileName);
+        if (target == null) {
+            return null;
+        }
+        long chunkBytes = nominalChunkBytes(layout);
+        ByteBuffer silence = ByteBuffer.allocateDirect(MIX_BUFFER_BYTES);
+        long dataBytes = 0;
+        int gaps = 0;
+        try (FileChannel out = openForWrite(target)) {
+            out.write(new WavStreamWriter(VoipRecordService.SAMPLE_RATE, 1, 16).headerBuffer(0));
+            for (int i = layout.firstKey(); i <= layout.lastKey(); i++) {
+                ChunkData data = layout.get(i);
+                if (data == null) {
+                    dataBytes += writeSilence(out, silence, chunkBytes);
+                    gaps++;
+                    continue;
+                }
+                try (FileChannel in = openForRead(data)) {
+                    long position = data.offset;
+                    long end = data.offset + data.length;
+                    while (position < end) {
+                        long n = in.transferTo(position, end - position, out);
+                        if (n <= 0) {
+                            throw new IOException("transferTo made no progress for chunk " + i);
+                        }
+                        position += n;
+                    }
+                }
+                dataBytes += data.length;
+            }
+            WavStreamWriter.patchSizes(out, dataBytes);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Export failed: " + label, e);
+            resolver.delete(target, null, null);
+            return null;
+        }
+        if (gaps > 0) {
+            Log.i(TAG, "Filled " + gaps + " missing chunks of " + label + " with silence");
+        }
+        return publish(target, layout.size(), dataBytes, start);
+    }
+
+    /**
+     * 把两个声道混合为一个立体声文件，left 为左声道
+     *
+     * @return 导出文件的 Uri，没有可导出的分片或失败时返回 null
+     */
+    public Uri exportStereo(String sessionId, String left, String right) {
+        TreeMap<Integer, ChunkData> leftLayout = layout(sessionId, left, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        TreeMap<Integer, ChunkData> rightLayout = layout(sessionId, right, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (leftLayout.isEmpty() && rightLayout.isEmpty()) {
+            Log.w(TAG, "No WAV chunks to export for " + sessionId);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Uri target = createExportEntry("voip_" + sessionId + "_stereo.wav");
+        if (target == null) {
+            return null;
+        }
+        int first = Math.min(firstKey(leftLayout, Integer.MAX_VALUE), firstKey(rightLayout, Integer.MAX_VALUE));
+        int last = Math.max(lastKey(leftLayout, Integer.MIN_VALUE), lastKey(rightLayout, Integer.MIN_VALUE));
+        long chunkBytes = Math.max(nominalChunkBytes(leftLayout), nominalChunkBytes(rightLayout));
+        long dataBytes = 0;
+        ByteBuffer leftBuffer = ByteBuffer.allocateDirect(MIX_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer rightBuffer = ByteBuffer.allocateDirect(MIX_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer mixed = ByteBuffer.allocateDirect(MIX_BUFFER_BYTES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel out = openForWrite(target)) {
+            out.write(new WavStreamWriter(VoipRecordService.SAMPLE_RATE, 2, 16).headerBuffer(0));
+            for (int i = first; i <= last; i++) {
+                ChunkData l = leftLayout.get(i);
+                ChunkData r = rightLayout.get(i);
+                // 同一序号两侧写出相同的采样数，保证两个声道始终对齐
+                long slot = l == null && r == null ? chunkBytes
+                        : Math.max(l != null ? l.length : 0, r != null ? r.length : 0);
+                try (FileChannel leftIn = l != null ? openForRead(l) : null;
+                     FileChannel rightIn = r != null ? openForRead(r) : null) {
+                    for (long position = 0; position < slot; position += MIX_BUFFER_BYTES) {
+                        int length = (int) Math.min(MIX_BUFFER_BYTES, slot - position);
+                        int leftBytes = readAt(leftIn, l, position, length, leftBuffer);
+                        int rightBytes = readAt(rightIn, r, position, length, rightBuffer);
+                        mixed.clear();
+                        for (int offset = 0; offset < length; offset += BYTES_PER_SAMPLE) {
+                            mixed.putShort(offset < leftBytes ? leftBuffer.getShort(offset) : 0);
+                            mixed.putShort(offset < rightBytes ? rightBuffer.getShort(offset) : 0);
+                        }
+                        mixed.flip();
+                        while (mixed.hasRemaining()) {
+                            out.write(mixed);
+                        }
+                    }
+                }
+                dataBytes += slot * 2;
+            }
+            WavStreamWriter.patchSizes(out, dataBytes);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Stereo export failed: " + sessionId, e);
+            resolver.delete(target, null, null);
+            return null;
+        }
+        return publish(target, leftLayout.size() + rightLayout.size(), dataBytes, start);
+    }
+
+    /**
+     * 序号在 [from, to] 内的分片：读取每个 MediaStore 分片的 WAV 头找到 data 块，格式不对或打不开的分片当作缺失；
+     * 再加入分段文件中的 WAV 分片（写入分段文件失败时才会退回 MediaStore，两者的序号不重叠）
+     */
+    private TreeMap<Integer, ChunkData> layout(String sessionId, String channel, int from, int to) {
+        TreeMap<Integer, Long> chunks = index.queryChunkMediaIds(sessionId, channel, AudioCodec.WAV.getExtension());
+        TreeMap<Integer, ChunkData> layout = new TreeMap<>();
+        for (Map.Entry<Integer, Long> e : chunks.subMap(from, true, to, true).entrySet()) {
+            long id = e.getValue();
+            try (FileChannel in = openForRead(id)) {
+                long[] data = findData(in, 1);
+                if (data == null) {
+                    Log.w(TAG, "Skipping chunk with unexpected format: " + id);
+                    continue;
+                }
+                layout.put(e.getKey(), new ChunkData(id, null, data[0], data[1]));
+            } catch (IOException | RuntimeException ex) {
+                Log.w(TAG, "Skipping unreadable chunk: " + id, ex);
+            }
+        }
+        File file = segments.dataFile(sessionId, channel);
+        for (SegmentFile.Record record : segments.records(sessionId, channel)) {
+            if (record.codec == AudioCodec.WAV && record.index >= from && record.index <= to) {
+                layout.putIfAbsent(record.index, new ChunkData(-1, file,
+                        record.offset + SegmentFile.RECORD_HEADER_SIZE, record.length & ~1L));
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * 缺失分片按这个长度补静音：除最后一个分片外，同一会话的分片长度相同
+     */
+    private static long nominalChunkBytes(TreeMap<Integer, ChunkData> layout) {
+        long max = 0;
+        for (ChunkData data : layout.values()) {
+            max = Math.max(max, data.length);
+        }
+        return max;
+    }
+
+    private static int firstKey(TreeMap<Integer, ?> map, int empty) {
+        return map.isEmpty() ? empty : map.firstKey();
+    }
+
+    private static int lastKey(TreeMap<Integer, ?> map, int empty) {
+        return map.isEmpty() ? empty : map.lastKey();
+    }
+
+    /**
+     * 从分片 data 块的 position 处读取最多 length 字节到 dst
+     *
+     * @return 读入的字节数，分片缺失或已读完时为 0
+     */
+    private static int readAt(FileChannel in, ChunkData data, long position, int length, ByteBuffer dst)
+            throws IOException {
+        dst.clear();
+        if (in == null || position >= data.length) {
+            return 0;
+        }
+        dst.limit((int) Math.min(length, data.length - position));
+        while (dst.hasRemaining()) {
+            if (in.read(dst, data.offset + position + dst.position()) < 0) {
+                // 文件比头部声明的短，剩下的按静音处理
+                break;
+            }
+        }
+        return dst.position();
+    }
+
+    /**
+     * 写入 bytes 字节的静音
+     */
+    private static long writeSilence(FileChannel out, ByteBuffer silence, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            silence.clear();
+            silence.limit((int) Math.min(silence.capacity(), remaining));
+            while (silence.hasRemaining()) {
+                remaining -= out.write(silence);
+            }
+        }
+        return bytes;
+    }
+
+    private FileChannel openForRead(ChunkData data) throws IOException {
+        return data.file != null ? new FileInputStream(data.file).getChannel() : openForRead(data.mediaId);
+    }
+
+    private FileChannel openForRead(long mediaId) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(
+                ContentUris.withAppendedId(collection(), mediaId), "r");
+        if (pfd == null) {
+            throw new IOException("Cannot open chunk " + mediaId);
+        }
+        // 关闭通道时一并关闭文件描述符
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        return in.getChannel();
+    }
+
+    private FileChannel openForWrite(Uri uri) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "rw");
+        if (pfd == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+        return out.getChannel();
+    }
+
+    /**
+     * 解析分片的 WAV 头，找到 data 块
+     *
+     * @return {data 块起始位置, data 块字节数}；不是 16 位、{@link VoipRecordService#SAMPLE_RATE} 采样率、
+     * 给定声道数的 PCM WAV 时返回 null
+     */
+    static long[] findData(FileChannel channel, int channels) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        int read = Math.max(0, channel.read(header, 0));
+        if (read < 12 || header.getInt(0) != 0x46464952 /* RIFF */ || header.getInt(8) != 0x45564157 /* WAVE */) {
+            return null;
+        }
+        long fileSize = channel.size();
+        boolean formatOk = false;
+        int offset = 12;
+        while (offset + 8 <= read) {
+            int id = header.getInt(offset);
+            long size = header.getInt(offset + 4) & 0xFFFFFFFFL;
+            if (id == 0x20746d66 /* fmt  */) {
+                if (offset + 24 > read) {
+                    return null;
+                }
+                formatOk = header.getShort(offset + 8) == 1
+                        && header.getShort(offset + 10) == channels
+                        && header.getInt(offset + 12) == VoipRecordService.SAMPLE_RATE
+                        && header.getShort(offset + 22) == 16;
+            } else if (id == 0x61746164 /* data */) {
+                if (!formatOk) {
+                    return null;
+                }
+                long start = offset + 8;
+                return new long[]{start, Math.min(size, fileSize - start) & ~1L};
+            }
+            // 块长度为奇数时有一个填充字节
+            offset += 8 + (int) Math.min(size + (size & 1), MAX_HEADER_BYTES);
+        }
+        return null;
+    }
+
+    private Uri createExportEntry(String fileName) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, AudioCodec.WAV.getMediaType().toString());
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, EXPORT_PATH);
+        // 写完之前其他应用看不到这个文件
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = resolver.insert(collection(), values);
+        if (uri == null) {
+            Log.e(TAG, "创建文件失败: " + fileName);
+        }
+        return uri;
+    }
+
+    private Uri publish(Uri target, int chunks, long dataBytes, long startMillis) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        resolver.update(target, values, null, null);
+        Log.i(TAG, "Exported " + chunks + " chunks, " + dataBytes / 1024 + "KB PCM to " + target
+                + " in " + (System.currentTimeMillis() - startMillis) + "ms");
+        return target;
+    }
+
+    private static Uri collection() {
+        return MediaStore.Downloads.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.voiprecord.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时推送截图的发送器，协议与 voip_server_4.py 的 8003 端口一致：没有握手，
+ * 每张图片为 4 字节大端长度 + JPEG 数据（开启分块增量时为 VTD1 帧，见 TileDeltaFormat）。
+ * <p>
+ * 只保留最新的一张待发送截图：上一张还没发出去时新的截图会覆盖它，避免延迟累积。
+ */
+public class JpegStreamSender extends StreamSender {
+
+    private final Object lock = new Object();
+    private final byte[] header = new byte[4];
+    private byte[] pending = new byte[0];
+    private int pendingLength = -1;
+    private byte[] sending = new byte[0];
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    public JpegStreamSender(String name, String host, int port) {
+        super(name, host, port);
+    }
+
+    /**
+     * 由截图线程调用，非阻塞；数据会被拷贝
+     */
+    public void offer(byte[] jpeg, int length) {
+        if (!isRunning()) {
+            return;
+        }
+        synchronized (lock) {
+            if (pendingLength >= 0) {
+                droppedFrames.incrementAndGet();
+            }
+            if (pending.length < length) {
+                pending = new byte[length];
+            }
+            System.arraycopy(jpeg, 0, pending, 0, length);
+            pendingLength = length;
+            lock.notifyAll();
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    protected void writeHandshake(OutputStream out) {
+        // 截图端口没有握手
+    }
+
+    @Override
+    protected int writePending(OutputStream out) throws IOException, InterruptedException {
+        int length;
+        synchronized (lock) {
+            while (pendingLength < 0) {
+                if (!isRunning()) {
+                    return -1;
+                }
+                lock.wait(1000);
+            }
+            // 交换两个缓冲区，发送期间截图线程可以写入新的一张
+            byte[] tmp = sending;
+            sending = pending;
+            pending = tmp;
+            length = pendingLength;
+            pendingLength = -1;
+        }
+        header[0] = (byte) (length >>> 24);
+        header[1] = (byte) (length >>> 16);
+        header[2] = (byte) (length >>> 8);
+        header[3] = (byte) length;
+        out.write(header);
+        out.write(sending, 0, length);
+        return length + 4;
+    }
+
+    @Override
+    protected void wakeUp() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
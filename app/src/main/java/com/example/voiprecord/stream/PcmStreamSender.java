@@ -0,0 +1,120 @@
+package com.example.voiprecord.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时推送 16 位 PCM 的发送器，协议与 voip_server_4.py 的 8001/8002 端口一致：
+ * 连接后先发 4 字节大端用户名长度 + UTF-8 用户名，之后是连续的原始 PCM。
+ * <p>
+ * 录音线程每读到一帧（20~100ms）就调用 {@link #offer(byte[], int, int)}，数据拷贝进预分配的环形缓冲区后立即返回。
+ * 缓冲区最多保存 maxLatencyMs 的音频，网络跟不上或断线时丢弃最旧的数据，
+ * 因此服务端听到的延迟不会超过这个上限。稳态下不分配内存。
+ */
+public class PcmStreamSender extends StreamSender {
+
+    private final byte[] handshake;
+    private final byte[] ring;
+    private final byte[] sendBuffer;
+    private final Object lock = new Object();
+    private int readPos;
+    private int available;
+
+    private final AtomicLong droppedBytes = new AtomicLong();
+
+    /**
+     * @param capacityBytes 缓冲区大小，决定最大延迟，例如 500ms 的 PCM
+     * @param frameBytes    每次写入 socket 的最大字节数，一般为一帧
+     */
+    public PcmStreamSender(String name, String host, int port, String username, int capacityBytes, int frameBytes) {
+        super(name, host, port);
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        this.handshake = new byte[4 + user.length];
+        handshake[0] = (byte) (user.length >>> 24);
+        handshake[1] = (byte) (user.length >>> 16);
+        handshake[2] = (byte) (user.length >>> 8);
+        handshake[3] = (byte) user.length;
+        System.arraycopy(user, 0, handshake, 4, user.length);
+        // 按采样对齐，丢弃时不会把一个采样拆开
+        this.ring = new byte[capacityBytes - capacityBytes % 2];
+        this.sendBuffer = new byte[Math.min(frameBytes, ring.length)];
+    }
+
+    /**
+     * 由录音线程调用，非阻塞
+     */
+    public void offer(byte[] pcm, int offset, int length) {
+        if (!isRunning() || length <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (length > ring.length) {
+                // 单次数据超过缓冲区，只保留最新的部分
+                int skip = length - ring.length;
+                droppedBytes.addAndGet(skip);
+                offset += skip;
+                length = ring.length;
+            }
+            int overflow = available + length - ring.length;
+            if (overflow > 0) {
+                overflow = Math.min(overflow + overflow % 2, available);
+                readPos = (readPos + overflow) % ring.length;
+                available -= overflow;
+                droppedBytes.addAndGet(overflow);
+            }
+            int writePos = (readPos + available) % ring.length;
+            int first = Math.min(length, ring.length - writePos);
+            System.arraycopy(pcm, offset, ring, writePos, first);
+            System.arraycopy(pcm, offset + first, ring, 0, length - first);
+            available += length;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 因网络跟不上或断线而丢弃的字节数
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    @Override
+    protected void writeHandshake(OutputStream out) throws IOException {
+        out.write(handshake);
+    }
+
+    @Override
+    protected int writePending(OutputStream out) throws IOException, InterruptedException {
+        int count;
+        synchronized (lock) {
+            while (available == 0) {
+                if (!isRunning()) {
+                    return -1;
+                }
+                lock.wait(1000);
+            }
+            count = Math.min(available, sendBuffer.length);
+            count -= count % 2;
+            if (count == 0) {
+                count = available;
+            }
+            int first = Math.min(count, ring.length - readPos);
+            System.arraycopy(ring, readPos, sendBuffer, 0, first);
+            System.arraycopy(ring, 0, sendBuffer, first, count - first);
+            readPos = (readPos + count) % ring.length;
+            available -= count;
+        }
+        // 写 socket 时不持有锁，录音线程可以继续 offer
+        out.write(sendBuffer, 0, count);
+        return count;
+    }
+
+    @Override
+    protected void wakeUp() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
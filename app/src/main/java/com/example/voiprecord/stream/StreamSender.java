@@ -0,0 +1,157 @@
+package com.example.voiprecord.stream;
+
+import android.util.Log;
+
+import com.example.voiprecord.task.TaskScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 原始 TCP 推流的发送线程基类，负责连接、握手、断线重连。
+ * <p>
+ * 生产者（录音/截图线程）只把数据交给子类的缓冲区后立即返回，从不阻塞在网络上；
+ * 发送线程取出数据写入 socket。断线后按 {@link #MIN_RECONNECT_DELAY_MS} ~ {@link #MAX_RECONNECT_DELAY_MS}
+ * 指数退避重连，重连后重新握手。缓冲区有界，网络跟不上时由子类丢弃最旧的数据，保证延迟不会累积。
+ */
+public abstract class StreamSender {
+    private static final String TAG = "StreamSender";
+
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final long MIN_RECONNECT_DELAY_MS = 500;
+    private static final long MAX_RECONNECT_DELAY_MS = 5000;
+
+    private final String name;
+    private final String host;
+    private final int port;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private Future<?> task;
+    private volatile boolean running;
+    private volatile Socket socket;
+
+    protected StreamSender(String name, String host, int port) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 在 {@link TaskScheduler.Stage#NETWORK} 上运行发送循环，直到 {@link #stop()}
+     */
+    public void start(TaskScheduler scheduler) {
+        running = true;
+        task = scheduler.submit(TaskScheduler.Stage.NETWORK, this::sendLoop);
+    }
+
+    /**
+     * 停止发送并关闭连接，缓冲区中未发送的数据被丢弃
+     */
+    public void stop() {
+        running = false;
+        wakeUp();
+        closeSocket();
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isConnected() {
+        Socket s = socket;
+        return s != null && s.isConnected() && !s.isClosed();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * 连接建立后写入握手数据
+     */
+    protected abstract void writeHandshake(OutputStream out) throws IOException;
+
+    /**
+     * 阻塞等待待发送的数据并写入 out（不需要 flush）
+     *
+     * @return 写入的字节数；发送线程应当退出时返回 -1
+     */
+    protected abstract int writePending(OutputStream out) throws IOException, InterruptedException;
+
+    /**
+     * 停止时唤醒阻塞在 {@link #writePending} 中的发送线程
+     */
+    protected abstract void wakeUp();
+
+    private void sendLoop() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+        while (running) {
+            try {
+                Socket s = new Socket();
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                socket = s;
+                Log.i(TAG, name + " connected to " + host + ":" + port);
+                OutputStream out = new BufferedOutputStream(s.getOutputStream(), 8192);
+                writeHandshake(out);
+                out.flush();
+                reconnectDelay = MIN_RECONNECT_DELAY_MS;
+
+                while (running) {
+                    int written = writePending(out);
+                    if (written < 0) {
+                        break;
+                    }
+                    out.flush();
+                    bytesSent.addAndGet(written);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                Log.w(TAG, name + " stream error: " + e.getMessage() + ", reconnect in " + reconnectDelay + "ms");
+            } finally {
+                closeSocket();
+            }
+
+            if (!running) {
+                break;
+            }
+            reconnects.incrementAndGet();
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+        }
+        Log.i(TAG, name + " stream finished, sent " + bytesSent.get() + " bytes");
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        socket = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.voiprecord.stream;
+
+/**
+ * 录音数据的传输方式，本地设置 "transport_mode"
+ */
+public enum TransportMode {
+    // 按分片落盘并通过 HTTP 上传（默认）
+    HTTP_CHUNKED(true, false),
+    // 只通过原始 TCP 实时推流（voip_server_4.py 协议），不落盘
+    STREAM(false, true),
+    // 同时使用两种方式：实时监听 + 完整存档
+    BOTH(true, true);
+
+    private final boolean http;
+    private final boolean stream;
+
+    TransportMode(boolean http, boolean stream) {
+        this.http = http;
+        this.stream = stream;
+    }
+
+    public boolean usesHttp() {
+        return http;
+    }
+
+    public boolean usesStream() {
+        return stream;
+    }
+
+    public static TransportMode fromName(String name, TransportMode defaultMode) {
+        for (TransportMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return defaultMode;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.voiprecord.task;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 录音服务的统一线程调度：每个阶段一个命名、带线程优先级、线程数有上限的执行器，
+ * 由服务在 onCreate 创建、onDestroy 关闭，不再到处创建裸线程，Activity 重建也不会重复启动后台任务。
+ * <p>
+ * 录音循环、落盘/上传循环、推流发送循环这类常驻任务会一直占用一个线程，各阶段的线程数按常驻任务数加余量设置，
+ * 同时也就限制了每个阶段最多占用的 CPU。截图采集需要 Looper，仍然使用 {@code ScreenCapturer} 自己的 HandlerThread，
+ * 它同样与服务同生命周期。
+ */
+public final class TaskScheduler {
+    private static final String TAG = "TaskScheduler";
+
+    public enum Stage {
+        /**
+         * 实时采集：两个声道的 AudioRecord.read 循环
+         */
+        CAPTURE("capture", 2, Process.THREAD_PRIORITY_URGENT_AUDIO),
+        /**
+         * 编码与落盘
+         */
+        ENCODE("encode", 2, Process.THREAD_PRIORITY_DEFAULT),
+        /**
+         * 网络 I/O：上传循环、推流、心跳、会话的建立和关闭
+         */
+        NETWORK("network", 8, Process.THREAD_PRIORITY_DEFAULT),
+        /**
+         * 后台维护：清理缓存文件、质量控制等周期任务
+         */
+        HOUSEKEEPING("housekeeping", 1, Process.THREAD_PRIORITY_BACKGROUND);
+
+        final String threadName;
+        final int threads;
+        final int priority;
+
+        Stage(String threadName, int threads, int priority) {
+            this.threadName = threadName;
+            this.threads = threads;
+            this.priority = priority;
+        }
+    }
+
+    private final Map<Stage, ScheduledThreadPoolExecutor> executors = new EnumMap<>(Stage.class);
+
+    public TaskScheduler() {
+        for (Stage stage : Stage.values()) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(stage.threads, new StageThreadFactory(stage));
+            // 取消的周期任务立即移出队列
+            executor.setRemoveOnCancelPolicy(true);
+            executors.put(stage, executor);
+        }
+    }
+
+    /**
+     * 某个阶段的执行器，供需要自己安排周期任务的组件使用；不要关闭它
+     */
+    public ScheduledExecutorService executor(Stage stage) {
+        return executors.get(stage);
+    }
+
+    public Future<?> submit(Stage stage, Runnable task) {
+        return executors.get(stage).submit(logged(task));
+    }
+
+    public <T> Future<T> submit(Stage stage, Callable<T> task) {
+        return executors.get(stage).submit(task);
+    }
+
+    public ScheduledFuture<?> schedule(Stage stage, Runnable task, long delay, TimeUnit unit) {
+        return executors.get(stage).schedule(logged(task), delay, unit);
+    }
+
+    /**
+     * 周期任务抛出异常后不再继续执行，这里的任务自己处理异常，记录日志后继续下一次
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Stage stage, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return executors.get(stage).scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Periodic task failed", e);
+            }
+        }, initialDelay, delay, unit);
+    }
+
+    public boolean isShutdown() {
+        return executors.get(Stage.NETWORK).isShutdown();
+    }
+
+    /**
+     * 不再接收新任务，取消所有周期任务和延迟任务；正在执行和已经排队的任务（例如停止录音后剩余分片的上传，
+     * 它自己有超时）继续执行完，之后线程退出。不阻塞调用线程。
+     */
+    public void shutdown() {
+        for (ScheduledThreadPoolExecutor executor : executors.values()) {
+            executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 在 {@link #shutdown()} 之后等待所有任务结束，超时后中断仍在运行的任务。会阻塞调用线程最多 timeoutMs。
+     *
+     * @return 是否在超时前全部结束
+     */
+    public boolean awaitTermination(long timeoutMs) {
+        boolean terminated = true;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Map.Entry<Stage, ScheduledThreadPoolExecutor> e : executors.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!e.getValue().awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, e.getKey() + " tasks still running after " + timeoutMs + "ms, interrupting.");
+                    e.getValue().shutdownNow();
+                    terminated = false;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                e.getValue().shutdownNow();
+                terminated = false;
+            }
+        }
+        return terminated;
+    }
+
+    /**
+     * 等待任务结束，最多 timeoutMs；超时、被取消或任务抛出异常时只记录日志
+     *
+     * @return 任务是否在超时前结束
+     */
+    public static boolean await(Future<?> future, long timeoutMs) {
+        if (future == null) {
+            return true;
+        }
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Task did not finish within " + timeoutMs + "ms");
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Task failed", e.getCause());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (CancellationException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Future 会吞掉任务的异常，没有人调用 get 时异常就丢失了，这里先记录日志
+     */
+    private static Runnable logged(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Task failed", e);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 线程名为 voip-阶段-序号，线程启动后设置阶段对应的 Linux 线程优先级
+     */
+    private static final class StageThreadFactory implements ThreadFactory {
+        private final Stage stage;
+        private final AtomicInteger count = new AtomicInteger();
+
+        StageThreadFactory(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(() -> {
+                Process.setThreadPriority(stage.priority);
+                r.run();
+            }, "voip-" + stage.threadName + "-" + count.incrementAndGet());
+        }
+    }
+}
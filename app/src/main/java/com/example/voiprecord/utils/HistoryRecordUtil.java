@@ -5,14 +5,9 @@ import static androidx.constraintlayout.helper.widget.MotionEffect.TAG;
 import android.os.Environment;
 import android.util.Log;
 
-import com.example.voiprecord.MainActivity;
-import com.example.voiprecord.damain.FileRecordHistory;
+import com.example.voiprecord.codec.WavStreamWriter;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -22,142 +17,111 @@ import android.os.Build;
 import android.provider.MediaStore;
 import java.io.OutputStream;
 import java.io.IOException;
-import java.util.stream.Collectors;
 
 public class HistoryRecordUtil {
 
-    public static void deleteFile() {
-        // 这里的逻辑和方案一中的 checkAndCleanVoipFolder 方法完全一样
-        Thread deleteRecordFile = new Thread(() -> {
-            while (true) {
-
-                try {
-                    // 这里的逻辑和方案一中的 checkAndCleanVoipFolder 方法完全一样
-                    File directory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-                    if (!directory.exists()) {
-                        return;
-                    }
-
-                    FileFilter pcmFileFilter = file -> file.isFile() && file.getName().endsWith(".wav");
-                    File[] files = directory.listFiles(pcmFileFilter);
-                    if (files == null || files.length == 0) {
-                        return;
-                    }
-
-                    List<File> wavFiles = new ArrayList<>();
-                    long currentTotalSize = 0;
-                    for (File file : files) {
-                        currentTotalSize += file.length();
-                        wavFiles.add(file);
-                    }
-
-                    if (currentTotalSize >= MainActivity.MAX_FOLDER_SIZE_BYTES) {
-                        wavFiles.sort((a, b) -> {
-                            Integer numa = Integer.parseInt(a.getName().split("=")[0]);
-                            Integer numb = Integer.parseInt(b.getName().split("=")[0]);
-                            return numa.compareTo(numb);
-                        });
-                        Log.d(TAG, "缓存的音频: " + wavFiles);
-                        while (currentTotalSize >= MainActivity.MAX_FOLDER_SIZE_BYTES && !wavFiles.isEmpty()) {
-                            File oldestFile = wavFiles.get(0);
-                            long oldestFileSize = oldestFile.length();
-                            if (oldestFile.delete()) {
-                                currentTotalSize -= oldestFileSize;
-                                wavFiles.remove(0);
-                            } else {
-                                Log.e(TAG, "Failed to delete file: " + oldestFile.getAbsolutePath());
-                            }
-                        }
-                    }
-                    Log.d(TAG, "清理任务执行完毕。");
-                } catch (Exception e) {
-                    Log.e(TAG, "清理任务发生错误", e);
-                }
-
-                try {
-                    Thread.sleep(MainActivity.CLEAN_MEMORY_FREQUENCY);
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "清理任务被中断", e);
-                }
-            }
-        });
-        deleteRecordFile.start();
+    /**
+     * 把一段完整的文件数据保存到 Download/voip 下
+     *
+     * @return 新文件的 Uri，失败时返回 null
+     */
+    public static Uri saveFileToDownloads(Context context, String fileName, byte[] fileData) {
+        return saveFileToDownloads(context, fileName, fileData, 0, fileData.length);
     }
 
     /**
-     * 扫描Download目录，获取所有符合命名规则的音频文件，并将其转换为FileRecordHistory对象列表。
-     * @return FileRecordHistory对象的列表，如果目录不存在或没有符合的文件，则返回空列表。
+     * 把 data[offset, offset + length) 保存到 Download/voip 下，用于编码器复用的输出缓冲区
+     *
+     * @return 新文件的 Uri，失败时返回 null
      */
-    public static List<FileRecordHistory> getAllFileRecords() {
-        List<FileRecordHistory> records = new ArrayList<>();
-
-        // 1. 获取外部存储的Download目录
-        File directory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS + "/voip");
-
-        // 检查目录是否存在且可读
-        if (!directory.exists() || !directory.isDirectory()) {
-            Log.e(TAG, "Download directory does not exist or is not a directory.");
-            return records; // 返回空列表
+    public static Uri saveFileToDownloads(Context context, String fileName, byte[] data, int offset, int length) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri fileUri = createDownloadEntry(context, fileName);
+        if (fileUri == null) {
+            Log.e(TAG, "创建文件失败: " + fileName);
+            return null;
         }
 
-        // 2. 创建一个文件过滤器，只筛选出符合命名规则的.wav文件
-        // 规则: 文件名必须包含 "_voip_up_" 并且以 ".wav" 结尾
-        FileFilter voipFileFilter = file -> file.isFile() &&
-                file.getName().contains("_voip_up_") &&
-                file.getName().endsWith(".wav");
-
-        File[] files = directory.listFiles(voipFileFilter);
+        // 通过 Uri 打开输出流，并写入文件数据
+        try (OutputStream outputStream = resolver.openOutputStream(fileUri)) {
+            if (outputStream == null) {
+                Log.e(TAG, "无法打开输出流: " + fileName);
+                discard(resolver, fileUri);
+                return null;
+            }
+            outputStream.write(data, offset, length);
+        } catch (IOException e) {
+            Log.e(TAG, "写入文件失败: " + fileName, e);
+            discard(resolver, fileUri);
+            return null;
+        }
+        return publish(resolver, fileUri);
+    }
 
-        // 检查文件列表是否为空
-        if (files == null || files.length == 0) {
-            Log.d(TAG, "No matching .wav files found.");
-            return records; // 返回空列表
+    /**
+     * 以流式方式把一段 PCM 保存为 Download/voip 下的 WAV 文件：
+     * 先写 WAV 头，再把 pcm[offset, offset + length) 直接写入 MediaStore 的输出流，不在内存中拼接完整文件。
+     *
+     * @return 新文件的 Uri，失败时返回 null
+     */
+    public static Uri saveWavToDownloads(Context context, String fileName, WavStreamWriter writer,
+                                         byte[] pcm, int offset, int length) {
+        Uri fileUri = createDownloadEntry(context, fileName);
+        if (fileUri == null) {
+            Log.e(TAG, "创建文件失败: " + fileName);
+            return null;
         }
-        List<String> fileNames =  Arrays.stream(files).map(File::getName).collect(Collectors.toList());
-        String[] split = fileNames.get(0).split("=");
-        fileNames.sort((a, b) -> {
-            Long numa = Long.parseLong(a.split("=")[0]);
-            Long numb = Long.parseLong(a.split("=")[0]);
-            return numb.compareTo(numa);
-        });
-        fileNames = fileNames.subList(0, Math.min(fileNames.size(), 50));
-        // 3. 遍历文件数组，解析文件名并创建对象
-        for (String fileName : fileNames) {
-            // 使用 try-catch 块来防止因文件名格式不匹配导致的崩溃
-            try {
-                // 文件名格式: timestamp=count=_voip_up_=direction=username=SessionId=.wav
-                String[] parts = fileName.split("=");
-
-                // 检查分割后的部分数量是否足够，防止数组越界
-                if (parts.length >= 5) {
-                    // 创建实体类对象
-                    FileRecordHistory record = new FileRecordHistory();
-
-                    // 根据文件名格式填充对象属性
-                    record.setTimestamp(parts[0]);
-                    record.setCount(parts[1]);
-                    // parts[2] 是固定的 "_voip_up_"，我们跳过
-                    record.setDirection(parts[3]);
-                    record.setUsername(parts[4]);
-
-                    // sessionId 在文件名中没有提供，所以保持为 null 或设置默认值
-                    record.setSessionId(parts[5]);
-
-                    // 将创建的对象添加到列表中
-                    records.add(record);
-                } else {
-                    Log.w(TAG, "Skipping file with incorrect format: " + fileName);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing file name: " + fileName, e);
+        ContentResolver resolver = context.getContentResolver();
+        try (OutputStream outputStream = resolver.openOutputStream(fileUri)) {
+            if (outputStream == null) {
+                Log.e(TAG, "无法打开输出流: " + fileName);
+                discard(resolver, fileUri);
+                return null;
             }
+            writer.write(outputStream, pcm, offset, length);
+        } catch (IOException e) {
+            Log.e(TAG, "写入 WAV 文件失败: " + fileName, e);
+            discard(resolver, fileUri);
+            return null;
         }
+        return publish(resolver, fileUri);
+    }
 
-        Log.d(TAG, "Found and parsed " + records.size() + " file records.");
-        return records;
+    /**
+     * 写入完成，清除 IS_PENDING 让文件对其他应用可见
+     *
+     * @return fileUri，更新失败时删除条目并返回 null
+     */
+    private static Uri publish(ContentResolver resolver, Uri fileUri) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        try {
+            resolver.update(fileUri, values, null, null);
+            return fileUri;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "发布文件失败: " + fileUri, e);
+            discard(resolver, fileUri);
+            return null;
+        }
     }
 
-    public static void saveFileToDownloads(Context context, String fileName, byte[] fileData) {
+    /**
+     * 删除写入失败的条目，不在 Download/voip 中留下空文件或半个文件
+     */
+    private static void discard(ContentResolver resolver, Uri fileUri) {
+        try {
+            resolver.delete(fileUri, null, null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "删除失败的条目失败: " + fileUri, e);
+        }
+    }
+
+    /**
+     * 在 Download/voip 目录下插入一个新的 MediaStore 文件条目
+     *
+     * @return 新条目的 Uri，失败时返回 null
+     */
+    private static Uri createDownloadEntry(Context context, String fileName) {
         ContentResolver resolver = context.getContentResolver();
         ContentValues contentValues = new ContentValues();
 
@@ -169,6 +133,8 @@ public class HistoryRecordUtil {
         // 这会在 Downloads 目录下创建一个 voip 子目录来存放文件
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_DOWNLOADS + "/" + "voip");
+            // 写完之前其他应用看不到这个文件，写完由 publish 清除
+            contentValues.put(MediaStore.MediaColumns.IS_PENDING, 1);
         }
 
         Uri collectionUri;
@@ -183,7 +149,6 @@ public class HistoryRecordUtil {
             if (!voipDir.exists()) {
                 voipDir.mkdirs();
             }
-            File file = new File(voipDir, fileName);
             // 对于旧版本，我们仍然使用 ContentValues，但 URI 是从文件路径生成的
             // 这部分逻辑较为复杂，通常建议对新旧系统采用不同方案
             // 为了简化，这里我们仅展示新系统的方法，因为它是未来的标准
@@ -193,19 +158,6 @@ public class HistoryRecordUtil {
         }
 
         // 3. 插入一个新的文件条目，并获取其 Uri
-        Uri fileUri = resolver.insert(collectionUri, contentValues);
-
-        // 4. 通过 Uri 打开输出流，并写入文件数据
-        if (fileUri != null) {
-            try (OutputStream outputStream = resolver.openOutputStream(fileUri)) {
-                if (outputStream != null) {
-                    outputStream.write(fileData);
-                    // 文件写入成功！
-                }
-            } catch (IOException e) {
-                // 处理 IO 异常
-                e.printStackTrace();
-            }
-        }
+        return resolver.insert(collectionUri, contentValues);
     }
 }
@@ -14,6 +14,10 @@ public class UserSessionVO {
     @SerializedName("image_frequency")
     private int imageFrequency;
 
+    // 可选：服务端指定本次会话的音频编码（"wav" / "flac"），缺省时使用本地设置
+    @SerializedName("audio_codec")
+    private String audioCodec;
+
     // --- Getters and Setters (可选但推荐) ---
     public String getSessionId() {
         return sessionId;
@@ -39,6 +43,14 @@ public class UserSessionVO {
         this.imageFrequency = imageFrequency;
     }
 
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    public void setAudioCodec(String audioCodec) {
+        this.audioCodec = audioCodec;
+    }
+
     // --- 重写 toString() 方法以便于打印和调试 ---
     @NonNull
     @Override
@@ -47,6 +59,7 @@ public class UserSessionVO {
                 "sessionId='" + sessionId + '\'' +
                 ", audioChunkSize=" + audioChunkSize +
                 ", imageFrequency=" + imageFrequency +
+                ", audioCodec='" + audioCodec + '\'' +
                 '}';
     }
 
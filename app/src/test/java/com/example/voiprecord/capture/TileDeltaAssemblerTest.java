@@ -0,0 +1,162 @@
+package com.example.voiprecord.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TileDeltaAssemblerTest {
+
+    @Test
+    public void keyframeThenDeltasAreApplied() throws IOException {
+        RecordingCanvas canvas = new RecordingCanvas();
+        TileDeltaAssembler assembler = new TileDeltaAssembler(canvas);
+
+        assertEquals(TileDeltaAssembler.Result.APPLIED, apply(assembler, keyframe(7, 300, 200)));
+        assertEquals("reset 300x200", canvas.calls.get(0));
+        assertEquals("tile 0,0 300x200 [1, 2, 3]", canvas.calls.get(1));
+
+        byte[] delta = frame(TileDeltaFormat.TYPE_DELTA, 8, 7, 300, 200,
+                new int[]{128, 0, 128, 128}, new int[]{256, 128, 44, 72});
+        assertEquals(TileDeltaAssembler.Result.APPLIED, apply(assembler, delta));
+        assertEquals(Arrays.asList(
+                "reset 300x200",
+                "tile 0,0 300x200 [1, 2, 3]",
+                "tile 128,0 128x128 [1, 2, 3]",
+                "tile 256,128 44x72 [1, 2, 3]"), canvas.calls);
+        assertEquals(8, assembler.getCurrentSeq());
+
+        // 没有变化的增量帧也推进序号
+        assertEquals(TileDeltaAssembler.Result.APPLIED,
+                apply(assembler, frame(TileDeltaFormat.TYPE_DELTA, 9, 8, 300, 200)));
+        assertEquals(9, assembler.getCurrentSeq());
+    }
+
+    @Test
+    public void deltaAfterGapWaitsForKeyframe() throws IOException {
+        RecordingCanvas canvas = new RecordingCanvas();
+        TileDeltaAssembler assembler = new TileDeltaAssembler(canvas);
+        apply(assembler, keyframe(1, 300, 200));
+
+        // 丢了 seq 2
+        byte[] delta = frame(TileDeltaFormat.TYPE_DELTA, 3, 2, 300, 200, new int[]{0, 0, 128, 128});
+        assertEquals(TileDeltaAssembler.Result.WAITING_FOR_KEYFRAME, apply(assembler, delta));
+        assertEquals(-1, assembler.getCurrentSeq());
+        // 之后连续的增量帧也不能应用
+        byte[] next = frame(TileDeltaFormat.TYPE_DELTA, 4, 3, 300, 200, new int[]{0, 0, 128, 128});
+        assertEquals(TileDeltaAssembler.Result.WAITING_FOR_KEYFRAME, apply(assembler, next));
+        assertEquals(2, canvas.calls.size());
+
+        assertEquals(TileDeltaAssembler.Result.APPLIED, apply(assembler, keyframe(5, 300, 200)));
+        assertEquals(5, assembler.getCurrentSeq());
+    }
+
+    @Test
+    public void deltaWithDifferentSizeWaitsForKeyframe() throws IOException {
+        TileDeltaAssembler assembler = new TileDeltaAssembler(new RecordingCanvas());
+        apply(assembler, keyframe(1, 300, 200));
+        byte[] delta = frame(TileDeltaFormat.TYPE_DELTA, 2, 1, 200, 300);
+        assertEquals(TileDeltaAssembler.Result.WAITING_FOR_KEYFRAME, apply(assembler, delta));
+    }
+
+    @Test
+    public void parseReadsTilesInPlace() throws IOException {
+        byte[] data = wrap(frame(TileDeltaFormat.TYPE_DELTA, 0xfffffffeL, 0xfffffffdL, 640, 480,
+                new int[]{512, 384, 128, 96}));
+        TileDeltaFormat.Frame frame = TileDeltaFormat.parse(data, 3, data.length - 6);
+        assertFalse(frame.isKeyframe());
+        assertEquals(0xfffffffeL, frame.getSeq());
+        assertEquals(0xfffffffdL, frame.getBase());
+        assertEquals(640, frame.getWidth());
+        assertEquals(480, frame.getHeight());
+        assertEquals(1, frame.getTiles().size());
+        TileDeltaFormat.Tile tile = frame.getTiles().get(0);
+        assertEquals(512, tile.x);
+        assertEquals(384, tile.y);
+        assertEquals(128, tile.width);
+        assertEquals(96, tile.height);
+        assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOfRange(tile.data, tile.offset, tile.offset + tile.length));
+    }
+
+    @Test
+    public void malformedFramesAreRejected() throws IOException {
+        byte[] valid = keyframe(1, 300, 200);
+        assertTrue(TileDeltaFormat.isTileDelta(valid, 0, valid.length));
+        assertFalse(TileDeltaFormat.isTileDelta(new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff, 0}, 0, 4));
+
+        // 截断的图块数据
+        assertRejected(Arrays.copyOf(valid, valid.length - 1));
+        // 截断的帧头
+        assertRejected(Arrays.copyOf(valid, TileDeltaFormat.FRAME_HEADER_SIZE - 1));
+        // 图块超出画面
+        assertRejected(frame(TileDeltaFormat.TYPE_DELTA, 2, 1, 300, 200, new int[]{256, 0, 128, 128}));
+        // 未知的帧类型
+        byte[] badType = valid.clone();
+        badType[4] = 9;
+        assertRejected(badType);
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            TileDeltaFormat.parse(data, 0, data.length);
+            fail("应当拒绝: " + Arrays.toString(data));
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static byte[] keyframe(long seq, int width, int height) throws IOException {
+        return frame(TileDeltaFormat.TYPE_KEYFRAME, seq, seq, width, height, new int[]{0, 0, width, height});
+    }
+
+    /**
+     * 每个图块的 JPEG 数据都用 {1, 2, 3} 代替
+     */
+    private static byte[] frame(int type, long seq, long base, int width, int height, int[]... tiles) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] scratch = new byte[TileDeltaFormat.FRAME_HEADER_SIZE];
+        byte[] jpeg = {1, 2, 3};
+        TileDeltaFormat.writeFrameHeader(out, scratch, type, seq, base, width, height, tiles.length);
+        for (int[] t : tiles) {
+            TileDeltaFormat.writeTile(out, scratch, t[0], t[1], t[2], t[3], jpeg, 0, jpeg.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 前后各加 3 个字节再交给 assembler，检查偏移量处理
+     */
+    private static TileDeltaAssembler.Result apply(TileDeltaAssembler assembler, byte[] frame) {
+        byte[] data = wrap(frame);
+        return assembler.apply(data, 3, frame.length);
+    }
+
+    private static byte[] wrap(byte[] frame) {
+        byte[] data = new byte[frame.length + 6];
+        System.arraycopy(frame, 0, data, 3, frame.length);
+        return data;
+    }
+
+    private static final class RecordingCanvas implements TileDeltaAssembler.Canvas {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void reset(int width, int height) {
+            calls.add("reset " + width + "x" + height);
+        }
+
+        @Override
+        public void drawTile(int x, int y, int width, int height, byte[] jpeg, int offset, int length) {
+            calls.add("tile " + x + "," + y + " " + width + "x" + height + " "
+                    + Arrays.toString(Arrays.copyOfRange(jpeg, offset, offset + length)));
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.voiprecord.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FlacEncoder 往返测试：用一个只支持本编码器输出子集（CONSTANT / VERBATIM / FIXED）的最小解码器解码，
+ * 结果必须与输入 PCM 逐字节一致。
+ */
+public class FlacEncoderTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    public void roundTrip_speechLikeSignal() {
+        byte[] pcm = speechLike(SAMPLE_RATE * 4, 1);
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE);
+        int length = encoder.encode(pcm, 0, pcm.length);
+
+        assertArrayEquals(pcm, decode(Arrays.copyOf(encoder.getBuffer(), length)));
+        assertTrue("expected compression, got " + length + " bytes", length < pcm.length * 0.8);
+    }
+
+    @Test
+    public void roundTrip_silenceIsTiny() {
+        byte[] pcm = new byte[SAMPLE_RATE * 2];
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE);
+        int length = encoder.encode(pcm, 0, pcm.length);
+
+        assertArrayEquals(pcm, decode(Arrays.copyOf(encoder.getBuffer(), length)));
+        assertTrue(length < 200);
+    }
+
+    @Test
+    public void roundTrip_noiseAndExtremes() {
+        Random random = new Random(42);
+        byte[] pcm = new byte[10_000];
+        random.nextBytes(pcm);
+        // 混入满幅度方波，覆盖 16 位边界值
+        for (int i = 0; i < 2000; i += 2) {
+            short v = (i / 40) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            pcm[i] = (byte) v;
+            pcm[i + 1] = (byte) (v >> 8);
+        }
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE);
+        int length = encoder.encode(pcm, 0, pcm.length);
+
+        assertArrayEquals(pcm, decode(Arrays.copyOf(encoder.getBuffer(), length)));
+    }
+
+    @Test
+    public void roundTrip_oddLengthsAndOffset() {
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE, 1024);
+        byte[] source = speechLike(5010, 7);
+        for (int samples : new int[]{0, 1, 5, 16, 1023, 1024, 1025, 4999}) {
+            int offset = 6;
+            byte[] pcm = Arrays.copyOfRange(source, offset, offset + samples * 2);
+            // 编码器复用缓冲区，同一个实例连续编码
+            int length = encoder.encode(source, offset, samples * 2);
+            assertArrayEquals("samples=" + samples, pcm, decode(Arrays.copyOf(encoder.getBuffer(), length)));
+        }
+    }
+
+    private static byte[] speechLike(int samples, long seed) {
+        Random random = new Random(seed);
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * i / 4000.0);
+            double v = envelope * (6000 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE)
+                    + 2500 * Math.sin(2 * Math.PI * 660 * i / SAMPLE_RATE))
+                    + random.nextGaussian() * 40;
+            short s = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v)));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    // ---- 最小 FLAC 解码器 ----
+
+    private static byte[] decode(byte[] flac) {
+        BitReader in = new BitReader(flac);
+        assertEquals(0x664C6143, in.read(32));
+        assertEquals(0x80, in.read(8));
+        assertEquals(34, in.read(24));
+        in.read(16);
+        in.read(16);
+        in.read(24);
+        in.read(24);
+        assertEquals(SAMPLE_RATE, in.read(20));
+        assertEquals(0, in.read(3));
+        assertEquals(15, in.read(5));
+        long totalSamples = ((long) in.read(4) << 32) | (in.read(32) & 0xFFFFFFFFL);
+        in.skipBytes(16);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long decoded = 0;
+        while (decoded < totalSamples) {
+            int[] block = decodeFrame(in);
+            for (int s : block) {
+                out.write(s & 0xFF);
+                out.write((s >> 8) & 0xFF);
+            }
+            decoded += block.length;
+        }
+        assertEquals(totalSamples, decoded);
+        assertEquals(flac.length, in.bytePosition());
+        return out.toByteArray();
+    }
+
+    private static int[] decodeFrame(BitReader in) {
+        int frameStart = in.bytePosition();
+        assertEquals(0x3FFE, in.read(14));
+        in.read(2);
+        int blockSizeCode = in.read(4);
+        int sampleRateCode = in.read(4);
+        assertEquals("mono", 0, in.read(4));
+        assertEquals("16 bit", 4, in.read(3));
+        in.read(1);
+        // UTF-8 编码的帧号
+        int first = in.read(8);
+        int extra = first < 0x80 ? 0 : Integer.numberOfLeadingZeros(~(first << 24)) - 1;
+        for (int i = 0; i < extra; i++) {
+            assertEquals(2, in.read(2));
+            in.read(6);
+        }
+        int n;
+        if (blockSizeCode == 6) {
+            n = in.read(8) + 1;
+        } else if (blockSizeCode == 7) {
+            n = in.read(16) + 1;
+        } else if (blockSizeCode >= 8) {
+            n = 256 << (blockSizeCode - 8);
+        } else {
+            n = blockSizeCode == 1 ? 192 : 576 << (blockSizeCode - 2);
+        }
+        if (sampleRateCode == 12) {
+            in.read(8);
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            in.read(16);
+        }
+        int headerCrc = in.read(8);
+        assertEquals(crc8(in.data, frameStart, in.bytePosition() - 1), headerCrc);
+
+        int[] samples = decodeSubframe(in, n);
+        in.alignToByte();
+        int frameCrc = in.read(16);
+        assertEquals(crc16(in.data, frameStart, in.bytePosition() - 2), frameCrc);
+        return samples;
+    }
+
+    private static int[] decodeSubframe(BitReader in, int n) {
+        assertEquals(0, in.read(1));
+        int type = in.read(6);
+        assertEquals("wasted bits", 0, in.read(1));
+        int[] samples = new int[n];
+        if (type == 0) {
+            Arrays.fill(samples, in.readSigned(16));
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) {
+                samples[i] = in.readSigned(16);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            for (int i = 0; i < order; i++) {
+                samples[i] = in.readSigned(16);
+            }
+            decodeResidual(in, samples, order, n);
+            for (int i = order; i < n; i++) {
+                samples[i] += predict(samples, order, i);
+            }
+        } else {
+            fail("unexpected subframe type " + type);
+        }
+        return samples;
+    }
+
+    private static int predict(int[] s, int order, int i) {
+        switch (order) {
+            case 0: return 0;
+            case 1: return s[i - 1];
+            case 2: return 2 * s[i - 1] - s[i - 2];
+            case 3: return 3 * s[i - 1] - 3 * s[i - 2] + s[i - 3];
+            default: return 4 * s[i - 1] - 6 * s[i - 2] + 4 * s[i - 3] - s[i - 4];
+        }
+    }
+
+    private static void decodeResidual(BitReader in, int[] samples, int order, int n) {
+        assertEquals("rice method", 0, in.read(2));
+        int partitionOrder = in.read(4);
+        int partitions = 1 << partitionOrder;
+        int pos = order;
+        for (int p = 0; p < partitions; p++) {
+            int count = (n >> partitionOrder) - (p == 0 ? order : 0);
+            int k = in.read(4);
+            assertNotEquals("escape code", 15, k);
+            for (int i = 0; i < count; i++) {
+                int q = 0;
+                while (in.read(1) == 0) {
+                    q++;
+                }
+                int u = (q << k) | (k > 0 ? in.read(k) : 0);
+                samples[pos++] = (u >>> 1) ^ -(u & 1);
+            }
+        }
+        assertEquals(n, pos);
+    }
+
+    private static int crc8(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xFFFF : (crc << 1) & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+
+    private static final class BitReader {
+        final byte[] data;
+        long bitPos;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        int read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                int b = data[(int) (bitPos >> 3)] >> (7 - (bitPos & 7)) & 1;
+                value = (value << 1) | b;
+                bitPos++;
+            }
+            return (int) value;
+        }
+
+        int readSigned(int bits) {
+            int v = read(bits);
+            return v << (32 - bits) >> (32 - bits);
+        }
+
+        void skipBytes(int count) {
+            bitPos += count * 8L;
+        }
+
+        void alignToByte() {
+            bitPos = (bitPos + 7) & ~7L;
+        }
+
+        int bytePosition() {
+            return (int) (bitPos >> 3);
+        }
+    }
+}
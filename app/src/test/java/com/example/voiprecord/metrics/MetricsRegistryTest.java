@@ -0,0 +1,85 @@
+package com.example.voiprecord.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void sameNameReturnsSameMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.counter("a"), registry.counter("a"));
+        assertSame(registry.gauge("a"), registry.gauge("a"));
+        assertSame(registry.histogram("a"), registry.histogram("a", new long[]{1}));
+    }
+
+    @Test
+    public void histogramBucketsAndPercentiles() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram histogram = registry.histogram("h", new long[]{10, 100, 1000});
+        // 边界值落在上界所在的桶
+        for (long v : new long[]{0, 5, 10, 11, 100, 500, 5000}) {
+            histogram.record(v);
+        }
+        HistogramSnapshot snapshot = registry.snapshot().getHistogram("h");
+        assertArrayEquals(new long[]{3, 2, 1, 1}, snapshot.getCounts());
+        assertEquals(7, snapshot.getCount());
+        assertEquals(5626, snapshot.getSum());
+        assertEquals(5000, snapshot.getMax());
+        assertEquals(100, snapshot.getPercentile(0.5));
+        assertEquals(1000, snapshot.getPercentile(0.8));
+        // 超出所有上界时取最大值
+        assertEquals(5000, snapshot.getPercentile(1));
+        assertEquals(0, new MetricsRegistry().histogram("empty").snapshot().getPercentile(0.5));
+    }
+
+    @Test
+    public void snapshotReadsCountersAndGauges() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("c").inc();
+        registry.counter("c").add(4);
+        registry.gauge("set").set(7);
+        AtomicLong depth = new AtomicLong(3);
+        registry.gauge("bound", depth::get);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(5, snapshot.getCounter("c"));
+        assertEquals(7, snapshot.getGauge("set"));
+        assertEquals(3, snapshot.getGauge("bound"));
+        assertEquals(0, snapshot.getCounter("missing"));
+        assertNull(snapshot.getHistogram("missing"));
+
+        // 重新绑定后读取新的值，快照本身不变
+        registry.gauge("bound", () -> 9);
+        assertEquals(3, snapshot.getGauge("bound"));
+        assertEquals(9, registry.snapshot().getGauge("bound"));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("c");
+        Histogram histogram = registry.histogram("h");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    counter.inc();
+                    histogram.record(j % 50);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, counter.get());
+        assertEquals(40_000, registry.snapshot().getHistogram("h").getCount());
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.voiprecord.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.voiprecord.codec.AudioCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class UploadJournalTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "upload_journal.log");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void write(String... lines) throws IOException {
+        writeRaw(String.join("\n", lines) + "\n");
+    }
+
+    private void writeRaw(String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static String p(long created, String session, int index, String baseUrl, String location) {
+        return "P\t" + created + "\t" + session + "\tch0\t" + index + "\twav\t1000\t" + baseUrl + "\t" + location;
+    }
+
+    @Test
+    public void pendingEntriesSurviveReopen() throws IOException {
+        UploadJournal journal = new UploadJournal(file);
+        UploadJournal.Entry done = journal.recordPending("s1", "ch0", 0, AudioCodec.WAV, 1044,
+                "http://a:8080", "content://media/external/downloads/1");
+        journal.recordPending("s1", "ch0", 1, AudioCodec.FLAC, 300, "http://a:8080",
+                "content://media/external/downloads/2");
+        journal.recordPending("s1", "ch1", 1, AudioCodec.WAV, 0, "http://a:8080", UploadJournal.silenceLocation(80000));
+        journal.markDone(done);
+
+        UploadJournal reopened = new UploadJournal(file);
+        assertEquals(2, reopened.getPendingCount());
+        UploadJournal.Entry flac = reopened.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST);
+        assertEquals("ch0", flac.getChannel());
+        assertEquals(1, flac.getIndex());
+        assertEquals(AudioCodec.FLAC, flac.getCodec());
+        assertEquals(300, flac.getLength());
+        assertEquals("http://a:8080", flac.getBaseUrl());
+        assertEquals("content://media/external/downloads/2", flac.getUri());
+        UploadJournal.Entry silence = reopened.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST);
+        assertTrue(silence.isSilence());
+        assertNull(silence.getUri());
+        assertEquals(80000, silence.getSilentSamples());
+    }
+
+    @Test
+    public void parsesOldAndNewPendingRecords() throws IOException {
+        long now = System.currentTimeMillis();
+        write("P\t" + now + "\told\tch0\t3\twav\t1000\tcontent://media/external/downloads/7",
+                p(now, "new", 4, "http://b:9000", "segment:new/ch0/4"),
+                p(now, "empty", 5, "", "content://media/external/downloads/8"));
+        UploadJournal journal = new UploadJournal(file);
+        assertEquals(3, journal.getPendingCount());
+
+        UploadJournal.Entry old = journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST);
+        assertEquals("old", old.getSessionId());
+        assertEquals(3, old.getIndex());
+        assertNull(old.getBaseUrl());
+        assertEquals("content://media/external/downloads/7", old.getUri());
+
+        UploadJournal.Entry current = journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST);
+        assertEquals("http://b:9000", current.getBaseUrl());
+        assertEquals("segment:new/ch0/4", current.getUri());
+
+        // 空的 baseUrl 列读出为 null
+        assertNull(journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getBaseUrl());
+    }
+
+    @Test
+    public void tornLastLineIsIgnored() throws IOException {
+        long now = System.currentTimeMillis();
+        writeRaw(p(now, "s1", 0, "http://a", "content://media/external/downloads/1") + "\n"
+                + "P\t" + now + "\ts1\tch0\t1\twa");
+        UploadJournal journal = new UploadJournal(file);
+        assertEquals(1, journal.getPendingCount());
+        // 打开时压缩，损坏的行不再保留
+        assertEquals(1, lines().size());
+
+        journal.recordPending("s1", "ch0", 1, AudioCodec.WAV, 1000, "http://a", "content://media/external/downloads/2");
+        assertEquals(2, new UploadJournal(file).getPendingCount());
+    }
+
+    @Test
+    public void tornLastLineIsIgnoredEvenIfItParses() throws IOException {
+        long now = System.currentTimeMillis();
+        // location 被截短，但列数和数字都完整
+        writeRaw(p(now, "s1", 0, "http://a", "content://media/external/downloads/1") + "\n"
+                + p(now, "s1", 1, "http://a", "content://media/external/downloads/1"));
+        UploadJournal journal = new UploadJournal(file);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(0, journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+        assertNull(journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST));
+    }
+
+    @Test
+    public void doneAndAbandonedRecordsCancelPending() throws IOException {
+        long now = System.currentTimeMillis();
+        write(p(now, "s1", 0, "", "content://1"),
+                p(now, "s1", 1, "", "content://2"),
+                p(now, "s1", 2, "", "content://3"),
+                "D\ts1\tch0\t0",
+                "A\ts1\tch0\t2");
+        UploadJournal journal = new UploadJournal(file);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(1, journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+        assertNull(journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST));
+    }
+
+    @Test
+    public void compactsWhenObsoleteRecordsReachThreshold() throws IOException {
+        UploadJournal journal = new UploadJournal(file);
+        journal.recordPending("keep", "ch0", 0, AudioCodec.WAV, 1000, "http://a", "content://keep");
+        // 每个完成的分片留下 P 和 D 两条已失效的记录
+        int finished = UploadJournal.COMPACT_THRESHOLD / 2;
+        for (int i = 0; i < finished - 1; i++) {
+            journal.markDone(journal.recordPending("s1", "ch0", i, AudioCodec.WAV, 1000, "http://a", "content://" + i));
+        }
+        assertEquals(1 + 2 * (finished - 1), lines().size());
+
+        journal.markDone(journal.recordPending("s1", "ch0", finished, AudioCodec.WAV, 1000, "http://a", "content://x"));
+        List<String> lines = lines();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("P\t"));
+        assertTrue(lines.get(0).endsWith("\tcontent://keep"));
+
+        // 压缩后继续追加
+        journal.recordPending("s2", "ch0", 0, AudioCodec.WAV, 1000, "http://a", "content://y");
+        assertEquals(2, new UploadJournal(file).getPendingCount());
+    }
+
+    @Test
+    public void entriesOlderThanMaxAgeAreAbandoned() throws IOException {
+        long now = System.currentTimeMillis();
+        write(p(now - UploadJournal.MAX_ENTRY_AGE_MS - 1000, "s1", 0, "", "content://1"),
+                p(now, "s1", 1, "", "content://2"));
+        UploadJournal journal = new UploadJournal(file);
+        assertEquals(2, journal.getPendingCount());
+
+        assertEquals(1, journal.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+        assertEquals(1, journal.getPendingCount());
+        assertTrue(lines().contains("A\ts1\tch0\t0"));
+        assertEquals(1, new UploadJournal(file).getPendingCount());
+    }
+
+    @Test
+    public void replayOrderAndQueuedEntries() throws IOException {
+        long now = System.currentTimeMillis();
+        write(p(now, "s1", 0, "", "content://1"),
+                p(now, "s1", 1, "", "content://2"),
+                p(now, "s1", 2, "", "content://3"));
+
+        UploadJournal oldest = new UploadJournal(file);
+        assertEquals(0, oldest.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+        assertEquals(1, oldest.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+
+        UploadJournal newest = new UploadJournal(file);
+        UploadJournal.Entry last = newest.nextForReplay(UploadJournal.ReplayOrder.NEWEST_FIRST);
+        assertEquals(2, last.getIndex());
+        assertEquals(1, newest.nextForReplay(UploadJournal.ReplayOrder.NEWEST_FIRST).getIndex());
+        assertEquals(0, newest.nextForReplay(UploadJournal.ReplayOrder.NEWEST_FIRST).getIndex());
+        // 都已入队
+        assertFalse(newest.hasReplayable());
+        assertNull(newest.nextForReplay(UploadJournal.ReplayOrder.NEWEST_FIRST));
+
+        // 上传失败后放回，可以再次补传
+        newest.release(last);
+        assertTrue(newest.hasReplayable());
+        assertEquals(2, newest.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getIndex());
+    }
+
+    @Test
+    public void newRecordForSameChunkReplacesOld() throws IOException {
+        UploadJournal journal = new UploadJournal(file);
+        journal.recordPending("s1", "ch0", 0, AudioCodec.WAV, 1000, "http://a", "content://old");
+        journal.recordPending("s1", "ch0", 0, AudioCodec.WAV, 1000, "http://a", "content://new");
+        UploadJournal reopened = new UploadJournal(file);
+        assertEquals(1, reopened.getPendingCount());
+        assertEquals("content://new", reopened.nextForReplay(UploadJournal.ReplayOrder.OLDEST_FIRST).getUri());
+    }
+}
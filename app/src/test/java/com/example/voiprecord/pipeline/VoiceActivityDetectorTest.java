@@ -0,0 +1,91 @@
+package com.example.voiprecord.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    // 与录音分片相同的 5 秒
+    private static final int CHUNK_SAMPLES = SAMPLE_RATE * 5;
+    // 模拟 AudioRecord 的读取大小，故意取奇数字节，让帧和采样都跨越两次 read
+    private static final int READ_BYTES = 1279;
+
+    private final VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+    private final Random random = new Random(42);
+    private long position;
+
+    /**
+     * 生成一个分片：220Hz 正弦波（幅度 toneAmplitude，按 modulation 做 3Hz 幅度调制）加高斯噪声
+     */
+    private byte[] chunk(double toneAmplitude, double modulation, double noiseRms) {
+        byte[] pcm = new byte[CHUNK_SAMPLES * 2];
+        for (int i = 0; i < CHUNK_SAMPLES; i++, position++) {
+            double t = (double) position / SAMPLE_RATE;
+            double envelope = 1 - modulation * (0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t));
+            double value = toneAmplitude * envelope * Math.sin(2 * Math.PI * 220 * t) + noiseRms * random.nextGaussian();
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private boolean isSilent(byte[] pcm) {
+        for (int offset = 0; offset < pcm.length; offset += READ_BYTES) {
+            vad.process(pcm, offset, Math.min(READ_BYTES, pcm.length - offset));
+        }
+        boolean silent = vad.isSilent();
+        assertEquals(CHUNK_SAMPLES, vad.getSampleCount());
+        vad.reset();
+        return silent;
+    }
+
+    @Test
+    public void continuousSpeechStaysVoiced() {
+        for (double modulation : new double[]{0, 0.3, 0.6}) {
+            for (int i = 0; i < 12; i++) {
+                assertFalse("modulation " + modulation + ", chunk " + i, isSilent(chunk(4000, modulation, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void speechOverNoiseIsVoicedAndNoiseAloneIsSilent() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue("noise chunk " + i, isSilent(chunk(0, 0, 300)));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertFalse("speech chunk " + i, isSilent(chunk(4000, 0.6, 300)));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue("noise chunk after speech " + i, isSilent(chunk(0, 0, 300)));
+        }
+    }
+
+    @Test
+    public void realSilenceIsSilent() {
+        assertTrue(isSilent(new byte[CHUNK_SAMPLES * 2]));
+        for (int i = 0; i < 3; i++) {
+            assertTrue("quiet chunk " + i, isSilent(chunk(0, 0, 20)));
+        }
+        // 说话之后回到安静
+        assertFalse(isSilent(chunk(4000, 0.3, 20)));
+        assertTrue(isSilent(chunk(0, 0, 20)));
+    }
+
+    @Test
+    public void shortBurstBelowMinimumIsSilent() {
+        byte[] pcm = chunk(0, 0, 20);
+        byte[] burst = chunk(4000, 0, 0);
+        // 只有 2 帧（40ms）响声
+        int burstBytes = 2 * SAMPLE_RATE / 50 * 2;
+        System.arraycopy(burst, 0, pcm, pcm.length / 2, burstBytes);
+        assertTrue(isSilent(pcm));
+    }
+}
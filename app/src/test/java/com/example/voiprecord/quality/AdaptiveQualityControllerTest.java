@@ -0,0 +1,175 @@
+package com.example.voiprecord.quality;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.voiprecord.rpc.UploadMeter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class AdaptiveQualityControllerTest {
+
+    private static final long TICK = AdaptiveQualityController.CONTROL_INTERVAL_MS;
+
+    private final UploadMeter meter = new UploadMeter();
+    private final AdaptiveQualityController.Bounds bounds =
+            new AdaptiveQualityController.Bounds(30, 90, 0.5f, 1f, 1000, 4000);
+    private ScheduledExecutorService executor;
+    private AdaptiveQualityController controller;
+    private int backlog;
+    private QualitySettings applied;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        controller = new AdaptiveQualityController(executor, new AdaptiveQualityController.Target() {
+            @Override
+            public int getUploadBacklog() {
+                return backlog;
+            }
+
+            @Override
+            public void applyQuality(QualitySettings settings) {
+                applied = settings;
+            }
+        }, meter, bounds);
+        controller.start();
+        assertEquals(0, applied.getLevel());
+        applied = null;
+    }
+
+    @After
+    public void tearDown() {
+        controller.stop();
+        executor.shutdownNow();
+    }
+
+    private void calmTick() {
+        backlog = 0;
+        controller.tick(TICK);
+    }
+
+    @Test
+    public void downgradesOnBacklogFailuresAndBusyLink() {
+        backlog = 2;
+        controller.tick(TICK);
+        assertEquals(1, controller.getLevel());
+        assertEquals(1, applied.getLevel());
+
+        // 积压超过两倍阈值时一次降两档
+        backlog = 3;
+        controller.tick(TICK);
+        assertEquals(3, controller.getLevel());
+
+        backlog = 0;
+        meter.recordFailure(10);
+        controller.tick(TICK);
+        assertEquals(4, controller.getLevel());
+
+        // 占用率 90%
+        meter.recordAttempt(100_000, TICK * 9 / 10);
+        controller.tick(TICK);
+        assertEquals(5, controller.getLevel());
+
+        backlog = 10;
+        for (int i = 0; i < 5; i++) {
+            controller.tick(TICK);
+        }
+        assertEquals(AdaptiveQualityController.MAX_LEVEL, controller.getLevel());
+        assertEquals(AdaptiveQualityController.MAX_LEVEL, applied.getLevel());
+    }
+
+    @Test
+    public void upgradesOnlyAfterConsecutiveCalmTicks() {
+        backlog = 3;
+        controller.tick(TICK);
+        assertEquals(2, controller.getLevel());
+        long downgrades = controller.getDowngrades();
+        applied = null;
+
+        calmTick();
+        calmTick();
+        assertEquals(2, controller.getLevel());
+        assertNull(applied);
+
+        // 不算空闲也不算拥塞的周期清零计数
+        backlog = 1;
+        controller.tick(TICK);
+        calmTick();
+        calmTick();
+        assertEquals(2, controller.getLevel());
+
+        calmTick();
+        assertEquals(1, controller.getLevel());
+        assertEquals(1, applied.getLevel());
+
+        // 升一档后重新计数
+        calmTick();
+        calmTick();
+        assertEquals(1, controller.getLevel());
+        calmTick();
+        assertEquals(0, controller.getLevel());
+
+        // 已经是最高质量
+        for (int i = 0; i < 6; i++) {
+            calmTick();
+        }
+        assertEquals(0, controller.getLevel());
+        assertEquals(2, controller.getUpgrades());
+        assertEquals(downgrades, controller.getDowngrades());
+    }
+
+    @Test
+    public void moderateUtilizationDoesNotUpgrade() {
+        backlog = 2;
+        controller.tick(TICK);
+        assertEquals(1, controller.getLevel());
+        for (int i = 0; i < 5; i++) {
+            // 占用率 50%，介于两个阈值之间
+            meter.recordAttempt(100_000, TICK / 2);
+            calmTick();
+        }
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void settingsInterpolateBetweenBounds() {
+        QualitySettings best = controller.settingsFor(0);
+        assertEquals(90, best.getJpegQuality());
+        assertEquals(1f, best.getScreenshotScale(), 1e-6);
+        assertEquals(1000, best.getScreenshotIntervalMs());
+
+        // 前半程：JPEG 质量降得最快，间隔线性拉长，分辨率不变
+        QualitySettings quarter = controller.settingsFor(2);
+        assertEquals(60, quarter.getJpegQuality());
+        assertEquals(1f, quarter.getScreenshotScale(), 1e-6);
+        assertEquals(1750, quarter.getScreenshotIntervalMs());
+
+        QualitySettings half = controller.settingsFor(4);
+        assertEquals(30, half.getJpegQuality());
+        assertEquals(1f, half.getScreenshotScale(), 1e-6);
+        assertEquals(2500, half.getScreenshotIntervalMs());
+
+        // 后半程才降低分辨率
+        QualitySettings threeQuarters = controller.settingsFor(6);
+        assertEquals(30, threeQuarters.getJpegQuality());
+        assertEquals(0.75f, threeQuarters.getScreenshotScale(), 1e-6);
+        assertEquals(3250, threeQuarters.getScreenshotIntervalMs());
+
+        QualitySettings worst = controller.settingsFor(AdaptiveQualityController.MAX_LEVEL);
+        assertEquals(30, worst.getJpegQuality());
+        assertEquals(0.5f, worst.getScreenshotScale(), 1e-6);
+        assertEquals(4000, worst.getScreenshotIntervalMs());
+
+        // 超出范围的档位按最低质量计算
+        QualitySettings beyond = controller.settingsFor(AdaptiveQualityController.MAX_LEVEL + 5);
+        assertEquals(30, beyond.getJpegQuality());
+        assertEquals(0.5f, beyond.getScreenshotScale(), 1e-6);
+        assertEquals(4000, beyond.getScreenshotIntervalMs());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.voiprecord.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+public class ChunkFileNameTest {
+
+    private static long localMillis(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void formatMatchesSchema() {
+        long time = localMillis(2024, 3, 9, 7, 5, 4) + 999;
+        assertEquals("20240309070504=12=_voip_up_=ch0=alice=s-1=.wav",
+                ChunkFileName.format(time, 12, "ch0", "alice", "s-1", "wav"));
+        assertEquals("20240309070504", ChunkFileName.formatTimestamp(time));
+    }
+
+    @Test
+    public void parseReadsAllFields() {
+        ChunkFileName name = ChunkFileName.parse("20241231235959=0=_voip_up_=ch1=bob=abc123=.flac");
+        assertNotNull(name);
+        assertEquals(localMillis(2024, 12, 31, 23, 59, 59), name.getTimestampMillis());
+        assertEquals(0, name.getIndex());
+        assertEquals("ch1", name.getChannel());
+        assertEquals("bob", name.getUsername());
+        assertEquals("abc123", name.getSessionId());
+        assertEquals("flac", name.getExtension());
+        // 重复出现的字段共用同一份字符串
+        assertSame(name.getSessionId(),
+                ChunkFileName.parse("20241231235959=1=_voip_up_=ch0=bob=abc123=.flac").getSessionId());
+    }
+
+    @Test
+    public void roundTripAcrossHours() {
+        long start = localMillis(2024, 1, 1, 0, 0, 0);
+        // 跨小时、跨天、跨月，交替格式化不同小时以绕过缓存
+        for (long t = start; t < start + 40L * 24 * 3600_000; t += 3600_000L * 7 + 61_000) {
+            String formatted = ChunkFileName.format(t, 3, "ch0", "u", "s", "wav");
+            ChunkFileName parsed = ChunkFileName.parse(formatted);
+            assertNotNull(formatted, parsed);
+            // 文件名只精确到秒
+            assertEquals(formatted, t / 1000 * 1000, parsed.getTimestampMillis());
+            assertEquals(formatted, parsed.toString());
+        }
+    }
+
+    @Test
+    public void malformedNamesReturnNull() {
+        String[] names = {
+                null,
+                "",
+                "20240101000000",
+                "2024010100000=1=_voip_up_=ch0=u=s=.wav",     // 时间少一位
+                "2024010100000x=1=_voip_up_=ch0=u=s=.wav",    // 时间含非数字
+                "20241301000000=1=_voip_up_=ch0=u=s=.wav",    // 月份越界
+                "20240230000000=1=_voip_up_=ch0=u=s=.wav",    // 2 月 30 日
+                "20240101006000=1=_voip_up_=ch0=u=s=.wav",    // 分钟越界
+                "20240101000000==_voip_up_=ch0=u=s=.wav",     // 缺少序号
+                "20240101000000=-1=_voip_up_=ch0=u=s=.wav",
+                "20240101000000=1234567890=_voip_up_=ch0=u=s=.wav",
+                "20240101000000=1=_voip_=ch0=u=s=.wav",       // 标记不对
+                "20240101000000=1=_voip_up_==u=s=.wav",       // 空声道
+                "20240101000000=1=_voip_up_=ch0=u=.wav",      // 缺少会话
+                "20240101000000=1=_voip_up_=ch0=u=s=wav",     // 扩展名缺少点
+                "20240101000000=1=_voip_up_=ch0=u=s=.",
+                "20240101000000=1=_voip_up_=ch0=u=s=.wav=x",
+                "20240101000000=1=_voip_up_=ch0=u=s",
+        };
+        for (String name : names) {
+            assertNull(name, ChunkFileName.parse(name));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.voiprecord.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.voiprecord.codec.AudioCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+public class SegmentFileTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("segments").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private File data() {
+        return new File(dir, "ch0" + SegmentFile.DATA_SUFFIX);
+    }
+
+    private File index() {
+        return new File(dir, "ch0" + SegmentFile.INDEX_SUFFIX);
+    }
+
+    @Test
+    public void appendedRecordsSurviveReopen() throws IOException {
+        byte[] first = payload(3200, 1);
+        byte[] second = payload(1000, 2);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertTrue(segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length));
+            assertTrue(segment.append(1, 2000L, AudioCodec.FLAC, second, 0, second.length));
+            assertFalse(segment.append(1, 3000L, AudioCodec.WAV, second, 0, 10));
+            assertArrayEquals(first, segment.read(0));
+        }
+        assertEquals(2L * SegmentFile.INDEX_ENTRY_SIZE, index().length());
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertEquals(2, segment.size());
+            assertEquals(0, segment.getRecoveredRecords());
+            assertArrayEquals(first, segment.read(0));
+            assertArrayEquals(second, segment.read(1));
+            assertEquals(AudioCodec.FLAC, segment.get(1).codec);
+            assertEquals(2000L, segment.get(1).timestampMillis);
+            assertNull(segment.read(2));
+        }
+    }
+
+    @Test
+    public void missingIndexEntriesAreRebuiltFromData() throws IOException {
+        byte[] first = payload(500, 3);
+        byte[] second = payload(700, 4);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length);
+            segment.append(1, 2000L, AudioCodec.WAV, second, 0, second.length);
+        }
+        // 模拟写完数据、还没写索引时进程被杀
+        try (RandomAccessFile raf = new RandomAccessFile(index(), "rw")) {
+            raf.setLength(SegmentFile.INDEX_ENTRY_SIZE + 5);
+        }
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertEquals(1, segment.getRecoveredRecords());
+            assertEquals(0, segment.getTruncatedBytes());
+            assertArrayEquals(second, segment.read(1));
+        }
+        assertEquals(2L * SegmentFile.INDEX_ENTRY_SIZE, index().length());
+    }
+
+    @Test
+    public void tornTailIsTruncatedAndAppendContinues() throws IOException {
+        byte[] first = payload(500, 5);
+        byte[] second = payload(700, 6);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length);
+            segment.append(1, 2000L, AudioCodec.WAV, second, 0, second.length);
+        }
+        long complete = SegmentFile.RECORD_HEADER_SIZE + first.length;
+        try (RandomAccessFile raf = new RandomAccessFile(data(), "rw")) {
+            raf.setLength(complete + SegmentFile.RECORD_HEADER_SIZE + 100);
+        }
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertEquals(1, segment.size());
+            assertEquals(SegmentFile.RECORD_HEADER_SIZE + 100, segment.getTruncatedBytes());
+            assertTrue(segment.append(1, 2000L, AudioCodec.WAV, second, 0, second.length));
+        }
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertEquals(2, segment.size());
+            assertArrayEquals(first, segment.read(0));
+            assertArrayEquals(second, segment.read(1));
+        }
+    }
+
+    @Test
+    public void readOnlyOpenRecoversWithoutModifyingFiles() throws IOException {
+        byte[] first = payload(500, 8);
+        byte[] second = payload(700, 9);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length);
+            segment.append(1, 2000L, AudioCodec.WAV, second, 0, second.length);
+        }
+        // 第二条记录没有索引，末尾还有写了一半的记录
+        try (RandomAccessFile raf = new RandomAccessFile(index(), "rw")) {
+            raf.setLength(SegmentFile.INDEX_ENTRY_SIZE + 5);
+        }
+        long dataLength = data().length() + SegmentFile.RECORD_HEADER_SIZE + 100;
+        try (RandomAccessFile raf = new RandomAccessFile(data(), "rw")) {
+            raf.setLength(dataLength);
+        }
+        try (SegmentFile segment = new SegmentFile(dir, "ch0", true)) {
+            assertEquals(2, segment.records().size());
+            assertEquals(1, segment.getRecoveredRecords());
+            assertEquals(SegmentFile.RECORD_HEADER_SIZE + 100, segment.getTruncatedBytes());
+            assertArrayEquals(second, segment.read(1));
+            try {
+                segment.append(2, 3000L, AudioCodec.WAV, first, 0, first.length);
+                fail("append on a read-only segment");
+            } catch (IOException expected) {
+                // 只读
+            }
+            segment.force();
+        }
+        assertEquals(dataLength, data().length());
+        assertEquals(SegmentFile.INDEX_ENTRY_SIZE + 5, index().length());
+    }
+
+    @Test
+    public void readOnlyOpenWithoutIndexScansData() throws IOException {
+        byte[] first = payload(500, 10);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length);
+        }
+        assertTrue(index().delete());
+        try (SegmentFile segment = new SegmentFile(dir, "ch0", true)) {
+            assertEquals(1, segment.size());
+            assertArrayEquals(first, segment.read(0));
+        }
+        assertFalse(index().exists());
+    }
+
+    @Test
+    public void corruptedPayloadFailsCrc() throws IOException {
+        byte[] first = payload(500, 7);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            segment.append(0, 1000L, AudioCodec.WAV, first, 0, first.length);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(data(), "rw")) {
+            raf.seek(SegmentFile.RECORD_HEADER_SIZE + 10);
+            raf.write(first[10] ^ 0xFF);
+        }
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            assertEquals(1, segment.size());
+            assertNull(segment.read(0));
+        }
+    }
+
+    @Test
+    public void recordsAreSortedByChunkIndexAndPointAtPayload() throws IOException {
+        byte[] a = payload(300, 8);
+        byte[] b = payload(200, 9);
+        try (SegmentFile segment = new SegmentFile(dir, "ch0")) {
+            // 序号 1 先于序号 0 写入
+            segment.append(1, 2000L, AudioCodec.WAV, b, 0, b.length);
+            segment.append(0, 1000L, AudioCodec.WAV, a, 0, a.length);
+            List<SegmentFile.Record> records = segment.records();
+            assertEquals(2, records.size());
+            assertEquals(0, records.get(0).index);
+            assertEquals(1, records.get(1).index);
+        }
+        // 导出时按记录的偏移直接读取数据文件
+        try (SegmentFile segment = new SegmentFile(dir, "ch0");
+             RandomAccessFile raf = new RandomAccessFile(data(), "r")) {
+            SegmentFile.Record record = segment.get(0);
+            byte[] read = new byte[record.length];
+            raf.seek(record.offset + SegmentFile.RECORD_HEADER_SIZE);
+            raf.readFully(read);
+            assertArrayEquals(a, read);
+        }
+    }
+}
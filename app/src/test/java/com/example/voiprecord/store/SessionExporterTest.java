@@ -0,0 +1,73 @@
+package com.example.voiprecord.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.voiprecord.VoipRecordService;
+import com.example.voiprecord.codec.WavStreamWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public class SessionExporterTest {
+
+    private static long[] findData(byte[] file, int channels) throws IOException {
+        File temp = File.createTempFile("chunk", ".wav");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.write(file);
+            FileChannel channel = raf.getChannel();
+            return SessionExporter.findData(channel, channels);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static byte[] wav(int sampleRate, int channels, int pcmBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WavStreamWriter(sampleRate, channels, 16).write(out, new byte[pcmBytes], 0, pcmBytes);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void findsDataOfChunkWrittenByWavStreamWriter() throws IOException {
+        byte[] file = wav(VoipRecordService.SAMPLE_RATE, 1, 3200);
+        assertArrayEquals(new long[]{WavStreamWriter.HEADER_SIZE, 3200}, findData(file, 1));
+    }
+
+    @Test
+    public void skipsUnknownChunksBeforeData() throws IOException {
+        byte[] plain = wav(VoipRecordService.SAMPLE_RATE, 1, 100);
+        // 在 fmt 和 data 之间插入一个长度为奇数的 LIST 块（带一个填充字节）
+        ByteBuffer file = ByteBuffer.allocate(plain.length + 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        file.put(plain, 0, 36);
+        file.put(new byte[]{'L', 'I', 'S', 'T'}).putInt(3).put(new byte[]{1, 2, 3, 0});
+        file.put(plain, 36, plain.length - 36);
+        assertArrayEquals(new long[]{56, 100}, findData(file.array(), 1));
+    }
+
+    @Test
+    public void dataLengthIsClampedToFileSize() throws IOException {
+        byte[] file = wav(VoipRecordService.SAMPLE_RATE, 1, 1000);
+        byte[] truncated = new byte[WavStreamWriter.HEADER_SIZE + 501];
+        System.arraycopy(file, 0, truncated, 0, truncated.length);
+        // 截断后按整数个采样读取
+        assertArrayEquals(new long[]{WavStreamWriter.HEADER_SIZE, 500}, findData(truncated, 1));
+    }
+
+    @Test
+    public void rejectsOtherFormats() throws IOException {
+        assertNull(findData(wav(VoipRecordService.SAMPLE_RATE, 2, 100), 1));
+        assertNull(findData(wav(8000, 1, 100), 1));
+        assertNull(findData(new byte[]{'R', 'I', 'F', 'F'}, 1));
+        byte[] notWave = wav(VoipRecordService.SAMPLE_RATE, 1, 100);
+        notWave[8] = 'X';
+        assertNull(findData(notWave, 1));
+    }
+}
@@ -0,0 +1,75 @@
+"""截图分块增量帧（VTD1）的解析与画面还原，与 Android 端 TileDeltaFormat / TileDeltaAssembler 对应。
+
+帧格式（大端）:
+    magic "VTD1" | type u8 (0 关键帧, 1 增量帧) | seq u32 | base u32 | width u16 | height u16 | count u16
+    然后 count 个图块: x u16 | y u16 | w u16 | h u16 | length u32 | JPEG 数据
+
+用法:
+    assembler = TileDeltaAssembler()
+    if is_tile_delta(data):
+        img = assembler.apply(data)   # 返回还原后的 BGR 画面；丢帧后等待关键帧期间返回 None
+"""
+import struct
+
+import cv2
+import numpy as np
+
+MAGIC = b'VTD1'
+TYPE_KEYFRAME = 0
+TYPE_DELTA = 1
+FRAME_HEADER = struct.Struct('>4sBIIHHH')
+TILE_HEADER = struct.Struct('>HHHHI')
+
+
+def is_tile_delta(data):
+    return data[:4] == MAGIC
+
+
+def parse_frame(data):
+    """解析一帧，返回 (is_keyframe, seq, base, width, height, tiles)，tiles 为 (x, y, w, h, jpeg) 列表"""
+    if len(data) < FRAME_HEADER.size or not is_tile_delta(data):
+        raise ValueError("不是 VTD1 数据")
+    _, frame_type, seq, base, width, height, count = FRAME_HEADER.unpack_from(data, 0)
+    if frame_type not in (TYPE_KEYFRAME, TYPE_DELTA):
+        raise ValueError(f"未知的帧类型: {frame_type}")
+    tiles = []
+    pos = FRAME_HEADER.size
+    for i in range(count):
+        if len(data) - pos < TILE_HEADER.size:
+            raise ValueError(f"图块头不完整: {i}")
+        x, y, w, h, length = TILE_HEADER.unpack_from(data, pos)
+        pos += TILE_HEADER.size
+        if length > len(data) - pos:
+            raise ValueError(f"图块数据不完整: {i}")
+        if w == 0 or h == 0 or x + w > width or y + h > height:
+            raise ValueError(f"图块超出画面: {x},{y} {w}x{h}")
+        tiles.append((x, y, w, h, data[pos:pos + length]))
+        pos += length
+    return frame_type == TYPE_KEYFRAME, seq, base, width, height, tiles
+
+
+class TileDeltaAssembler:
+    """关键帧重置画面；增量帧只有 base 等于当前画面序号时才应用，否则丢弃并等待下一个关键帧"""
+
+    def __init__(self):
+        self.frame = None
+        self.seq = None
+
+    def apply(self, data):
+        keyframe, seq, base, width, height, tiles = parse_frame(data)
+        if keyframe:
+            self.frame = np.zeros((height, width, 3), np.uint8)
+        elif self.frame is None or base != self.seq or self.frame.shape[:2] != (height, width):
+            self.frame = None
+            self.seq = None
+            return None
+        for x, y, w, h, jpeg in tiles:
+            tile = cv2.imdecode(np.frombuffer(jpeg, np.uint8), cv2.IMREAD_COLOR)
+            if tile is None or tile.shape[:2] != (h, w):
+                # 图块损坏时画面不再可信，等待关键帧
+                self.frame = None
+                self.seq = None
+                return None
+            self.frame[y:y + h, x:x + w] = tile
+        self.seq = seq
+        return self.frame
@@ -9,6 +9,7 @@ import struct
 import time
 import queue
 import cv2
+from screen_delta import TileDeltaAssembler, is_tile_delta
 # 服务器配置
 SERVER_HOST = '0.0.0.0'
 UPLINK_PORT = 8001   # 上行音频端口
@@ -82,6 +83,8 @@ class AudioStreamServer:
             
             # 用于存储最后一张有效的截图
             last_valid_img = None
+            # 客户端开启分块增量（screenshot_tiles）时发送的是 VTD1 帧，每个连接独立还原
+            assembler = TileDeltaAssembler()
             print("running:", self.running)
             while self.running:
                 # 接收图片大小
@@ -106,8 +109,17 @@ class AudioStreamServer:
                     continue
                 print("图片接收完毕")
                 # 转换为OpenCV图像
-                nparr = np.frombuffer(img_data, np.uint8)
-                img = cv2.imdecode(nparr, cv2.IMREAD_COLOR)
+                if is_tile_delta(img_data):
+                    try:
+                        img = assembler.apply(img_data)
+                    except ValueError as e:
+                        print(f"Bad tile delta frame: {e}")
+                        img = None
+                    if img is not None:
+                        img = img.copy()
+                else:
+                    nparr = np.frombuffer(img_data, np.uint8)
+                    img = cv2.imdecode(nparr, cv2.IMREAD_COLOR)
                 if img is not None:
                     # 更新最后一张有效截图
                     last_valid_img = img